@@ -0,0 +1,72 @@
+package org.opencb.variant.bench;
+
+import org.opencb.commons.bioformats.pedigree.Pedigree;
+import org.opencb.commons.bioformats.pedigree.io.readers.PedigreePedReader;
+import org.opencb.commons.bioformats.pedigree.io.readers.PedigreeReader;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.filters.VariantCompoundHeterozygosityFilter;
+import org.opencb.commons.bioformats.variant.filters.VariantGeneLevelFilter;
+import org.opencb.variant.lib.filters.VariantCompoundHetFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gene-level compound heterozygosity filtering, one gene at a time as the by-gene reader
+ * delivers them, with the filter of opencb-commons and with the bitset one of this project, with the
+ * same rules and with the strict ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompoundHeterozygosityBenchmark {
+
+    private static final int VARIANTS_PER_GENE = 20;
+
+    @Param({"30", "300", "3000"})
+    public int samples;
+
+    @Param({"commons", "bitset", "bitset-strict"})
+    public String filterType;
+
+    private List<List<Variant>> genes;
+    private VariantGeneLevelFilter filter;
+
+    @Setup
+    public void setUp() throws IOException {
+        File vcf = SyntheticData.vcf(5000, samples, VARIANTS_PER_GENE);
+        File ped = SyntheticData.ped(samples);
+
+        Pedigree pedigree = null;
+        PedigreeReader pedReader = new PedigreePedReader(ped.getAbsolutePath());
+        if (pedReader.open()) {
+            pedigree = pedReader.read();
+            pedReader.close();
+        }
+        filter = filterType.startsWith("bitset")
+                ? new VariantCompoundHetFilter(pedigree).strict(filterType.endsWith("strict"))
+                : new VariantCompoundHeterozygosityFilter(pedigree);
+
+        List<Variant> variants = SyntheticData.read(vcf);
+        genes = new ArrayList<>();
+        for (int i = 0; i < variants.size(); i += VARIANTS_PER_GENE) {
+            genes.add(variants.subList(i, Math.min(i + VARIANTS_PER_GENE, variants.size())));
+        }
+    }
+
+    @Benchmark
+    public int apply() {
+        int passed = 0;
+        for (List<Variant> gene : genes) {
+            passed += filter.apply(new ArrayList<>(gene)).size();
+        }
+        return passed;
+    }
+}
@@ -0,0 +1,175 @@
+package org.opencb.variant.bench;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.utils.effect.VariantEffect;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantReader;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantVcfReader;
+import org.opencb.variant.lib.utils.VariantFields;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Small deterministic VCF, PED and BED files for the benchmarks, so they do not depend on data
+ * that only exists on some machines.
+ */
+public class SyntheticData {
+
+    public static final String GENE_KEY = VariantFields.GENE_KEY;
+
+    private static final String[] BASES = {"A", "C", "G", "T"};
+    private static final String[] CONSEQUENCE_TYPES = {"missense_variant", "synonymous_variant",
+            "intron_variant", "stop_gained"};
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Write a coordinate-sorted VCF with SNVs on chromosome 1, grouped in genes of
+     * {@code variantsPerGene} consecutive variants.
+     */
+    public static File vcf(int variants, int samples, int variantsPerGene) throws IOException {
+        File file = File.createTempFile("variant-bench-", ".vcf");
+        file.deleteOnExit();
+        Random random = new Random(42);
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            writer.write("##fileformat=VCFv4.1\n");
+            writer.write("##INFO=<ID=" + GENE_KEY + ",Number=.,Type=String,Description=\"Gene names\">\n");
+            writer.write("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+            writer.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+            for (int s = 0; s < samples; s++) {
+                writer.write("\t" + sampleName(s));
+            }
+            writer.write('\n');
+
+            StringBuilder line = new StringBuilder(64 + 4 * samples);
+            for (int v = 0; v < variants; v++) {
+                int ref = random.nextInt(4);
+                int alt = (ref + 1 + random.nextInt(3)) % 4;
+
+                line.setLength(0);
+                line.append("1\t").append(1000 + v * 100).append("\t.\t")
+                        .append(BASES[ref]).append('\t').append(BASES[alt]).append('\t')
+                        .append(10 + random.nextInt(90)).append("\tPASS\t")
+                        .append(GENE_KEY).append("=GENE").append(v / variantsPerGene)
+                        .append("\tGT");
+                for (int s = 0; s < samples; s++) {
+                    line.append('\t').append(genotype(random));
+                }
+                line.append('\n');
+                writer.write(line.toString());
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Write a PED file where the samples form trios: two unaffected parents and an affected child.
+     */
+    public static File ped(int samples) throws IOException {
+        File file = File.createTempFile("variant-bench-", ".ped");
+        file.deleteOnExit();
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            for (int s = 0; s < samples; s++) {
+                int family = s / 3;
+                String father = "0";
+                String mother = "0";
+                int phenotype = 1;
+                if (s % 3 == 2 && s >= 2) {
+                    father = sampleName(s - 2);
+                    mother = sampleName(s - 1);
+                    phenotype = 2;
+                }
+                writer.write("FAM" + family + "\t" + sampleName(s) + "\t" + father + "\t" + mother
+                        + "\t" + (s % 3 == 1 ? 2 : 1) + "\t" + phenotype + "\n");
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Write a BED file with {@code regions} intervals of 500 bp over chromosome 1.
+     */
+    public static File bed(int regions, int maxPosition) throws IOException {
+        File file = File.createTempFile("variant-bench-", ".bed");
+        file.deleteOnExit();
+        Random random = new Random(7);
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            int step = Math.max(1, maxPosition / regions);
+            for (int r = 0; r < regions; r++) {
+                int start = r * step + random.nextInt(Math.max(1, step / 2));
+                writer.write("1\t" + start + "\t" + (start + 500) + "\n");
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Parse a whole VCF file in memory.
+     */
+    public static List<Variant> read(File vcf) {
+        VariantReader reader = new VariantVcfReader(vcf.getAbsolutePath());
+        reader.open();
+        reader.pre();
+
+        List<Variant> variants = new ArrayList<>();
+        List<Variant> batch = reader.read(1000);
+        while (!batch.isEmpty()) {
+            variants.addAll(batch);
+            batch = reader.read(1000);
+        }
+
+        reader.post();
+        reader.close();
+        return variants;
+    }
+
+    /**
+     * Give every variant one predicted effect in the gene of its INFO column, with a consequence
+     * type chosen at random, so the filters on effects have something to look at.
+     */
+    public static List<Variant> effects(List<Variant> variants) {
+        Random random = new Random(11);
+        for (Variant variant : variants) {
+            VariantEffect effect = new VariantEffect();
+            effect.setChromosome(variant.getChromosome());
+            effect.setPosition(variant.getPosition());
+            effect.setReferenceAllele(variant.getReference());
+            effect.setAlternativeAllele(variant.getAlternate());
+            effect.setGeneName(variant.getAttribute(GENE_KEY));
+            String consequenceType = CONSEQUENCE_TYPES[random.nextInt(CONSEQUENCE_TYPES.length)];
+            effect.setConsequenceType(consequenceType);
+            effect.setConsequenceTypeObo(consequenceType);
+
+            List<VariantEffect> effects = new ArrayList<>(1);
+            effects.add(effect);
+            variant.setEffect(effects);
+        }
+        return variants;
+    }
+
+    public static String sampleName(int sample) {
+        return "S" + sample;
+    }
+
+    private static String genotype(Random random) {
+        int r = random.nextInt(100);
+        if (r < 70) {
+            return "0/0";
+        } else if (r < 90) {
+            return "0/1";
+        } else if (r < 98) {
+            return "1/1";
+        } else {
+            return "./.";
+        }
+    }
+}
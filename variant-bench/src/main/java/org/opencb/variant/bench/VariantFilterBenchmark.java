@@ -0,0 +1,91 @@
+package org.opencb.variant.bench;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.filters.*;
+import org.opencb.variant.lib.filters.VariantExpressionFilter;
+import org.opencb.variant.lib.io.IntervalSet;
+import org.opencb.variant.lib.io.Region;
+import org.opencb.variant.lib.runners.tasks.VariantFilterTask;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link VariantFilterTask} with each of the filters of the command line, and of the
+ * {@link IntervalSet} lookups that {@code --filter-bed} does while extracting the regions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VariantFilterBenchmark {
+
+    private static final int VARIANTS = 10000;
+
+    @Param({"region", "bed", "bed-intervals", "bed-sweep", "snp", "ct", "gene", "expr"})
+    public String filter;
+
+    private List<Variant> variants;
+    private List<Variant> batch;
+    private VariantFilterTask task;
+
+    @Setup
+    public void setUp() throws IOException {
+        variants = SyntheticData.effects(SyntheticData.read(SyntheticData.vcf(VARIANTS, 10, 20)));
+        batch = new ArrayList<>(VARIANTS);
+        task = new VariantFilterTask(Collections.singletonList(createFilter()));
+    }
+
+    @Setup(Level.Invocation)
+    public void resetBatch() {
+        batch.clear();
+        batch.addAll(variants);
+    }
+
+    @Benchmark
+    public List<Variant> apply() throws IOException {
+        task.apply(batch);
+        return batch;
+    }
+
+    private VariantFilter createFilter() throws IOException {
+        int lastPosition = 1000 + VARIANTS * 100;
+        switch (filter) {
+            case "region":
+                return new VariantRegionFilter("1:1000-" + lastPosition / 2, Integer.MAX_VALUE);
+            case "bed":
+                File bed = SyntheticData.bed(10000, lastPosition);
+                return new VariantBedFilter(bed.getAbsolutePath(), Integer.MAX_VALUE);
+            case "bed-intervals":
+                return intervalFilter(new IntervalSet(Region.parseBed(SyntheticData.bed(10000, lastPosition))));
+            case "bed-sweep":
+                return intervalFilter(new IntervalSet(Region.parseBed(SyntheticData.bed(10000, lastPosition))).sweep(true));
+            case "snp":
+                return new VariantSnpFilter();
+            case "ct":
+                return new VariantConsequenceTypeFilter("missense_variant");
+            case "gene":
+                return new VariantGeneFilter("GENE1,GENE10,GENE100");
+            case "expr":
+                return new VariantExpressionFilter("GENE in (GENE1,GENE10,GENE100) && POS < " + lastPosition / 2);
+            default:
+                throw new IllegalArgumentException("Unknown filter " + filter);
+        }
+    }
+
+    private static VariantFilter intervalFilter(final IntervalSet intervals) {
+        return new VariantFilter(Integer.MAX_VALUE) {
+            @Override
+            public boolean apply(Variant variant) {
+                return intervals.contains(variant.getChromosome(), variant.getPosition());
+            }
+        };
+    }
+}
@@ -0,0 +1,95 @@
+package org.opencb.variant.bench;
+
+import org.opencb.commons.bioformats.pedigree.Pedigree;
+import org.opencb.commons.bioformats.pedigree.io.readers.PedigreePedReader;
+import org.opencb.commons.bioformats.pedigree.io.readers.PedigreeReader;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.VariantStudy;
+import org.opencb.commons.bioformats.variant.stats.StatsCalculator;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantReader;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantVcfReader;
+import org.opencb.variant.lib.runners.tasks.VariantStatsTask;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link VariantStatsTask} on a batch of 1000 variants, as the number of samples grows,
+ * against the six walks over the genotypes that {@link StatsCalculator} needs for the same results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VariantStatsBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int samples;
+
+    private VariantStudy study;
+    private VariantReader reader;
+    private List<Variant> batch;
+    private VariantStatsTask task;
+
+    @Setup
+    public void setUp() throws IOException {
+        File vcf = SyntheticData.vcf(1000, samples, 20);
+        File ped = SyntheticData.ped(samples);
+
+        study = new VariantStudy("bench", "bench", "Benchmark", Arrays.asList("bench"), Arrays.asList(vcf.getName(), ped.getName()));
+        PedigreeReader pedReader = new PedigreePedReader(ped.getAbsolutePath());
+        if (pedReader.open()) {
+            study.setPedigree(pedReader.read());
+            pedReader.close();
+        }
+
+        reader = new VariantVcfReader(vcf.getAbsolutePath());
+        reader.open();
+        reader.pre();
+        batch = reader.read(1000);
+    }
+
+    /**
+     * A new task for every batch, otherwise its totals keep growing from one invocation to the next
+     */
+    @Setup(Level.Invocation)
+    public void createTask() {
+        task = new VariantStatsTask(reader, study);
+        task.pre();
+    }
+
+    @TearDown(Level.Invocation)
+    public void finishTask() {
+        task.post();
+    }
+
+    @TearDown
+    public void tearDown() {
+        reader.post();
+        reader.close();
+    }
+
+    @Benchmark
+    public boolean apply() throws IOException {
+        return task.apply(batch);
+    }
+
+    @Benchmark
+    public Object[] statsCalculator() {
+        List<String> sampleNames = reader.getSampleNames();
+        Pedigree pedigree = study.getPedigree();
+        return new Object[]{
+                StatsCalculator.variantStats(batch, sampleNames, pedigree),
+                StatsCalculator.sampleStats(batch, sampleNames, pedigree),
+                StatsCalculator.groupStats(batch, pedigree, "phenotype"),
+                StatsCalculator.groupStats(batch, pedigree, "family"),
+                StatsCalculator.sampleGroupStats(batch, pedigree, "phenotype"),
+                StatsCalculator.sampleGroupStats(batch, pedigree, "family")};
+    }
+}
@@ -0,0 +1,51 @@
+package org.opencb.variant.bench;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantReader;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantVcfReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing speed of {@link VariantVcfReader}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VcfReadBenchmark {
+
+    @Param({"10", "100"})
+    public int samples;
+
+    private File vcf;
+
+    @Setup
+    public void setUp() throws IOException {
+        vcf = SyntheticData.vcf(20000, samples, 20);
+    }
+
+    @Benchmark
+    public long read() {
+        VariantReader reader = new VariantVcfReader(vcf.getAbsolutePath());
+        reader.open();
+        reader.pre();
+
+        long count = 0;
+        List<Variant> batch = reader.read(1000);
+        while (!batch.isEmpty()) {
+            count += batch.size();
+            batch = reader.read(1000);
+        }
+
+        reader.post();
+        reader.close();
+        return count;
+    }
+}
@@ -0,0 +1,67 @@
+package org.opencb.variant.bench;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantReader;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantVcfReader;
+import org.opencb.commons.bioformats.variant.vcf4.io.writers.VariantVcfDataWriter;
+import org.opencb.commons.bioformats.variant.vcf4.io.writers.VariantWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing speed of {@link VariantVcfDataWriter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VcfWriteBenchmark {
+
+    @Param({"10", "100"})
+    public int samples;
+
+    private VariantReader headerReader;
+    private List<Variant> variants;
+    private File output;
+
+    @Setup
+    public void setUp() throws IOException {
+        File vcf = SyntheticData.vcf(20000, samples, 20);
+        variants = SyntheticData.read(vcf);
+
+        headerReader = new VariantVcfReader(vcf.getAbsolutePath());
+        headerReader.open();
+        headerReader.pre();
+
+        output = File.createTempFile("variant-bench-", ".vcf");
+        output.deleteOnExit();
+    }
+
+    @TearDown
+    public void tearDown() {
+        headerReader.post();
+        headerReader.close();
+    }
+
+    @Benchmark
+    public boolean write() {
+        VariantWriter writer = new VariantVcfDataWriter(headerReader, output.getAbsolutePath());
+        writer.open();
+        writer.pre();
+
+        boolean ok = true;
+        for (int i = 0; i < variants.size(); i += 1000) {
+            ok &= writer.write(variants.subList(i, Math.min(i + 1000, variants.size())));
+        }
+
+        writer.post();
+        writer.close();
+        return ok;
+    }
+}
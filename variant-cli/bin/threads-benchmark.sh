@@ -0,0 +1,48 @@
+#!/bin/bash
+#
+# CPU scaling benchmark for the --threads option.
+#
+# Runs the same variant command on a reference VCF with 1, 2, 4, 8 and 16
+# threads and prints the wall-clock time, throughput and speedup of each run.
+#
+# Usage: threads-benchmark.sh <input.vcf> <outdir> [extra variant options]
+#   e.g. threads-benchmark.sh exome.vcf /tmp/bench --filter --filter-snp --effect
+#
+# VARIANT_SH points to the launcher built by "mvn package" (appassembler) and
+# THREADS overrides the list of thread counts to test.
+
+VARIANT_SH=${VARIANT_SH:-target/appassembler/bin/variant.sh}
+THREADS=${THREADS:-"1 2 4 8 16"}
+
+if [ $# -lt 2 ]; then
+    echo "Usage: $0 <input.vcf> <outdir> [extra variant options]"
+    exit 1
+fi
+
+VCF=$1
+OUTDIR=$2
+shift 2
+
+mkdir -p "$OUTDIR"
+
+case "$VCF" in
+    *.gz) VARIANTS=$(zcat "$VCF" | grep -vc '^#') ;;
+    *)    VARIANTS=$(grep -vc '^#' "$VCF") ;;
+esac
+
+printf "%-8s %-12s %-14s %-8s\n" "threads" "seconds" "variants/s" "speedup"
+
+BASE=""
+for t in $THREADS; do
+    START=$(date +%s.%N)
+    "$VARIANT_SH" --vcf-file "$VCF" --outdir "$OUTDIR" --output-file "bench_t$t.vcf" --threads "$t" "$@" > "$OUTDIR/bench_t$t.log" 2>&1 || {
+        echo "Run with $t threads failed, see $OUTDIR/bench_t$t.log"
+        exit 1
+    }
+    END=$(date +%s.%N)
+
+    SECONDS_RUN=$(echo "$END - $START" | bc -l)
+    [ -z "$BASE" ] && BASE=$SECONDS_RUN
+    printf "%-8s %-12.2f %-14.0f %-8.2f\n" "$t" "$SECONDS_RUN" \
+        "$(echo "$VARIANTS / $SECONDS_RUN" | bc -l)" "$(echo "$BASE / $SECONDS_RUN" | bc -l)"
+done
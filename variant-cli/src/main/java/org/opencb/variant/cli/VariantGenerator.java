@@ -0,0 +1,366 @@
+package org.opencb.variant.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams synthetic VCF and PED files of any size for scale testing.
+ * <p/>
+ * Samples are grouped in families of two unaffected parents and one or more children, and the
+ * children inherit one allele from each parent, so compound heterozygosity and family group
+ * statistics have something to find. Consecutive variants are grouped in genes (written in the
+ * INFO column) separated by intergenic stretches.
+ * <p/>
+ * Records are written one at a time through a reused byte buffer: memory use does not depend on
+ * the number of variants, and the speed is bounded by the disk.
+ */
+public class VariantGenerator {
+
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+    private static final byte[][] GENOTYPES = {bytes("0/0"), bytes("0/1"), bytes("1/1"), bytes("./.")};
+    private static final byte[] PASS = bytes("PASS");
+    private static final byte[] GT = bytes("GT");
+    private static final int HOM_REF = 0, HET = 1, HOM_ALT = 2, MISSING = 3;
+    private static final int TABLE_SIZE = 1024;
+
+    private final int samples;
+    private final long variants;
+
+    private List<String> chromosomes = Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11",
+            "12", "13", "14", "15", "16", "17", "18", "19", "20", "21", "22", "X");
+    private int density = 1000;
+    private double[] genotypeFrequencies = {0.70, 0.20, 0.08, 0.02};
+    private int geneSize = 20;
+    private double intergenic = 0.3;
+    private String geneKey = "GN";
+    private int familySize = 3;
+    private double affected = 0.5;
+    private long seed = 42;
+
+    private long state;
+
+    /**
+     * @param samples  Number of samples (individuals in the PED file)
+     * @param variants Number of variant records
+     */
+    public VariantGenerator(int samples, long variants) {
+        this.samples = samples;
+        this.variants = variants;
+    }
+
+    public VariantGenerator chromosomes(List<String> chromosomes) {
+        this.chromosomes = chromosomes;
+        return this;
+    }
+
+    /**
+     * @param density Mean distance in bp between consecutive variants
+     */
+    public VariantGenerator density(int density) {
+        if (density < 1) {
+            throw new IllegalArgumentException("The density must be at least 1 bp, not " + density);
+        }
+        this.density = density;
+        return this;
+    }
+
+    /**
+     * @param frequencies Frequencies of 0/0, 0/1, 1/1 and ./. among founders, normalized to 1; the
+     *                    last ones can be left out
+     */
+    public VariantGenerator genotypes(double[] frequencies) {
+        if (frequencies.length == 0 || frequencies.length > GENOTYPES.length) {
+            throw new IllegalArgumentException("Expected 1 to " + GENOTYPES.length + " genotype frequencies, not " + frequencies.length);
+        }
+        double total = 0;
+        for (double frequency : frequencies) {
+            if (frequency < 0) {
+                throw new IllegalArgumentException("Genotype frequencies cannot be negative: " + frequency);
+            }
+            total += frequency;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Genotype frequencies cannot all be 0");
+        }
+        this.genotypeFrequencies = frequencies;
+        return this;
+    }
+
+    /**
+     * @param geneSize   Mean number of variants per gene
+     * @param intergenic Fraction of variants outside genes
+     * @param geneKey    INFO key for the gene names
+     */
+    public VariantGenerator genes(int geneSize, double intergenic, String geneKey) {
+        if (geneSize < 1) {
+            throw new IllegalArgumentException("Genes must have at least 1 variant, not " + geneSize);
+        }
+        this.geneSize = geneSize;
+        this.intergenic = intergenic;
+        this.geneKey = geneKey;
+        return this;
+    }
+
+    /**
+     * @param familySize Individuals per family: two parents and the rest children, 1 for
+     *                   unrelated samples
+     * @param affected   Probability of a child being affected
+     */
+    public VariantGenerator families(int familySize, double affected) {
+        if (familySize < 1) {
+            throw new IllegalArgumentException("Families must have at least 1 individual, not " + familySize);
+        }
+        this.familySize = familySize;
+        this.affected = affected;
+        return this;
+    }
+
+    public VariantGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public void generate(File vcfFile, File pedFile) throws IOException {
+        state = seed == 0 ? 1 : seed;
+        writePed(pedFile);
+        writeVcf(vcfFile);
+    }
+
+    private void writePed(File pedFile) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(pedFile), 1 << 16)) {
+            for (int s = 0; s < samples; s++) {
+                int family = s / familySize;
+                int member = s % familySize;
+                String father = "0";
+                String mother = "0";
+                int phenotype = 1;
+                if (isChild(s)) {
+                    father = sampleName(family * familySize);
+                    mother = sampleName(family * familySize + 1);
+                    phenotype = nextDouble() < affected ? 2 : 1;
+                }
+                int sex = member == 1 ? 2 : (member == 0 ? 1 : 1 + (int) (next() & 1));
+                out.write(bytes("FAM" + family + "\t" + sampleName(s) + "\t" + father + "\t" + mother
+                        + "\t" + sex + "\t" + phenotype + "\n"));
+            }
+        }
+    }
+
+    private void writeVcf(File vcfFile) throws IOException {
+        byte[] genotypeTable = genotypeTable();
+        byte[] genotypes = new byte[samples];
+        Line line = new Line(256 + 4 * samples);
+        byte[] geneInfo = bytes(geneKey + "=");
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(vcfFile), 1 << 20)) {
+            writeHeader(out);
+
+            long perChromosome = Math.max(1, (variants + chromosomes.size() - 1) / chromosomes.size());
+            long geneCount = 0;
+            long written = 0;
+
+            for (String chromosome : chromosomes) {
+                byte[] chrom = bytes(chromosome);
+                long position = 0;
+                long remainingInSegment = 0;
+                byte[] gene = null;
+
+                for (long v = 0; v < perChromosome && written < variants; v++, written++) {
+                    if (remainingInSegment == 0) {
+                        // Genes and intergenic stretches have the same mean length, so the
+                        // fraction of intergenic variants is the probability of a stretch
+                        remainingInSegment = 1 + nextBelow(2 * geneSize);
+                        gene = nextDouble() >= intergenic ? bytes("GENE" + (geneCount++)) : null;
+                    }
+                    remainingInSegment--;
+                    position += 1 + nextBelow(2 * density);
+
+                    int ref = nextBelow(4);
+                    int alt = (ref + 1 + nextBelow(3)) % 4;
+
+                    line.reset();
+                    line.append(chrom).tab().append(position).tab().append('.').tab()
+                            .append(BASES[ref]).tab().append(BASES[alt]).tab()
+                            .append(10 + nextBelow(90)).tab().append(PASS).tab();
+                    if (gene != null) {
+                        line.append(geneInfo).append(gene);
+                    } else {
+                        line.append('.');
+                    }
+                    line.tab().append(GT);
+
+                    fillGenotypes(genotypes, genotypeTable);
+                    for (byte genotype : genotypes) {
+                        line.tab().append(GENOTYPES[genotype]);
+                    }
+                    line.append('\n');
+                    line.writeTo(out);
+                }
+            }
+        }
+    }
+
+    private void writeHeader(OutputStream out) throws IOException {
+        StringBuilder header = new StringBuilder();
+        header.append("##fileformat=VCFv4.1\n");
+        header.append("##source=VariantGenerator\n");
+        header.append("##INFO=<ID=").append(geneKey).append(",Number=.,Type=String,Description=\"Gene names\">\n");
+        header.append("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+        header.append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+        for (int s = 0; s < samples; s++) {
+            header.append('\t').append(sampleName(s));
+        }
+        header.append('\n');
+        out.write(bytes(header.toString()));
+    }
+
+    /**
+     * Founders draw their genotype from the configured frequencies, children take one allele from
+     * each parent.
+     */
+    private void fillGenotypes(byte[] genotypes, byte[] table) {
+        for (int s = 0; s < samples; s++) {
+            if (isChild(s)) {
+                int family = s / familySize;
+                genotypes[s] = inherit(genotypes[family * familySize], genotypes[family * familySize + 1]);
+            } else {
+                genotypes[s] = table[(int) (next() & (TABLE_SIZE - 1))];
+            }
+        }
+    }
+
+    private byte inherit(byte father, byte mother) {
+        if (father == MISSING || mother == MISSING) {
+            return MISSING;
+        }
+        long bits = next();
+        int fromFather = transmitted(father, (bits & 1) != 0);
+        int fromMother = transmitted(mother, (bits & 2) != 0);
+        return (byte) (fromFather + fromMother);
+    }
+
+    private static int transmitted(byte genotype, boolean coin) {
+        if (genotype == HET) {
+            return coin ? 1 : 0;
+        }
+        return genotype == HOM_ALT ? 1 : 0;
+    }
+
+    private boolean isChild(int sample) {
+        int family = sample / familySize;
+        // Incomplete last families have no parents to inherit from
+        return familySize >= 3 && sample % familySize >= 2 && (family + 1) * familySize <= samples;
+    }
+
+    private byte[] genotypeTable() {
+        double total = 0;
+        for (double frequency : genotypeFrequencies) {
+            total += frequency;
+        }
+
+        byte[] table = new byte[TABLE_SIZE];
+        int index = 0;
+        double cumulative = 0;
+        for (int g = 0; g < genotypeFrequencies.length; g++) {
+            cumulative += genotypeFrequencies[g] / total;
+            int limit = g == genotypeFrequencies.length - 1 ? TABLE_SIZE : (int) Math.round(cumulative * TABLE_SIZE);
+            while (index < limit && index < TABLE_SIZE) {
+                table[index++] = (byte) g;
+            }
+        }
+        return table;
+    }
+
+    // xorshift64*: much cheaper than java.util.Random, which matters with thousands of samples
+    private long next() {
+        state ^= state >>> 12;
+        state ^= state << 25;
+        state ^= state >>> 27;
+        return state * 2685821657736338717L;
+    }
+
+    private int nextBelow(int bound) {
+        return (int) ((next() >>> 33) % bound);
+    }
+
+    private double nextDouble() {
+        return (next() >>> 11) * 0x1.0p-53;
+    }
+
+    public static String sampleName(int sample) {
+        return "S" + sample;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Growable byte buffer for one VCF line.
+     */
+    private static class Line {
+        private byte[] buffer;
+        private int length;
+        private final byte[] digits = new byte[20];
+
+        Line(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void reset() {
+            length = 0;
+        }
+
+        Line tab() {
+            return append('\t');
+        }
+
+        Line append(char c) {
+            ensure(1);
+            buffer[length++] = (byte) c;
+            return this;
+        }
+
+        Line append(byte b) {
+            ensure(1);
+            buffer[length++] = b;
+            return this;
+        }
+
+        Line append(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+            return this;
+        }
+
+        Line append(long value) {
+            int n = 0;
+            do {
+                digits[n++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            ensure(n);
+            while (n > 0) {
+                buffer[length++] = digits[--n];
+            }
+            return this;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(buffer, 0, length);
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+    }
+}
@@ -7,15 +7,30 @@ import org.opencb.commons.bioformats.pedigree.io.readers.PedigreeReader;
 import org.opencb.commons.bioformats.variant.Variant;
 import org.opencb.commons.bioformats.variant.VariantStudy;
 import org.opencb.commons.bioformats.variant.annotators.*;
+import org.opencb.commons.bioformats.variant.utils.effect.VariantEffect;
 import org.opencb.commons.bioformats.variant.filters.*;
 import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantReader;
-import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantVcfByGeneReader;
 import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantVcfReader;
 import org.opencb.commons.bioformats.variant.vcf4.io.writers.VariantVcfDataWriter;
 import org.opencb.commons.bioformats.variant.vcf4.io.writers.VariantWriter;
 import org.opencb.commons.containers.list.SortedList;
 import org.opencb.commons.run.Task;
+import org.opencb.variant.lib.annotators.CachedVariantAnnotator;
+import org.opencb.variant.lib.annotators.VariantControlMergeAnnotator;
+import org.opencb.variant.lib.annotators.VariantControlStoreAnnotator;
+import org.opencb.variant.lib.annotators.VariantMemo;
+import org.opencb.variant.lib.effect.EffectPredictor;
+import org.opencb.variant.lib.effect.FastaReference;
+import org.opencb.variant.lib.effect.GeneModel;
+import org.opencb.variant.lib.effect.LocalEffectPredictor;
+import org.opencb.variant.lib.filters.VariantCompoundHetFilter;
+import org.opencb.variant.lib.filters.VariantExpressionFilter;
+import org.opencb.variant.lib.io.ControlStore;
+import org.opencb.variant.lib.io.Region;
+import org.opencb.variant.lib.io.VcfExternalSorter;
+import org.opencb.variant.lib.io.VcfRegionExtractor;
 import org.opencb.variant.lib.runners.VariantRunner;
+import org.opencb.variant.lib.runners.VariantShardedRunner;
 import org.opencb.variant.lib.runners.tasks.*;
 
 import java.io.BufferedReader;
@@ -39,6 +54,9 @@ public class VariantMain {
     private static CommandLine commandLine;
     private static CommandLineParser parser;
     private static HelpFormatter help;
+    private static EffectPredictor localEffectPredictor;
+    private static VariantMemo<List<VariantEffect>> effectMemo;
+    private static final Map<String, VariantMemo<String>> annotationMemos = new HashMap<>();
 
     static {
         parser = new PosixParser();
@@ -49,29 +67,47 @@ public class VariantMain {
         options = new Options();
 
         options.addOption(OptionFactory.createOption("help", "h", "Print this message", false, false));
-        options.addOption(OptionFactory.createOption("vcf-file", "Input VCF file", true, true));
+        options.addOption(OptionFactory.createOption("vcf-file", "Input VCF file", false, true));
         options.addOption(OptionFactory.createOption("outdir", "o", "Output dir", true, true));
         options.addOption(OptionFactory.createOption("output-file", "Output filename", false, true));
         options.addOption(OptionFactory.createOption("ped-file", "Ped file", false, true));
         options.addOption(OptionFactory.createOption("threads", "Num threads", false, true));
+        options.addOption(OptionFactory.createOption("shard", "Process the input in independent shards, one per contig ('contig') or per window of the given size in bp", false, true));
+        options.addOption(OptionFactory.createOption("sort", "Sort the input by coordinate on disk first, needed by geneLevelFilter on unsorted input", false, false));
+        options.addOption(OptionFactory.createOption("sort-buffer", "Memory (MB) for every sorted run, default 256", false, true));
+        options.addOption(OptionFactory.createOption("gene-gap", "Distance (bp) past the last variant of a gene after which geneLevelFilter closes it, default 1000000", false, true));
+        options.addOption(OptionFactory.createOption("metrics-file", "Performance summary (JSON), default: outdir/metrics.json", false, true));
 
         options.addOption(OptionFactory.createOption("filter", "Filter vcf file", false, false));
         options.addOption(OptionFactory.createOption("annot", "Annotate vcf file", false, false));
         options.addOption(OptionFactory.createOption("effect", "Calculate Effect", false, false));
+        options.addOption(OptionFactory.createOption("effect-gtf", "Predict the effects offline from this GTF/GFF3 gene model instead of CellBase", false, true));
+        options.addOption(OptionFactory.createOption("effect-fasta", "Reference FASTA for the amino acid changes of --effect-gtf", false, true));
+        options.addOption(OptionFactory.createOption("effect-request-size", "Variants per effect request, default 250", false, true));
+        options.addOption(OptionFactory.createOption("effect-retries", "Times a failed effect request is retried, default 2", false, true));
+        options.addOption(OptionFactory.createOption("effect-timeout", "Seconds an effect request is waited for, default 60", false, true));
+        options.addOption(OptionFactory.createOption("effect-memo-size", "Predict the effects of every allele once, keeping this many alleles in memory", false, true));
         options.addOption(OptionFactory.createOption("stats", "Calculate Stats", false, false));
         options.addOption(OptionFactory.createOption("index", "Generate Index", false, false));
         // TODO: change the option name to 'compoundFilter'?
         options.addOption(OptionFactory.createOption("geneLevelFilter", "Filter vcf (Gene Level)", false, false));
 
         options.addOption(OptionFactory.createOption("all", "Run all tools", false, false));
+        options.addOption(OptionFactory.createOption("generate", "Generate synthetic VCF and PED files (outdir/output-file)", false, false));
 
         // ANNOTS
         options.addOption(OptionFactory.createOption("annot-control-list", "Control filename list", false, true));
         options.addOption(OptionFactory.createOption("annot-control-file", "Control filename", false, true));
         options.addOption(OptionFactory.createOption("annot-control-prefix", "Control prefix", false, true));
         options.addOption(OptionFactory.createOption("annot-control-evs", "Control EVS", false, true));
+        options.addOption(OptionFactory.createOption("annot-control-store", "Control store built with --build-control-store, for unsorted input", false, true));
+        options.addOption(OptionFactory.createOption("build-control-store", "Build a control store (file) from --annot-control-file or --annot-control-list", false, true));
+        options.addOption(OptionFactory.createOption("annot-control-merge", "Join the sorted input and sorted control files by coordinate instead of looking every variant up", false, false));
         options.addOption(OptionFactory.createOption("annot-snp", "SNP", false, false));
         options.addOption(OptionFactory.createOption("annot-gene-name", "Gene Names", false, false));
+        options.addOption(OptionFactory.createOption("annot-concurrent", "Run up to --threads annotators at the same time on every batch", false, false));
+        options.addOption(OptionFactory.createOption("annot-cache-size", "Cache the SNP and gene name annotations, keeping this many variants in memory (default 100000)", false, true));
+        options.addOption(OptionFactory.createOption("annot-cache-dir", "Cache the SNP and gene name annotations in this directory too, to reuse them in later runs", false, true));
 
         // FILTERS
         options.addOption(OptionFactory.createOption("filter-region", "Filter Region (chr:start-end)", false, true));
@@ -80,8 +116,23 @@ public class VariantMain {
         options.addOption(OptionFactory.createOption("filter-ct", "Filter Consequence Type", false, true));
         options.addOption(OptionFactory.createOption("filter-gene", "Filter Gene (BRCA2,PPL)", false, true));
         options.addOption(OptionFactory.createOption("filter-gene-file", "Filter Gene gene_list.txt", false, true));
+        options.addOption(OptionFactory.createOption("filter-expr", "Filter expression, e.g. \"QUAL>30 && GENE in (BRCA2,PPL) && CT~missense\"", false, true));
         // GENE LEVEL FILTERS
         options.addOption(OptionFactory.createOption("filter-comp-het", "Compound heterozygosity gene-level filter", false, false));
+        options.addOption(OptionFactory.createOption("filter-comp-het-strict", "Compound heterozygosity with the parent of origin from the phase or from heterozygous parents only, dropping variants shared with unaffected individuals", false, false));
+
+        // GENERATOR
+        options.addOption(OptionFactory.createOption("gen-samples", "Number of samples, default 100", false, true));
+        options.addOption(OptionFactory.createOption("gen-variants", "Number of variants, default 1000000", false, true));
+        options.addOption(OptionFactory.createOption("gen-density", "Mean distance (bp) between variants, default 1000", false, true));
+        options.addOption(OptionFactory.createOption("gen-genotypes", "Frequencies of 0/0,0/1,1/1,./. in founders, default 0.7,0.2,0.08,0.02", false, true));
+        options.addOption(OptionFactory.createOption("gen-gene-size", "Mean number of variants per gene, default 20", false, true));
+        options.addOption(OptionFactory.createOption("gen-intergenic", "Fraction of intergenic variants, default 0.3", false, true));
+        options.addOption(OptionFactory.createOption("gen-gene-key", "INFO key for gene names, default GN", false, true));
+        options.addOption(OptionFactory.createOption("gen-family-size", "Individuals per family (2 parents + children), default 3", false, true));
+        options.addOption(OptionFactory.createOption("gen-affected", "Probability of a child being affected, default 0.5", false, true));
+        options.addOption(OptionFactory.createOption("gen-chromosomes", "Chromosomes (1,2,X), default 1-22,X", false, true));
+        options.addOption(OptionFactory.createOption("gen-seed", "Random seed, default 42", false, true));
     }
 
     public static void main(String[] args) throws IOException, InterruptedException {
@@ -89,10 +140,29 @@ public class VariantMain {
 
         List<Tool> toolList = new ArrayList<>(5);
 
-        int numThreads = 1;
+        parse(args, false);
 
+        if (commandLine.hasOption("generate")) {
+            generate(commandLine);
+            return;
+        }
+
+        if (commandLine.hasOption("build-control-store")) {
+            buildControlStore(commandLine);
+            return;
+        }
+
+        if (!commandLine.hasOption("vcf-file")) {
+            System.err.println("Missing required option: vcf-file");
+            help.printHelp("variant", options);
+            System.exit(-1);
+        }
+
+        int numThreads = 1;
+        if (commandLine.hasOption("threads")) {
+            numThreads = Integer.parseInt(commandLine.getOptionValue("threads"));
+        }
 
-        parse(args, false);
         String outputFile = "data.db";
         String inputFile;
 
@@ -153,11 +223,59 @@ public class VariantMain {
                 pedReader.close();
             }
         }
+        if (toolList.contains(Tool.FILTER) && (commandLine.hasOption("filter-region") || commandLine.hasOption("filter-bed"))) {
+            // Regions are read straight from the input instead of filtering every record
+            inputFile = extractRegions(inputFile, commandLine.getOptionValue("outdir"));
+        }
+        if (commandLine.hasOption("sort")) {
+            inputFile = sortInput(inputFile, commandLine.getOptionValue("outdir"));
+        }
+
         VariantReader reader = new VariantVcfReader(inputFile);
         List<VariantFilter> filters = parseFilters(commandLine);
         List<VariantAnnotator> annots = parseAnnotations(commandLine);
         List<VariantGeneLevelFilter> geneLevelFilters = parseGeneLevelFilters(commandLine, study.getPedigree());
 
+        if (commandLine.hasOption("shard")) {
+            if (toolList.contains(Tool.GENE_LEVEL_FILTER)) {
+                System.err.println("geneLevelFilter needs whole genes and cannot be combined with --shard");
+                System.exit(-1);
+            }
+            if (commandLine.hasOption("annot-cache-dir")) {
+                // Every shard has its own annotators, which cannot share a cache directory
+                System.err.println("annot-cache-dir cannot be combined with --shard");
+                System.exit(-1);
+            }
+            runSharded(study, inputFile, outputFile, toolList, filters, geneLevelFilters, numThreads);
+            return;
+        }
+
+        taskList.addAll(createTasks(toolList, reader, study, filters, annots, geneLevelFilters, inputFile, outputFile, numThreads));
+
+        for (Task<Variant> t : taskList) {
+            System.out.println(t.getClass().getCanonicalName());
+        }
+
+        System.out.println("START");
+
+        vr = new VariantRunner(study, reader, null, writers, taskList);
+        vr.parallel(numThreads);
+
+        String metricsFile = commandLine.getOptionValue("metrics-file", commandLine.getOptionValue("outdir") + "/metrics.json");
+        vr.metricsFile(new File(metricsFile));
+
+        vr.run();
+        System.out.println("END: " + vr.getMetrics().getVariantsRead() + " variants in "
+                + vr.getMetrics().getElapsedMillis() + " ms, metrics in " + metricsFile);
+
+    }
+
+    private static List<Task<Variant>> createTasks(List<Tool> toolList, VariantReader reader, VariantStudy study,
+                                                   List<VariantFilter> filters, List<VariantAnnotator> annots,
+                                                   List<VariantGeneLevelFilter> geneLevelFilters,
+                                                   String inputFile, String outputFile, int numThreads) {
+        List<Task<Variant>> taskList = new SortedList<>();
+
         for (Tool t : toolList) {
             System.out.println("t = " + t);
             switch (t) {
@@ -175,34 +293,161 @@ public class VariantMain {
 //                        vrAux = new VariantAnnotRunner(study, reader, null, new VariantVcfDataWriter(outputFile), annots, vr);
 //                    } else
 //                        vrAux = new VariantAnnotRunner(study, reader, null, null, annots, vr);
-                    taskList.add(new VariantAnnotTask(annots));
+                    taskList.add(new VariantAnnotTask(annots).concurrent(commandLine.hasOption("annot-concurrent"))
+                            .threads(numThreads));
                     break;
                 case EFFECT:
-                    taskList.add(new VariantEffectTask());
+                    VariantEffectTask effectTask = new VariantEffectTask(0, numThreads);
+                    if (commandLine.hasOption("effect-gtf")) {
+                        effectTask.predictor(getLocalEffectPredictor());
+                    }
+                    if (commandLine.hasOption("effect-memo-size")) {
+                        effectTask.memo(getEffectMemo());
+                    }
+                    taskList.add(effectTask
+                            .requestSize(Integer.parseInt(commandLine.getOptionValue("effect-request-size", "250")))
+                            .retries(Integer.parseInt(commandLine.getOptionValue("effect-retries", "2")))
+                            .timeout(Long.parseLong(commandLine.getOptionValue("effect-timeout", "60")) * 1000));
                     break;
                 case STATS:
                     taskList.add(new VariantStatsTask(reader, study));
                     break;
                 case GENE_LEVEL_FILTER:
-                    VariantReader inputVcfReader = new VariantVcfByGeneReader(inputFile, false);
-                    VariantVcfDataWriter outputVcfWriter = new VariantVcfDataWriter(inputVcfReader, outputFile);
-                    taskList.add(new VariantGeneLevelFilterTask(study, geneLevelFilters, outputVcfWriter));
+                    // The input is coordinate-sorted (--sort otherwise), genes are grouped on the fly
+                    VariantVcfDataWriter outputVcfWriter = new VariantVcfDataWriter(reader, outputFile);
+                    taskList.add(new VariantGeneLevelFilterTask(study, geneLevelFilters, outputVcfWriter)
+                            .streaming(true).parallel(numThreads)
+                            .geneGap(Long.parseLong(commandLine.getOptionValue("gene-gap",
+                                    String.valueOf(VariantGeneLevelFilterTask.DEFAULT_GENE_GAP)))));
                 	break;
 
             }
         }
 
-        for (Task<Variant> t : taskList) {
-            System.out.println(t.getClass().getCanonicalName());
+        return taskList;
+    }
+
+    private static void runSharded(VariantStudy study, String inputFile, String outputFile, final List<Tool> toolList,
+                                   final List<VariantFilter> filters, final List<VariantGeneLevelFilter> geneLevelFilters,
+                                   int numThreads) throws IOException {
+        VariantShardedRunner sr = new VariantShardedRunner(study, inputFile, outputFile, new VariantShardedRunner.TaskFactory() {
+            @Override
+            public List<Task<Variant>> createTasks(VariantReader reader, VariantStudy shardStudy) {
+                // Annotators keep open files and cursors, every shard needs its own
+                return VariantMain.createTasks(toolList, reader, shardStudy, filters, parseAnnotations(commandLine),
+                        geneLevelFilters, null, null, 1);
+            }
+        });
+
+        String shard = commandLine.getOptionValue("shard");
+        try {
+            sr.window("contig".equals(shard) ? 0 : Integer.parseInt(shard));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid --shard " + shard + ": " + e.getMessage());
+            System.exit(-1);
         }
+        sr.parallel(numThreads);
+
+        String metricsFile = commandLine.getOptionValue("metrics-file", commandLine.getOptionValue("outdir") + "/metrics.json");
+        sr.metricsFile(new File(metricsFile));
 
         System.out.println("START");
+        long start = System.currentTimeMillis();
+        sr.run();
+        System.out.println("END: " + (System.currentTimeMillis() - start) + " ms, metrics in " + metricsFile);
+    }
 
-        vr = new VariantRunner(study, reader, null, writers, taskList);
+    private static String extractRegions(String inputFile, String outdir) throws IOException {
+        List<Region> regions = null;
+        if (commandLine.hasOption("filter-region")) {
+            regions = Region.merge(Region.parse(commandLine.getOptionValue("filter-region")));
+        }
+        if (commandLine.hasOption("filter-bed")) {
+            List<Region> bedRegions = Region.merge(Region.parseBed(new File(commandLine.getOptionValue("filter-bed"))));
+            regions = regions == null ? bedRegions : Region.intersect(regions, bedRegions);
+        }
 
-        vr.run();
-        System.out.println("END");
+        File regionsFile = File.createTempFile("regions", ".vcf", new File(outdir));
+        regionsFile.deleteOnExit();
+
+        long start = System.currentTimeMillis();
+        long records = new VcfRegionExtractor(new File(inputFile)).extract(regions, regionsFile);
+        System.out.println("Extracted " + records + " records in " + regions.size() + " regions in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return regionsFile.getPath();
+    }
 
+    private static String sortInput(String inputFile, String outdir) throws IOException {
+        File sortedFile = File.createTempFile("sorted", ".vcf", new File(outdir));
+        sortedFile.deleteOnExit();
+
+        long start = System.currentTimeMillis();
+        VcfExternalSorter sorter = new VcfExternalSorter()
+                .bufferSize(Long.parseLong(commandLine.getOptionValue("sort-buffer", "256")) << 20)
+                .tmpDir(new File(outdir));
+        long records = sorter.sort(new File(inputFile), sortedFile);
+        System.out.println("Sorted " + records + " records in " + sorter.getRuns() + " runs in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return sortedFile.getPath();
+    }
+
+    private static void buildControlStore(CommandLine commandLine) throws IOException {
+        List<File> controlFiles = new ArrayList<>();
+        if (commandLine.hasOption("annot-control-list")) {
+            for (String controlFile : getControlList(commandLine.getOptionValue("annot-control-list")).values()) {
+                controlFiles.add(new File(controlFile));
+            }
+        } else if (commandLine.hasOption("annot-control-file")) {
+            controlFiles.add(new File(commandLine.getOptionValue("annot-control-file")));
+        } else {
+            System.err.println("Missing required option: annot-control-file or annot-control-list");
+            System.exit(-1);
+        }
+
+        File storeFile = new File(commandLine.getOptionValue("build-control-store"));
+        long start = System.currentTimeMillis();
+        long alleles = ControlStore.build(controlFiles, storeFile, new File(commandLine.getOptionValue("outdir")));
+        System.out.println("Stored " + alleles + " alleles in " + storeFile + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static void generate(CommandLine commandLine) throws IOException {
+        String outputFile = commandLine.getOptionValue("output-file", "generated.vcf");
+        File vcfFile = new File(commandLine.getOptionValue("outdir"), outputFile);
+        File pedFile = new File(commandLine.getOptionValue("outdir"), outputFile.replaceFirst("\\.vcf$", "") + ".ped");
+
+        VariantGenerator generator = new VariantGenerator(
+                Integer.parseInt(commandLine.getOptionValue("gen-samples", "100")),
+                Long.parseLong(commandLine.getOptionValue("gen-variants", "1000000")));
+
+        // Gene and family sizes divide, and the genotype frequencies fill a table of 4 genotypes
+        try {
+            generator.density(Integer.parseInt(commandLine.getOptionValue("gen-density", "1000")))
+                    .genes(Integer.parseInt(commandLine.getOptionValue("gen-gene-size", "20")),
+                            Double.parseDouble(commandLine.getOptionValue("gen-intergenic", "0.3")),
+                            commandLine.getOptionValue("gen-gene-key", "GN"))
+                    .families(Integer.parseInt(commandLine.getOptionValue("gen-family-size", "3")),
+                            Double.parseDouble(commandLine.getOptionValue("gen-affected", "0.5")))
+                    .seed(Long.parseLong(commandLine.getOptionValue("gen-seed", "42")));
+
+            if (commandLine.hasOption("gen-genotypes")) {
+                String[] fields = commandLine.getOptionValue("gen-genotypes").split(",");
+                double[] frequencies = new double[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    frequencies[i] = Double.parseDouble(fields[i]);
+                }
+                generator.genotypes(frequencies);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid generator option: " + e.getMessage());
+            System.exit(-1);
+        }
+        if (commandLine.hasOption("gen-chromosomes")) {
+            generator.chromosomes(Arrays.asList(commandLine.getOptionValue("gen-chromosomes").split(",")));
+        }
+
+        System.out.println("Generating " + vcfFile + " and " + pedFile);
+        generator.generate(vcfFile, pedFile);
     }
 
     private static List<VariantAnnotator> parseAnnotations(CommandLine commandLine) {
@@ -210,10 +455,28 @@ public class VariantMain {
         if (commandLine.hasOption("annot-control-list")) {
             String infoPrefix = commandLine.hasOption("annot-control-prefix") ? commandLine.getOptionValue("annot-control-prefix") : "CONTROL";
             Map<String, String> controlList = getControlList(commandLine.getOptionValue("annot-control-list"));
-            annots.add(new VariantControlAnnotator(infoPrefix, controlList));
+            if (commandLine.hasOption("annot-control-merge")) {
+                annots.add(new VariantControlMergeAnnotator(infoPrefix, controlList));
+            } else {
+                annots.add(new VariantControlAnnotator(infoPrefix, controlList));
+            }
         } else if (commandLine.hasOption("annot-control-file")) {
             String infoPrefix = commandLine.hasOption("annot-control-prefix") ? commandLine.getOptionValue("annot-control-prefix") : "CONTROL";
-            annots.add(new VariantControlAnnotator(infoPrefix, commandLine.getOptionValue("annot-control-file")));
+            if (commandLine.hasOption("annot-control-merge")) {
+                annots.add(new VariantControlMergeAnnotator(infoPrefix, commandLine.getOptionValue("annot-control-file")));
+            } else {
+                annots.add(new VariantControlAnnotator(infoPrefix, commandLine.getOptionValue("annot-control-file")));
+            }
+        }
+
+        if (commandLine.hasOption("annot-control-store")) {
+            String infoPrefix = commandLine.hasOption("annot-control-prefix") ? commandLine.getOptionValue("annot-control-prefix") : "CONTROL";
+            try {
+                annots.add(new VariantControlStoreAnnotator(infoPrefix, new File(commandLine.getOptionValue("annot-control-store"))));
+            } catch (IOException e) {
+                System.err.println("Cannot open the control store: " + e.getMessage());
+                System.exit(-1);
+            }
         }
 
         if (commandLine.hasOption("annot-control-evs")) {
@@ -222,25 +485,71 @@ public class VariantMain {
         }
 
         if (commandLine.hasOption("annot-snp")) {
-            annots.add(new VariantSNPAnnotator());
+            annots.add(cached(new VariantSNPAnnotator(), "snp", commandLine));
         }
         if (commandLine.hasOption("annot-gene-name")) {
-        	annots.add(new VariantGeneNameAnnotator());
+        	annots.add(cached(new VariantGeneNameAnnotator(), "gene-name", commandLine));
         }
 
         return annots;
     }
 
-    private static List<VariantFilter> parseFilters(CommandLine commandLine) {
-        List<VariantFilter> filters = new ArrayList<>();
+    private static VariantAnnotator cached(VariantAnnotator annotator, String name, CommandLine commandLine) {
+        if (!commandLine.hasOption("annot-cache-size") && !commandLine.hasOption("annot-cache-dir")) {
+            return annotator;
+        }
+        int size = Integer.parseInt(commandLine.getOptionValue("annot-cache-size", "100000"));
+        File dir = commandLine.hasOption("annot-cache-dir") ? new File(commandLine.getOptionValue("annot-cache-dir"), name) : null;
+        try {
+            return new CachedVariantAnnotator(annotator, getAnnotationMemo(name, size), dir);
+        } catch (IOException e) {
+            System.err.println("Cannot open the annotation cache " + dir + ": " + e.getMessage());
+            System.exit(-1);
+            return null;
+        }
+    }
 
-        if (commandLine.hasOption("filter-region")) {
-            filters.add(new VariantRegionFilter(commandLine.getOptionValue("filter-region"), Integer.MAX_VALUE));
+    /**
+     * Every shard has its own annotators, but they all share the memory tier of their cache
+     */
+    private static synchronized VariantMemo<String> getAnnotationMemo(String name, int size) {
+        VariantMemo<String> memo = annotationMemos.get(name);
+        if (memo == null) {
+            memo = new VariantMemo<>(name, size);
+            annotationMemos.put(name, memo);
         }
+        return memo;
+    }
 
-        if (commandLine.hasOption("filter-bed")) {
-            filters.add(new VariantBedFilter(commandLine.getOptionValue("filter-bed"), Integer.MAX_VALUE));
+    private static synchronized VariantMemo<List<VariantEffect>> getEffectMemo() {
+        if (effectMemo == null) {
+            effectMemo = new VariantMemo<>("effect", Integer.parseInt(commandLine.getOptionValue("effect-memo-size")));
+        }
+        return effectMemo;
+    }
+
+    /**
+     * The gene model is loaded once and shared by all the tasks, also those of every shard
+     */
+    private static synchronized EffectPredictor getLocalEffectPredictor() {
+        if (localEffectPredictor == null) {
+            try {
+                long start = System.currentTimeMillis();
+                GeneModel model = GeneModel.load(new File(commandLine.getOptionValue("effect-gtf")));
+                FastaReference genome = commandLine.hasOption("effect-fasta")
+                        ? new FastaReference(new File(commandLine.getOptionValue("effect-fasta"))) : null;
+                localEffectPredictor = new LocalEffectPredictor(model, genome);
+                System.out.println("Loaded " + model.size() + " transcripts in " + (System.currentTimeMillis() - start) + " ms");
+            } catch (IOException e) {
+                System.err.println("Cannot load the gene model: " + e.getMessage());
+                System.exit(-1);
+            }
         }
+        return localEffectPredictor;
+    }
+
+    private static List<VariantFilter> parseFilters(CommandLine commandLine) {
+        List<VariantFilter> filters = new ArrayList<>();
 
         if (commandLine.hasOption("filter-snp")) {
             filters.add(new VariantSnpFilter());
@@ -255,14 +564,23 @@ public class VariantMain {
         } else if (commandLine.hasOption("filter-gene-file")) {
             filters.add(new VariantGeneFilter(new File(commandLine.getOptionValue("filter-gene-file"))));
         }
+
+        if (commandLine.hasOption("filter-expr")) {
+            try {
+                filters.add(new VariantExpressionFilter(commandLine.getOptionValue("filter-expr"), Integer.MAX_VALUE));
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(-1);
+            }
+        }
         return filters;
     }
 
     private static List<VariantGeneLevelFilter> parseGeneLevelFilters(CommandLine commandLine, Pedigree pedigree) {
         List<VariantGeneLevelFilter> filters = new ArrayList<>();
         // parse filters from command line
-        if (commandLine.hasOption("filter-comp-het")) {
-            filters.add(new VariantCompoundHeterozygosityFilter(pedigree));
+        if (commandLine.hasOption("filter-comp-het") || commandLine.hasOption("filter-comp-het-strict")) {
+            filters.add(new VariantCompoundHetFilter(pedigree).strict(commandLine.hasOption("filter-comp-het-strict")));
         }
         return filters;
     }
@@ -0,0 +1,182 @@
+package org.opencb.variant.lib.annotators;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.annotators.VariantAnnotator;
+import org.opencb.variant.lib.io.DiskCache;
+import org.opencb.variant.lib.runners.metrics.CacheMetrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers what another annotator does to every variant, so variants already annotated in this
+ * run, or in previous runs, are not looked up again.
+ * <p/>
+ * Variants are identified by chromosome, position and normalized alleles (see
+ * {@link VariantMemo#key}), and what is cached is the change made by the annotator: the new id, if
+ * any, and the attributes added or changed. Only the variants not found in the cache are passed to
+ * the annotator, all in one batch. This is meant for annotators whose result depends only on the
+ * variant, such as {@code VariantSNPAnnotator} and {@code VariantGeneNameAnnotator}, which ask a
+ * remote service for every variant.
+ * <p/>
+ * The cache has two tiers: a bounded in-memory {@link VariantMemo}, which can be shared by the
+ * annotators of several tasks or shards so that concurrent batches do not ask twice for the same
+ * variant, and an optional {@link DiskCache} that keeps every entry and is reused across runs.
+ * Entries found on disk are brought into memory. Hits, evictions and lookup latency are recorded in
+ * the {@link CacheMetrics} of the memo.
+ */
+public class CachedVariantAnnotator extends VariantAnnotator implements Closeable {
+
+    private static final char SEPARATOR = '\t';
+
+    private final VariantAnnotator annotator;
+    private final VariantMemo<String> memory;
+    private final DiskCache disk;
+    private final VariantMemo.Loader<String> loader = new VariantMemo.Loader<String>() {
+        @Override
+        public List<String> load(List<Variant> variants, List<String> keys) throws IOException {
+            return lookUp(variants, keys);
+        }
+    };
+
+    /**
+     * @param annotator  Annotator whose results are cached
+     * @param maxEntries Entries kept in memory
+     * @param diskDir    Directory of the disk tier, or null to keep the entries only in memory
+     * @throws IOException If the disk tier cannot be opened
+     */
+    public CachedVariantAnnotator(VariantAnnotator annotator, int maxEntries, File diskDir) throws IOException {
+        this(annotator, new VariantMemo<String>(annotator.getClass().getSimpleName(), maxEntries), diskDir);
+    }
+
+    /**
+     * @param memory  In-memory tier, only shared by annotators that make the same changes
+     * @param diskDir Directory of the disk tier, or null to keep the entries only in memory
+     * @throws IOException If the disk tier cannot be opened
+     */
+    public CachedVariantAnnotator(VariantAnnotator annotator, VariantMemo<String> memory, File diskDir) throws IOException {
+        this.annotator = annotator;
+        this.memory = memory;
+        this.disk = diskDir == null ? null : new DiskCache(diskDir);
+    }
+
+    public VariantAnnotator getAnnotator() {
+        return annotator;
+    }
+
+    public CacheMetrics getMetrics() {
+        return memory.getMetrics();
+    }
+
+    @Override
+    public void annot(List<Variant> batch) {
+        try {
+            List<String> changes = memory.get(batch, loader);
+            for (int v = 0; v < batch.size(); v++) {
+                apply(batch.get(v), changes.get(v));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read or write the annotation cache", e);
+        }
+    }
+
+    /**
+     * Looks up on disk the variants not in memory, and annotates those not found there either
+     */
+    private synchronized List<String> lookUp(List<Variant> variants, List<String> keys) throws IOException {
+        List<String> changes = new ArrayList<>(variants.size());
+        List<Integer> misses = new ArrayList<>();
+        List<Variant> missed = new ArrayList<>();
+        for (int v = 0; v < variants.size(); v++) {
+            String change = disk == null ? null : disk.get(keys.get(v));
+            if (change != null) {
+                memory.getMetrics().recordDiskHit();
+            } else {
+                misses.add(v);
+                missed.add(variants.get(v));
+            }
+            changes.add(change);
+        }
+
+        if (missed.isEmpty()) {
+            return changes;
+        }
+
+        List<String> ids = new ArrayList<>(missed.size());
+        List<Map<String, String>> attributes = new ArrayList<>(missed.size());
+        for (Variant variant : missed) {
+            ids.add(variant.getId());
+            attributes.add(new HashMap<>(variant.getAttributes()));
+        }
+
+        annotator.annot(missed);
+
+        for (int m = 0; m < missed.size(); m++) {
+            String change = change(missed.get(m), ids.get(m), attributes.get(m));
+            changes.set(misses.get(m), change);
+            if (disk != null) {
+                disk.put(keys.get(misses.get(m)), change);
+            }
+        }
+        return changes;
+    }
+
+    @Override
+    public void annot(Variant variant) {
+        List<Variant> batch = new ArrayList<>(1);
+        batch.add(variant);
+        annot(batch);
+    }
+
+    /**
+     * @return The id set by the annotator (empty if unchanged) followed by the attributes it added
+     * or changed, as key=value, separated by tabs, which cannot be part of VCF fields
+     */
+    static String change(Variant variant, String id, Map<String, String> attributes) {
+        StringBuilder change = new StringBuilder();
+        String newId = variant.getId();
+        if (newId != null && !newId.equals(id)) {
+            change.append(newId);
+        }
+        for (Map.Entry<String, String> attribute : variant.getAttributes().entrySet()) {
+            String value = attribute.getValue();
+            if (value != null && !value.equals(attributes.get(attribute.getKey()))) {
+                change.append(SEPARATOR).append(attribute.getKey()).append('=').append(value);
+            }
+        }
+        return change.toString();
+    }
+
+    static void apply(Variant variant, String change) {
+        int end = change.indexOf(SEPARATOR);
+        end = end < 0 ? change.length() : end;
+        if (end > 0) {
+            variant.setId(change.substring(0, end));
+        }
+        while (end < change.length()) {
+            int start = end + 1;
+            end = change.indexOf(SEPARATOR, start);
+            end = end < 0 ? change.length() : end;
+            int equals = change.indexOf('=', start);
+            variant.addAttribute(change.substring(start, equals), change.substring(equals + 1, end));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (disk != null) {
+                disk.close();
+            }
+        } finally {
+            if (annotator instanceof Closeable) {
+                ((Closeable) annotator).close();
+            }
+        }
+    }
+}
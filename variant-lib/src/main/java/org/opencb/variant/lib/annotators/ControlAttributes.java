@@ -0,0 +1,51 @@
+package org.opencb.variant.lib.annotators;
+
+import org.opencb.commons.bioformats.variant.Variant;
+
+/**
+ * Attributes written by the control annotators of this package: {@code <prefix>_AF}, the frequency
+ * of each alternate allele in the controls ("." if it is not there), and {@code <prefix>_AN}, the
+ * number of alleles called in the controls, if known.
+ * <p/>
+ * They are not those of {@link org.opencb.commons.bioformats.variant.annotators.VariantControlAnnotator},
+ * which looks up the exact reference and alternate of each variant and writes the statistics of the
+ * control genotypes: {@code <prefix>_gt} (genotype counts), {@code <prefix>_maf} (frequency of the
+ * minor allele) and {@code <prefix>_amaf} (the minor allele itself). For a biallelic variant
+ * {@code _AF} is {@code _maf} when {@code _amaf} is the alternate allele and 1 - {@code _maf}
+ * otherwise. The controls only need allele counts here, so records with INFO AC and AN but no
+ * genotypes also annotate, and there are no genotype counts to write.
+ */
+final class ControlAttributes {
+
+    private ControlAttributes() {
+    }
+
+    /**
+     * @param frequencies Frequency and alleles called of every alternate allele of the variant, or
+     *                    null for the alleles not in the controls
+     */
+    static void add(Variant variant, String prefix, double[][] frequencies) {
+        StringBuilder values = new StringBuilder();
+        boolean matched = false;
+        long alleles = -1;
+        for (double[] frequency : frequencies) {
+            if (values.length() > 0) {
+                values.append(',');
+            }
+            if (frequency == null || Double.isNaN(frequency[0])) {
+                values.append('.');
+            } else {
+                values.append(Math.round(frequency[0] * 10000) / 10000.0);
+                matched = true;
+                alleles = Math.max(alleles, (long) frequency[1]);
+            }
+        }
+
+        if (matched) {
+            variant.addAttribute(prefix + "_AF", values.toString());
+            if (alleles >= 0) {
+                variant.addAttribute(prefix + "_AN", String.valueOf(alleles));
+            }
+        }
+    }
+}
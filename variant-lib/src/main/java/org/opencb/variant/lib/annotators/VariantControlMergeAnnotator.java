@@ -0,0 +1,128 @@
+package org.opencb.variant.lib.annotators;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.annotators.VariantAnnotator;
+import org.opencb.variant.lib.io.ControlRecord;
+import org.opencb.variant.lib.io.VcfMergeCursor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Annotates the variants with their frequency in a control population, joining the input with the
+ * control VCF by coordinate instead of looking every variant up.
+ * <p/>
+ * Both the input and the control files must be sorted by coordinate. A {@link VcfMergeCursor}
+ * advances over the control file as the input does, so the control file is read once, at disk
+ * speed, and only the control records of the current position are in memory. The controls can be
+ * a single file or one file per chromosome, as in {@code --annot-control-list}; then only the file
+ * of the current chromosome is open.
+ * <p/>
+ * Every alternate allele of a variant is matched to the control allele with the same reference and
+ * alternate, after removing the bases that both share at the end, so alleles of multi-allelic
+ * records match their split, normalized form and vice versa (see {@link ControlRecord}). When any
+ * allele matches, the variant gets the attributes described in {@link ControlAttributes}.
+ */
+public class VariantControlMergeAnnotator extends VariantAnnotator implements Closeable {
+
+    private final String prefix;
+    private final String controlFile;
+    private final Map<String, String> controlFiles;
+
+    private String cursorChromosome;
+    private VcfMergeCursor cursor;
+
+    /**
+     * @param prefix      Prefix of the attributes
+     * @param controlFile Sorted control VCF with all the chromosomes
+     */
+    public VariantControlMergeAnnotator(String prefix, String controlFile) {
+        this.prefix = prefix;
+        this.controlFile = controlFile;
+        this.controlFiles = null;
+    }
+
+    /**
+     * @param prefix       Prefix of the attributes
+     * @param controlFiles Sorted control VCF of every chromosome
+     */
+    public VariantControlMergeAnnotator(String prefix, Map<String, String> controlFiles) {
+        this.prefix = prefix;
+        this.controlFile = null;
+        this.controlFiles = controlFiles;
+    }
+
+    @Override
+    public void annot(List<Variant> batch) {
+        for (Variant variant : batch) {
+            annot(variant);
+        }
+    }
+
+    @Override
+    public void annot(Variant variant) {
+        List<String> records;
+        try {
+            VcfMergeCursor cursor = getCursor(variant.getChromosome());
+            if (cursor == null) {
+                return;
+            }
+            records = cursor.get(variant.getChromosome(), variant.getPosition());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read the controls of chromosome " + variant.getChromosome(), e);
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+
+        String[] alternates = variant.getAlternate().split(",");
+        double[][] frequencies = new double[alternates.length][];
+        for (int a = 0; a < alternates.length; a++) {
+            for (String record : records) {
+                frequencies[a] = frequency(record, variant.getReference(), alternates[a]);
+                if (frequencies[a] != null) {
+                    break;
+                }
+            }
+        }
+        ControlAttributes.add(variant, prefix, frequencies);
+    }
+
+    private VcfMergeCursor getCursor(String chromosome) throws IOException {
+        if (controlFiles == null) {
+            if (cursor == null) {
+                cursor = new VcfMergeCursor(new File(controlFile));
+            }
+            return cursor;
+        }
+
+        if (!chromosome.equals(cursorChromosome)) {
+            close();
+            cursorChromosome = chromosome;
+            String file = controlFiles.get(chromosome);
+            cursor = file == null ? null : new VcfMergeCursor(new File(file));
+        }
+        return cursor;
+    }
+
+    /**
+     * @return The frequency of the allele and the number of alleles called (-1 if unknown) in the
+     * control record, or null if the record does not have the allele
+     */
+    static double[] frequency(String line, String reference, String alternate) {
+        ControlRecord record = ControlRecord.parse(line);
+        int allele = record == null ? 0 : record.indexOf(reference, alternate);
+        return allele == 0 ? null : record.frequency(allele);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (cursor != null) {
+            cursor.close();
+            cursor = null;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.opencb.variant.lib.annotators;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.annotators.VariantAnnotator;
+import org.opencb.variant.lib.io.ControlStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Annotates the variants with their frequency in a control population, looking them up in a
+ * {@link ControlStore} built beforehand from the control VCFs.
+ * <p/>
+ * Unlike {@link VariantControlMergeAnnotator}, the input can be in any order, and several
+ * annotators, threads or processes can share the same store. The attributes are those described in
+ * {@link ControlAttributes}.
+ */
+public class VariantControlStoreAnnotator extends VariantAnnotator implements Closeable {
+
+    private final String prefix;
+    private final ControlStore store;
+
+    public VariantControlStoreAnnotator(String prefix, File storeFile) throws IOException {
+        this(prefix, ControlStore.open(storeFile));
+    }
+
+    public VariantControlStoreAnnotator(String prefix, ControlStore store) {
+        this.prefix = prefix;
+        this.store = store;
+    }
+
+    @Override
+    public void annot(List<Variant> batch) {
+        for (Variant variant : batch) {
+            annot(variant);
+        }
+    }
+
+    @Override
+    public void annot(Variant variant) {
+        String[] alternates = variant.getAlternate().split(",");
+        double[][] frequencies = new double[alternates.length][];
+        for (int a = 0; a < alternates.length; a++) {
+            frequencies[a] = store.get(variant.getChromosome(), variant.getPosition(), variant.getReference(), alternates[a]);
+        }
+        ControlAttributes.add(variant, prefix, frequencies);
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+}
@@ -0,0 +1,174 @@
+package org.opencb.variant.lib.annotators;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.SettableFuture;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.variant.lib.io.ControlRecord;
+import org.opencb.variant.lib.runners.metrics.CacheMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Bounded table of what has been worked out for every distinct allele, shared by all the batches,
+ * tasks and shards of a run so that each allele is only computed or fetched once.
+ * <p/>
+ * Variants are identified by chromosome, position and normalized alleles (see {@link #key}). A
+ * lookup takes a whole batch: the alleles already in the table are answered from it, and the rest
+ * are given in one call to a {@link Loader}. Alleles that another thread is loading at that moment
+ * are not loaded again, the lookup waits for that load instead, so concurrent batches with the same
+ * variants make a single request for them. The table keeps the {@code maxEntries} most recently
+ * used alleles.
+ * <p/>
+ * Hits, waits on other loads (coalesced), misses and evictions are recorded in a
+ * {@link CacheMetrics}.
+ */
+public class VariantMemo<V> {
+
+    private final Cache<String, V> values;
+    private final ConcurrentMap<String, SettableFuture<V>> loading;
+    private final CacheMetrics metrics;
+
+    /**
+     * @param name       Name of the table in the metrics
+     * @param maxEntries Alleles kept in the table
+     */
+    public VariantMemo(String name, int maxEntries) {
+        this.metrics = new CacheMetrics(name);
+        this.loading = new ConcurrentHashMap<>();
+        // One segment, so the bound and the eviction order are exact; reads do not take its lock
+        this.values = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(0, maxEntries))
+                .concurrencyLevel(1)
+                .removalListener(new RemovalListener<String, V>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, V> notification) {
+                        if (notification.wasEvicted()) {
+                            metrics.recordEviction();
+                        }
+                    }
+                })
+                .build();
+    }
+
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The values of the variants, in the same order, null for those the loader gave none
+     * @throws IOException If the loader fails for any of the variants, here or in another thread
+     */
+    public List<V> get(List<Variant> variants, Loader<V> loader) throws IOException {
+        List<V> result = new ArrayList<>(Collections.<V>nCopies(variants.size(), null));
+        Map<Integer, SettableFuture<V>> pending = new LinkedHashMap<>();
+        List<Integer> misses = new ArrayList<>();
+        List<String> missKeys = new ArrayList<>();
+        List<SettableFuture<V>> claims = new ArrayList<>();
+
+        for (int v = 0; v < variants.size(); v++) {
+            long start = System.nanoTime();
+            String key = key(variants.get(v));
+            V value = values.getIfPresent(key);
+            if (value == null) {
+                SettableFuture<V> claim = SettableFuture.create();
+                SettableFuture<V> other = loading.putIfAbsent(key, claim);
+                if (other != null) {
+                    // Being loaded elsewhere, or repeated in this batch
+                    pending.put(v, other);
+                    metrics.recordCoalesced();
+                } else if ((value = values.getIfPresent(key)) != null) {
+                    // Loaded since the first look
+                    loading.remove(key, claim);
+                    claim.set(value);
+                } else {
+                    misses.add(v);
+                    missKeys.add(key);
+                    claims.add(claim);
+                }
+            }
+            if (value != null) {
+                result.set(v, value);
+                metrics.recordMemoryHit();
+            }
+            metrics.recordLookup(System.nanoTime() - start);
+        }
+
+        if (!misses.isEmpty()) {
+            List<Variant> missed = new ArrayList<>(misses.size());
+            for (int v : misses) {
+                missed.add(variants.get(v));
+            }
+            try {
+                List<V> loaded = loader.load(missed, missKeys);
+                for (int m = 0; m < misses.size(); m++) {
+                    V value = m < loaded.size() ? loaded.get(m) : null;
+                    if (value != null) {
+                        values.put(missKeys.get(m), value);
+                    }
+                    claims.get(m).set(value);
+                    result.set(misses.get(m), value);
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                // Also fails the lookups waiting for these variants
+                for (SettableFuture<V> claim : claims) {
+                    claim.setException(e);
+                }
+                throw e;
+            } finally {
+                for (int m = 0; m < misses.size(); m++) {
+                    loading.remove(missKeys.get(m), claims.get(m));
+                }
+            }
+        }
+
+        for (Map.Entry<Integer, SettableFuture<V>> entry : pending.entrySet()) {
+            try {
+                result.set(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                throw new IOException("Cannot load " + key(variants.get(entry.getKey())), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Chromosome, position and the alleles without the bases they share, so the same
+     * change written in different ways has the same key
+     */
+    public static String key(Variant variant) {
+        String reference = variant.getReference();
+        String alternate = variant.getAlternate();
+        if (alternate.indexOf(',') < 0) {
+            String[] normalized = ControlRecord.normalize(reference, alternate);
+            reference = normalized[0];
+            alternate = normalized[1];
+        }
+        return variant.getChromosome() + ':' + variant.getPosition() + ':' + reference + '>' + alternate;
+    }
+
+    /**
+     * Works out the values of the variants not in the table
+     */
+    public interface Loader<V> {
+
+        /**
+         * @param keys Keys of the variants
+         * @return The values of the variants, in the same order
+         */
+        List<V> load(List<Variant> variants, List<String> keys) throws IOException;
+    }
+}
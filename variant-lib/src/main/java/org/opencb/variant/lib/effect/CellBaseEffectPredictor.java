@@ -0,0 +1,23 @@
+package org.opencb.variant.lib.effect;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.effect.EffectCalculator;
+import org.opencb.commons.bioformats.variant.utils.effect.VariantEffect;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Effects from the CellBase web service, through {@link EffectCalculator}.
+ */
+public class CellBaseEffectPredictor implements EffectPredictor {
+
+    @Override
+    public List<List<VariantEffect>> predict(List<Variant> variants) throws IOException {
+        List<List<VariantEffect>> effects = EffectCalculator.getEffectPerVariant(variants);
+        if (effects == null) {
+            throw new IOException("No effects returned for " + variants.size() + " variants");
+        }
+        return effects;
+    }
+}
@@ -0,0 +1,21 @@
+package org.opencb.variant.lib.effect;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.utils.effect.VariantEffect;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Source of the effects (consequence types) of variants, such as a remote service or local gene
+ * models. Implementations are called from several threads at the same time.
+ */
+public interface EffectPredictor {
+
+    /**
+     * @param variants Variants to predict, not modified
+     * @return The effects of every variant, in the same order
+     * @throws IOException If the effects cannot be predicted
+     */
+    List<List<VariantEffect>> predict(List<Variant> variants) throws IOException;
+}
@@ -0,0 +1,150 @@
+package org.opencb.variant.lib.effect;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Uncompressed FASTA reference mapped into memory, to read single bases or short sequences at
+ * random positions.
+ * <p/>
+ * Sequences are found through the samtools index ({@code .fai}) next to the file if there is one,
+ * or else through an index built by reading the file once. Every sequence must have lines of the
+ * same length, as samtools requires. Reads do not change any state, so the reference can be used
+ * from several threads, and the pages are shared through the page cache.
+ */
+public class FastaReference implements Closeable {
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer[] chunks;
+
+    /**
+     * Length, offset of the first base, bases per line and bytes per line of every sequence
+     */
+    private final Map<String, long[]> sequences;
+
+    public FastaReference(File fasta) throws IOException {
+        File faiFile = new File(fasta.getPath() + ".fai");
+        this.sequences = faiFile.isFile() ? readIndex(faiFile) : buildIndex(fasta);
+        this.file = new RandomAccessFile(fasta, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+            for (int c = 0; c < chunks.length; c++) {
+                long start = c * CHUNK_SIZE;
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public boolean contains(String chromosome) {
+        return sequences.containsKey(chromosome);
+    }
+
+    /**
+     * @return The base (upper case) at the 1-based position, or 'N' outside the sequence
+     */
+    public char getBase(String chromosome, long position) {
+        long[] sequence = sequences.get(chromosome);
+        if (sequence == null || position < 1 || position > sequence[0]) {
+            return 'N';
+        }
+        long base = position - 1;
+        long offset = sequence[1] + base / sequence[2] * sequence[3] + base % sequence[2];
+        return Character.toUpperCase((char) chunks[(int) (offset >>> CHUNK_BITS)].get((int) (offset & (CHUNK_SIZE - 1))));
+    }
+
+    /**
+     * @return The bases between the 1-based positions, both included
+     */
+    public String getSequence(String chromosome, long start, long end) {
+        StringBuilder bases = new StringBuilder((int) Math.max(0, end - start + 1));
+        for (long position = start; position <= end; position++) {
+            bases.append(getBase(chromosome, position));
+        }
+        return bases.toString();
+    }
+
+    private static Map<String, long[]> readIndex(File faiFile) throws IOException {
+        Map<String, long[]> sequences = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(faiFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length < 5) {
+                    continue;
+                }
+                sequences.put(fields[0], new long[]{Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3]), Long.parseLong(fields[4])});
+            }
+        }
+        return sequences;
+    }
+
+    private static Map<String, long[]> buildIndex(File fasta) throws IOException {
+        Map<String, long[]> sequences = new HashMap<>();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(fasta), 1 << 16)) {
+            long offset = 0;
+            long[] sequence = null;
+            StringBuilder header = null;
+            long lineStart = 0;
+            long lineBases = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                if (header != null) {
+                    if (b == '\n') {
+                        String name = header.toString().trim().split("\\s+")[0];
+                        sequence = new long[]{0, offset + 1, 0, 0};
+                        sequences.put(name, sequence);
+                        header = null;
+                        lineStart = offset + 1;
+                    } else {
+                        header.append((char) b);
+                    }
+                } else if (b == '>' && offset == lineStart) {
+                    header = new StringBuilder();
+                } else if (b == '\n') {
+                    if (sequence != null && sequence[2] == 0) {
+                        // The first line of the sequence sets the line length
+                        sequence[2] = lineBases;
+                        sequence[3] = offset + 1 - lineStart;
+                    }
+                    lineStart = offset + 1;
+                    lineBases = 0;
+                } else if (b != '\r' && sequence != null) {
+                    sequence[0]++;
+                    lineBases++;
+                }
+                offset++;
+            }
+            if (sequence != null && sequence[2] == 0) {
+                // A sequence of one line without a newline at the end
+                sequence[2] = lineBases;
+                sequence[3] = lineBases;
+            }
+        }
+        return sequences;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
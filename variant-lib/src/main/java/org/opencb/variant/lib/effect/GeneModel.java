@@ -0,0 +1,296 @@
+package org.opencb.variant.lib.effect;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Transcripts of a GTF or GFF3 file, indexed by position for overlap queries.
+ * <p/>
+ * Only the exon, CDS, start_codon and stop_codon lines are needed to build a transcript; the UTRs
+ * are what is left of the exons around the coding sequence. Transcripts and genes are taken from
+ * the GTF attributes ({@code transcript_id}, {@code gene_id}, {@code gene_name} and the biotype) or,
+ * in GFF3, from the {@code Parent} of the exons and the {@code ID}, {@code Name} and biotype of the
+ * transcript and gene lines.
+ * <p/>
+ * Every chromosome keeps its transcripts sorted by start, with the largest end seen so far at
+ * every index, so finding the transcripts around a position is a binary search followed by a
+ * short scan backwards. The model does not change once loaded and can be queried from several
+ * threads.
+ */
+public class GeneModel {
+
+    private final Map<String, Transcript[]> transcripts;
+    private final Map<String, int[]> maxEnds;
+    private final int size;
+
+    private GeneModel(Map<String, Transcript[]> transcripts) {
+        this.transcripts = transcripts;
+        this.maxEnds = new HashMap<>();
+        int size = 0;
+        for (Map.Entry<String, Transcript[]> chromosome : transcripts.entrySet()) {
+            Transcript[] sorted = chromosome.getValue();
+            int[] ends = new int[sorted.length];
+            for (int t = 0; t < sorted.length; t++) {
+                ends[t] = Math.max(sorted[t].getEnd(), t > 0 ? ends[t - 1] : 0);
+            }
+            maxEnds.put(chromosome.getKey(), ends);
+            size += sorted.length;
+        }
+        this.size = size;
+    }
+
+    /**
+     * @param file GTF or GFF3 file, plain or gzip-compressed
+     * @throws IOException If the file cannot be read
+     */
+    public static GeneModel load(File file) throws IOException {
+        Map<String, TranscriptBuilder> builders = new LinkedHashMap<>();
+        // GFF3 genes and transcripts, by ID: parent, name, biotype and the ID given in the attributes
+        Map<String, String[]> features = new HashMap<>();
+        Map<String, String> names = new HashMap<>();
+
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length < 9) {
+                    continue;
+                }
+                String type = fields[2];
+                Map<String, String> attributes = parseAttributes(fields[8]);
+
+                if (type.equals("exon") || type.equals("CDS") || type.equals("start_codon") || type.equals("stop_codon")) {
+                    String transcriptId = attributes.get("transcript_id");
+                    String parent = attributes.get("Parent");
+                    String key = parent != null ? parent.split(",")[0] : transcriptId;
+                    if (key == null) {
+                        continue;
+                    }
+                    TranscriptBuilder builder = builders.get(key);
+                    if (builder == null) {
+                        builder = new TranscriptBuilder(intern(names, fields[0]), fields[6].equals("+"));
+                        builders.put(key, builder);
+                    }
+                    if (parent == null && builder.id == null) {
+                        builder.id = transcriptId;
+                        builder.geneId = attributes.get("gene_id");
+                        builder.geneName = intern(names, attributes.get("gene_name"));
+                    }
+                    if (parent == null && (builder.biotype == null || biotype(attributes, null) != null)) {
+                        // Not every line of a transcript has the biotype
+                        builder.biotype = intern(names, biotype(attributes, fields[1]));
+                    }
+                    builder.add(type, Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+                } else if (attributes.containsKey("ID")) {
+                    String id = attributes.get(attributes.containsKey("transcript_id") ? "transcript_id" : "gene_id");
+                    features.put(attributes.get("ID"), new String[]{attributes.get("Parent"), attributes.get("Name"),
+                            attributes.containsKey("biotype") ? attributes.get("biotype") : biotype(attributes, null), id});
+                }
+            }
+        }
+
+        Map<String, List<Transcript>> byChromosome = new LinkedHashMap<>();
+        for (Map.Entry<String, TranscriptBuilder> entry : builders.entrySet()) {
+            TranscriptBuilder builder = entry.getValue();
+            if (builder.id == null) {
+                // GFF3: the exons only point to their transcript
+                String[] transcript = features.get(entry.getKey());
+                String[] gene = transcript == null || transcript[0] == null ? null : features.get(transcript[0]);
+                builder.id = transcript != null && transcript[3] != null ? transcript[3] : entry.getKey();
+                builder.geneId = gene != null && gene[3] != null ? gene[3] : transcript == null ? null : transcript[0];
+                builder.geneName = intern(names, gene == null ? null : gene[1]);
+                builder.biotype = intern(names, transcript != null && transcript[2] != null ? transcript[2] : gene == null ? null : gene[2]);
+            }
+            Transcript transcript = builder.build();
+            if (transcript == null) {
+                continue;
+            }
+            if (!byChromosome.containsKey(transcript.getChromosome())) {
+                byChromosome.put(transcript.getChromosome(), new ArrayList<Transcript>());
+            }
+            byChromosome.get(transcript.getChromosome()).add(transcript);
+        }
+
+        Map<String, Transcript[]> transcripts = new HashMap<>();
+        for (Map.Entry<String, List<Transcript>> chromosome : byChromosome.entrySet()) {
+            List<Transcript> list = chromosome.getValue();
+            Collections.sort(list, new Comparator<Transcript>() {
+                @Override
+                public int compare(Transcript t1, Transcript t2) {
+                    return Integer.compare(t1.getStart(), t2.getStart());
+                }
+            });
+            transcripts.put(chromosome.getKey(), list.toArray(new Transcript[list.size()]));
+        }
+        return new GeneModel(transcripts);
+    }
+
+    /**
+     * @return Number of transcripts
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param flank Bases around the region that also count as overlap
+     * @return The transcripts that overlap the region, by start
+     */
+    public List<Transcript> getTranscripts(String chromosome, int start, int end, int flank) {
+        Transcript[] sorted = transcripts.get(chromosome);
+        if (sorted == null) {
+            return Collections.emptyList();
+        }
+        int[] ends = maxEnds.get(chromosome);
+
+        // Last transcript starting before the end of the region
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle].getStart() <= (long) end + flank) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        List<Transcript> overlapping = new ArrayList<>();
+        for (int t = low - 1; t >= 0 && ends[t] >= (long) start - flank; t--) {
+            if (sorted[t].getEnd() >= (long) start - flank) {
+                overlapping.add(sorted[t]);
+            }
+        }
+        Collections.reverse(overlapping);
+        return overlapping;
+    }
+
+    /**
+     * Parses GTF ({@code key "value";}) and GFF3 ({@code key=value;}) attributes
+     */
+    static Map<String, String> parseAttributes(String column) {
+        Map<String, String> attributes = new HashMap<>();
+        for (String attribute : column.split(";")) {
+            attribute = attribute.trim();
+            int equals = attribute.indexOf('=');
+            int space = attribute.indexOf(' ');
+            if (equals > 0 && (space < 0 || equals < space)) {
+                attributes.put(attribute.substring(0, equals), attribute.substring(equals + 1));
+            } else if (space > 0) {
+                String value = attribute.substring(space + 1).trim();
+                if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                // The first tag wins, GTF can repeat keys such as "tag"
+                if (!attributes.containsKey(attribute.substring(0, space))) {
+                    attributes.put(attribute.substring(0, space), value);
+                }
+            }
+        }
+        return attributes;
+    }
+
+    private static String biotype(Map<String, String> attributes, String source) {
+        for (String key : new String[]{"transcript_biotype", "transcript_type", "gene_biotype", "gene_type"}) {
+            if (attributes.containsKey(key)) {
+                return attributes.get(key);
+            }
+        }
+        // Old Ensembl GTFs have the biotype as source
+        return source;
+    }
+
+    /**
+     * Keeps one copy of the chromosomes, gene names and biotypes, repeated in every line
+     */
+    private static String intern(Map<String, String> names, String name) {
+        if (name == null) {
+            return null;
+        }
+        String interned = names.get(name);
+        if (interned == null) {
+            names.put(name, name);
+            interned = name;
+        }
+        return interned;
+    }
+
+    private static class TranscriptBuilder {
+
+        private final String chromosome;
+        private final boolean forward;
+        private String id;
+        private String geneId;
+        private String geneName;
+        private String biotype;
+        private int[] exons = new int[8];
+        private int exonCount;
+        private int codingStart = Integer.MAX_VALUE;
+        private int codingEnd = 0;
+
+        TranscriptBuilder(String chromosome, boolean forward) {
+            this.chromosome = chromosome;
+            this.forward = forward;
+        }
+
+        void add(String type, int start, int end) {
+            if (type.equals("exon")) {
+                if (2 * exonCount == exons.length) {
+                    exons = Arrays.copyOf(exons, 2 * exons.length);
+                }
+                exons[2 * exonCount] = start;
+                exons[2 * exonCount + 1] = end;
+                exonCount++;
+            } else {
+                codingStart = Math.min(codingStart, start);
+                codingEnd = Math.max(codingEnd, end);
+            }
+        }
+
+        Transcript build() {
+            if (exonCount == 0) {
+                return null;
+            }
+            Integer[] order = new Integer[exonCount];
+            for (int e = 0; e < exonCount; e++) {
+                order[e] = e;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer e1, Integer e2) {
+                    return Integer.compare(exons[2 * e1], exons[2 * e2]);
+                }
+            });
+            int[] starts = new int[exonCount];
+            int[] ends = new int[exonCount];
+            for (int e = 0; e < exonCount; e++) {
+                starts[e] = exons[2 * order[e]];
+                ends[e] = exons[2 * order[e] + 1];
+            }
+            boolean coding = codingEnd > 0;
+            return new Transcript(id, geneId, geneName, biotype, chromosome, forward, starts, ends,
+                    coding ? codingStart : 0, coding ? codingEnd : 0);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package org.opencb.variant.lib.effect;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.utils.effect.VariantEffect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Effects computed locally from a {@link GeneModel} and, for the amino acid changes, a
+ * {@link FastaReference}, without any remote service.
+ * <p/>
+ * Every alternate allele gets one effect per consequence on every transcript it overlaps or lies
+ * within {@link #FLANK} bases of: upstream and downstream, splice donor and acceptor (the two
+ * intronic bases next to the exon), splice region (3 exonic or 3 to 8 intronic bases from the
+ * exon), intron, UTR, non-coding exon and, in the coding sequence, frameshift, in-frame indels
+ * and, for substitutions, synonymous, missense, start lost, stop gained, stop lost and stop
+ * retained. Without a reference, coding substitutions are only coding sequence variants. Alleles
+ * far from any transcript are intergenic. Consequences are Sequence Ontology terms.
+ * <p/>
+ * Alleles are first trimmed of the bases they share with the reference at either end, so the
+ * padding base of VCF indels does not count. Symbolic alleles are skipped. The predictor only
+ * reads the model and the reference, so it is CPU-bound and can be called from several threads.
+ */
+public class LocalEffectPredictor implements EffectPredictor {
+
+    /**
+     * Distance to a transcript of upstream and downstream variants
+     */
+    public static final int FLANK = 5000;
+
+    private static final String CODONS = "FFLLSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG";
+
+    private final GeneModel model;
+    private final FastaReference genome;
+
+    /**
+     * @param genome Reference genome, or null to skip amino acid changes
+     */
+    public LocalEffectPredictor(GeneModel model, FastaReference genome) {
+        this.model = model;
+        this.genome = genome;
+    }
+
+    @Override
+    public List<List<VariantEffect>> predict(List<Variant> variants) {
+        List<List<VariantEffect>> effects = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            List<VariantEffect> variantEffects = new ArrayList<>();
+            for (String alternate : variant.getAlternate().split(",")) {
+                predict(variant, alternate, variantEffects);
+            }
+            effects.add(variantEffects);
+        }
+        return effects;
+    }
+
+    private void predict(Variant variant, String allele, List<VariantEffect> effects) {
+        String reference = variant.getReference().toUpperCase();
+        String alternate = allele.toUpperCase();
+        if (!isBases(reference) || !isBases(alternate) || reference.equals(alternate)) {
+            return;
+        }
+
+        // Trim the shared bases, the end first so an indel ends up at its leftmost position
+        int position = variant.getPosition();
+        int suffix = 0;
+        while (suffix < reference.length() && suffix < alternate.length()
+                && reference.charAt(reference.length() - 1 - suffix) == alternate.charAt(alternate.length() - 1 - suffix)) {
+            suffix++;
+        }
+        reference = reference.substring(0, reference.length() - suffix);
+        alternate = alternate.substring(0, alternate.length() - suffix);
+        int prefix = 0;
+        while (prefix < reference.length() && prefix < alternate.length() && reference.charAt(prefix) == alternate.charAt(prefix)) {
+            prefix++;
+        }
+        reference = reference.substring(prefix);
+        alternate = alternate.substring(prefix);
+        position += prefix;
+
+        // Insertions fall between two bases, both of which count as affected
+        int start = reference.isEmpty() ? position - 1 : position;
+        int end = reference.isEmpty() ? position : position + reference.length() - 1;
+
+        Allele input = new Allele(variant, allele);
+        List<Transcript> transcripts = model.getTranscripts(variant.getChromosome(), start, end, FLANK);
+        if (transcripts.isEmpty()) {
+            effects.add(input.effect(null, Consequence.INTERGENIC));
+        }
+        for (Transcript transcript : transcripts) {
+            predict(input, transcript, position, reference, alternate, start, end, effects);
+        }
+    }
+
+    private void predict(Allele allele, Transcript transcript, int position, String reference, String alternate,
+                         int start, int end, List<VariantEffect> effects) {
+        if (end < transcript.getStart()) {
+            effects.add(allele.effect(transcript, transcript.isForward() ? Consequence.UPSTREAM : Consequence.DOWNSTREAM));
+            return;
+        }
+        if (start > transcript.getEnd()) {
+            effects.add(allele.effect(transcript, transcript.isForward() ? Consequence.DOWNSTREAM : Consequence.UPSTREAM));
+            return;
+        }
+
+        boolean exonic = false;
+        for (int e = 0; e < transcript.getExons(); e++) {
+            exonic |= overlaps(start, end, transcript.getExonStart(e), transcript.getExonEnd(e));
+        }
+
+        Consequence splice = null;
+        for (int e = 0; e + 1 < transcript.getExons() && splice != Consequence.SPLICE_DONOR && splice != Consequence.SPLICE_ACCEPTOR; e++) {
+            int intronStart = transcript.getExonEnd(e) + 1;
+            int intronEnd = transcript.getExonStart(e + 1) - 1;
+            if (overlaps(start, end, intronStart, intronStart + 1)) {
+                splice = transcript.isForward() ? Consequence.SPLICE_DONOR : Consequence.SPLICE_ACCEPTOR;
+            } else if (overlaps(start, end, intronEnd - 1, intronEnd)) {
+                splice = transcript.isForward() ? Consequence.SPLICE_ACCEPTOR : Consequence.SPLICE_DONOR;
+            } else if (overlaps(start, end, intronStart - 3, intronStart + 7) || overlaps(start, end, intronEnd - 7, intronEnd + 3)) {
+                splice = Consequence.SPLICE_REGION;
+            }
+        }
+        if (splice != null) {
+            effects.add(allele.effect(transcript, splice));
+        }
+
+        if (!exonic) {
+            effects.add(allele.effect(transcript, Consequence.INTRON));
+        } else if (!transcript.isCoding()) {
+            effects.add(allele.effect(transcript, Consequence.NON_CODING_EXON));
+        } else if (end < transcript.getCodingStart()) {
+            effects.add(allele.effect(transcript, transcript.isForward() ? Consequence.UTR_5 : Consequence.UTR_3));
+        } else if (start > transcript.getCodingEnd()) {
+            effects.add(allele.effect(transcript, transcript.isForward() ? Consequence.UTR_3 : Consequence.UTR_5));
+        } else if (reference.length() != alternate.length()) {
+            Consequence consequence = (reference.length() - alternate.length()) % 3 != 0 ? Consequence.FRAMESHIFT
+                    : reference.length() > alternate.length() ? Consequence.INFRAME_DELETION : Consequence.INFRAME_INSERTION;
+            effects.add(allele.effect(transcript, consequence));
+        } else {
+            effects.add(substitution(allele, transcript, position, alternate));
+        }
+    }
+
+    /**
+     * Effect of a substitution in the coding sequence, from the codons it changes
+     */
+    private VariantEffect substitution(Allele allele, Transcript transcript, int position, String alternate) {
+        String chromosome = transcript.getChromosome();
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (int b = 0; b < alternate.length(); b++) {
+            int offset = transcript.getCodingOffset(position + b);
+            if (offset < 0) {
+                // Partly outside the coding sequence
+                return allele.effect(transcript, Consequence.CODING_SEQUENCE);
+            }
+            first = Math.min(first, offset);
+            last = Math.max(last, offset);
+        }
+        if (genome == null || !genome.contains(chromosome)) {
+            return allele.effect(transcript, Consequence.CODING_SEQUENCE);
+        }
+
+        int firstCodon = first / 3;
+        int lastCodon = last / 3;
+        char[] referenceCodons = new char[3 * (lastCodon - firstCodon + 1)];
+        for (int c = 0; c < referenceCodons.length; c++) {
+            int codingPosition = transcript.getCodingPosition(3 * firstCodon + c);
+            if (codingPosition < 0) {
+                // The coding sequence of the model does not end in a whole codon
+                return allele.effect(transcript, Consequence.CODING_SEQUENCE);
+            }
+            referenceCodons[c] = strand(transcript, genome.getBase(chromosome, codingPosition));
+        }
+        char[] alternateCodons = referenceCodons.clone();
+        boolean[] changed = new boolean[referenceCodons.length];
+        for (int b = 0; b < alternate.length(); b++) {
+            int c = transcript.getCodingOffset(position + b) - 3 * firstCodon;
+            alternateCodons[c] = strand(transcript, alternate.charAt(b));
+            changed[c] = true;
+        }
+
+        StringBuilder referencePeptide = new StringBuilder();
+        StringBuilder alternatePeptide = new StringBuilder();
+        for (int c = 0; c < referenceCodons.length; c += 3) {
+            referencePeptide.append(translate(referenceCodons, c));
+            alternatePeptide.append(translate(alternateCodons, c));
+        }
+        String referenceAminoacids = referencePeptide.toString();
+        String alternateAminoacids = alternatePeptide.toString();
+
+        Consequence consequence;
+        if (referenceAminoacids.equals(alternateAminoacids)) {
+            consequence = referenceAminoacids.indexOf('*') >= 0 ? Consequence.STOP_RETAINED : Consequence.SYNONYMOUS;
+        } else if (firstCodon == 0 && referenceAminoacids.charAt(0) == 'M' && alternateAminoacids.charAt(0) != 'M') {
+            consequence = Consequence.START_LOST;
+        } else if (referenceAminoacids.indexOf('*') >= 0 && alternateAminoacids.indexOf('*') < 0) {
+            consequence = Consequence.STOP_LOST;
+        } else if (alternateAminoacids.indexOf('*') >= 0 && referenceAminoacids.indexOf('*') < 0) {
+            consequence = Consequence.STOP_GAINED;
+        } else {
+            consequence = Consequence.MISSENSE;
+        }
+
+        VariantEffect effect = allele.effect(transcript, consequence);
+        effect.setAaPosition(firstCodon + 1);
+        effect.setAminoacidChange(referenceAminoacids.equals(alternateAminoacids)
+                ? referenceAminoacids : referenceAminoacids + "/" + alternateAminoacids);
+        effect.setCodonChange(codons(referenceCodons, changed) + "/" + codons(alternateCodons, changed));
+        return effect;
+    }
+
+    /**
+     * @return The codons with the changed bases in upper case and the rest in lower case
+     */
+    private static String codons(char[] codons, boolean[] changed) {
+        StringBuilder bases = new StringBuilder(codons.length);
+        for (int c = 0; c < codons.length; c++) {
+            bases.append(changed[c] ? codons[c] : Character.toLowerCase(codons[c]));
+        }
+        return bases.toString();
+    }
+
+    private static char translate(char[] codons, int start) {
+        int index = 0;
+        for (int c = start; c < start + 3; c++) {
+            int base = "TCAG".indexOf(codons[c]);
+            if (base < 0) {
+                return 'X';
+            }
+            index = 4 * index + base;
+        }
+        return CODONS.charAt(index);
+    }
+
+    /**
+     * @return The base as read on the strand of the transcript
+     */
+    private static char strand(Transcript transcript, char base) {
+        if (transcript.isForward()) {
+            return base;
+        }
+        switch (base) {
+            case 'A':
+                return 'T';
+            case 'C':
+                return 'G';
+            case 'G':
+                return 'C';
+            case 'T':
+                return 'A';
+            default:
+                return 'N';
+        }
+    }
+
+    private static boolean overlaps(int start, int end, int regionStart, int regionEnd) {
+        return start <= regionEnd && end >= regionStart;
+    }
+
+    private static boolean isBases(String allele) {
+        for (int c = 0; c < allele.length(); c++) {
+            if ("ACGTN".indexOf(allele.charAt(c)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sequence Ontology terms of the consequences
+     */
+    enum Consequence {
+        INTERGENIC("intergenic_variant", "SO:0001628"),
+        UPSTREAM("upstream_gene_variant", "SO:0001631"),
+        DOWNSTREAM("downstream_gene_variant", "SO:0001632"),
+        INTRON("intron_variant", "SO:0001627"),
+        SPLICE_DONOR("splice_donor_variant", "SO:0001575"),
+        SPLICE_ACCEPTOR("splice_acceptor_variant", "SO:0001574"),
+        SPLICE_REGION("splice_region_variant", "SO:0001630"),
+        UTR_5("5_prime_UTR_variant", "SO:0001623"),
+        UTR_3("3_prime_UTR_variant", "SO:0001624"),
+        NON_CODING_EXON("non_coding_transcript_exon_variant", "SO:0001792"),
+        CODING_SEQUENCE("coding_sequence_variant", "SO:0001580"),
+        SYNONYMOUS("synonymous_variant", "SO:0001819"),
+        MISSENSE("missense_variant", "SO:0001583"),
+        START_LOST("start_lost", "SO:0002012"),
+        STOP_GAINED("stop_gained", "SO:0001587"),
+        STOP_LOST("stop_lost", "SO:0001578"),
+        STOP_RETAINED("stop_retained_variant", "SO:0001567"),
+        FRAMESHIFT("frameshift_variant", "SO:0001589"),
+        INFRAME_INSERTION("inframe_insertion", "SO:0001821"),
+        INFRAME_DELETION("inframe_deletion", "SO:0001822");
+
+        private final String name;
+        private final String accession;
+
+        Consequence(String name, String accession) {
+            this.name = name;
+            this.accession = accession;
+        }
+    }
+
+    /**
+     * Alternate allele of a variant, as given in the input
+     */
+    private static class Allele {
+
+        private final Variant variant;
+        private final String alternate;
+
+        Allele(Variant variant, String alternate) {
+            this.variant = variant;
+            this.alternate = alternate;
+        }
+
+        VariantEffect effect(Transcript transcript, Consequence consequence) {
+            VariantEffect effect = new VariantEffect();
+            effect.setChromosome(variant.getChromosome());
+            effect.setPosition(variant.getPosition());
+            effect.setReferenceAllele(variant.getReference());
+            effect.setAlternativeAllele(alternate);
+            if (transcript != null) {
+                effect.setFeatureId(transcript.getId());
+                effect.setFeatureType("transcript");
+                effect.setFeatureBiotype(transcript.getBiotype());
+                effect.setGeneId(transcript.getGeneId());
+                effect.setTranscriptId(transcript.getId());
+                effect.setGeneName(transcript.getGeneName());
+            }
+            effect.setConsequenceType(consequence.accession);
+            effect.setConsequenceTypeObo(consequence.name);
+            return effect;
+        }
+    }
+}
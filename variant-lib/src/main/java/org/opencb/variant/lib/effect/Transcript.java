@@ -0,0 +1,142 @@
+package org.opencb.variant.lib.effect;
+
+/**
+ * A transcript of a {@link GeneModel}: its exons and, if it is coding, the genomic bounds of its
+ * coding sequence, stop codon included. Coordinates are 1-based and inclusive, and exons are sorted
+ * by position whatever the strand.
+ */
+public class Transcript {
+
+    private final String id;
+    private final String geneId;
+    private final String geneName;
+    private final String biotype;
+    private final String chromosome;
+    private final boolean forward;
+    private final int[] exonStarts;
+    private final int[] exonEnds;
+    private final int codingStart;
+    private final int codingEnd;
+
+    Transcript(String id, String geneId, String geneName, String biotype, String chromosome, boolean forward,
+               int[] exonStarts, int[] exonEnds, int codingStart, int codingEnd) {
+        this.id = id;
+        this.geneId = geneId;
+        this.geneName = geneName;
+        this.biotype = biotype;
+        this.chromosome = chromosome;
+        this.forward = forward;
+        this.exonStarts = exonStarts;
+        this.exonEnds = exonEnds;
+        this.codingStart = codingStart;
+        this.codingEnd = codingEnd;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getGeneId() {
+        return geneId;
+    }
+
+    public String getGeneName() {
+        return geneName;
+    }
+
+    public String getBiotype() {
+        return biotype;
+    }
+
+    public String getChromosome() {
+        return chromosome;
+    }
+
+    /**
+     * @return Whether the transcript is on the forward strand
+     */
+    public boolean isForward() {
+        return forward;
+    }
+
+    public int getStart() {
+        return exonStarts[0];
+    }
+
+    public int getEnd() {
+        return exonEnds[exonEnds.length - 1];
+    }
+
+    public int getExons() {
+        return exonStarts.length;
+    }
+
+    /**
+     * @param exon Index of the exon, by position
+     */
+    public int getExonStart(int exon) {
+        return exonStarts[exon];
+    }
+
+    public int getExonEnd(int exon) {
+        return exonEnds[exon];
+    }
+
+    public boolean isCoding() {
+        return codingStart > 0;
+    }
+
+    public int getCodingStart() {
+        return codingStart;
+    }
+
+    public int getCodingEnd() {
+        return codingEnd;
+    }
+
+    /**
+     * @return Offset (from 0, in transcript direction) of the position in the coding sequence, or
+     * -1 if it is not a coding base
+     */
+    public int getCodingOffset(int position) {
+        if (!isCoding() || position < codingStart || position > codingEnd) {
+            return -1;
+        }
+        int offset = 0;
+        for (int e = 0; e < exonStarts.length; e++) {
+            int exon = forward ? e : exonStarts.length - 1 - e;
+            int start = Math.max(exonStarts[exon], codingStart);
+            int end = Math.min(exonEnds[exon], codingEnd);
+            if (start > end) {
+                continue;
+            }
+            if (position >= start && position <= end) {
+                return offset + (forward ? position - start : end - position);
+            }
+            offset += end - start + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Genomic position of the coding offset, or -1 if it is beyond the coding sequence
+     */
+    public int getCodingPosition(int offset) {
+        if (!isCoding() || offset < 0) {
+            return -1;
+        }
+        for (int e = 0; e < exonStarts.length; e++) {
+            int exon = forward ? e : exonStarts.length - 1 - e;
+            int start = Math.max(exonStarts[exon], codingStart);
+            int end = Math.min(exonEnds[exon], codingEnd);
+            if (start > end) {
+                continue;
+            }
+            if (offset <= end - start) {
+                return forward ? start + offset : end - offset;
+            }
+            offset -= end - start + 1;
+        }
+        return -1;
+    }
+}
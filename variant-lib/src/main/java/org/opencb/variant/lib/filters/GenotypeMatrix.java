@@ -0,0 +1,191 @@
+package org.opencb.variant.lib.filters;
+
+import org.opencb.commons.bioformats.variant.Variant;
+
+import java.util.List;
+
+/**
+ * Genotypes of the variants of a gene for the individuals of a pedigree, packed in bitsets: one
+ * bit per individual, numbered as in {@link PedigreeMasks}, and one bitset per variant and state.
+ * <p/>
+ * The GT of every sample is read once, when the matrix is built, so the pedigree logic can then
+ * combine whole words of individuals with AND and OR instead of looking genotypes up sample by
+ * sample. Samples that are not in the pedigree are ignored, and individuals without a sample are
+ * missing. In multi-allelic variants, an individual with two different alternate alleles, such as
+ * 1/2, is neither heterozygous nor homozygous but in a state of its own.
+ */
+public class GenotypeMatrix {
+
+    public static final String GENOTYPE_KEY = "GT";
+
+    private final PedigreeMasks masks;
+    private final long[] individuals;
+    private final long[][] het;
+    private final long[][] homAlt;
+    private final long[][] hetAlt;
+    private final long[][] missing;
+    private final long[][] phased;
+    private final long[][] altFirst;
+
+    public GenotypeMatrix(PedigreeMasks masks, List<Variant> variants) {
+        this(masks, variants, masks.withParentsOf(0, masks.words()));
+    }
+
+    /**
+     * Reads the genotypes of some of the individuals only, such as a block of them and their parents
+     * (see {@link PedigreeMasks#withParentsOf}). The bits of the others are all clear.
+     *
+     * @param individuals Individuals to read
+     */
+    public GenotypeMatrix(PedigreeMasks masks, List<Variant> variants, long[] individuals) {
+        this.masks = masks;
+        this.individuals = individuals;
+        int words = masks.words();
+        het = new long[variants.size()][words];
+        homAlt = new long[variants.size()][words];
+        hetAlt = new long[variants.size()][words];
+        missing = new long[variants.size()][words];
+        phased = new long[variants.size()][words];
+        altFirst = new long[variants.size()][words];
+
+        int v = 0;
+        for (Variant variant : variants) {
+            for (int w = 0; w < words; w++) {
+                long word = individuals[w];
+                while (word != 0) {
+                    int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    set(v, i, variant.getSampleData(masks.getId(i), GENOTYPE_KEY));
+                }
+            }
+            v++;
+        }
+    }
+
+    private void set(int v, int i, String genotype) {
+        if (genotype == null || genotype.isEmpty()) {
+            PedigreeMasks.set(missing[v], i);
+            return;
+        }
+
+        int separator = 0;
+        while (separator < genotype.length() && genotype.charAt(separator) != '/' && genotype.charAt(separator) != '|') {
+            separator++;
+        }
+        int first = allele(genotype, 0, separator);
+        // Haploid calls have a single allele
+        int second = separator < genotype.length() ? allele(genotype, separator + 1, genotype.length()) : first;
+
+        if (first < 0 || second < 0) {
+            PedigreeMasks.set(missing[v], i);
+        } else if (first > 0 && second > 0) {
+            PedigreeMasks.set(first == second ? homAlt[v] : hetAlt[v], i);
+            if (first != second && separator < genotype.length() && genotype.charAt(separator) == '|') {
+                PedigreeMasks.set(phased[v], i);
+            }
+        } else if (first > 0 || second > 0) {
+            PedigreeMasks.set(het[v], i);
+            if (separator < genotype.length() && genotype.charAt(separator) == '|') {
+                PedigreeMasks.set(phased[v], i);
+                if (first > 0) {
+                    PedigreeMasks.set(altFirst[v], i);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Index of the allele, or -1 if it is missing
+     */
+    private static int allele(String genotype, int start, int end) {
+        if (start >= end || genotype.charAt(start) == '.') {
+            return -1;
+        }
+        int allele = 0;
+        for (int c = start; c < end; c++) {
+            char digit = genotype.charAt(c);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            allele = allele * 10 + (digit - '0');
+        }
+        return allele;
+    }
+
+    public PedigreeMasks getMasks() {
+        return masks;
+    }
+
+    /**
+     * @return Number of variants
+     */
+    public int size() {
+        return het.length;
+    }
+
+    /**
+     * @return Individuals with one reference and one alternate allele in the variant
+     */
+    public long[] getHet(int variant) {
+        return het[variant];
+    }
+
+    /**
+     * @return Individuals with the same alternate allele twice in the variant
+     */
+    public long[] getHomAlt(int variant) {
+        return homAlt[variant];
+    }
+
+    /**
+     * @return Individuals with two different alternate alleles in a multi-allelic variant
+     */
+    public long[] getHetAlt(int variant) {
+        return hetAlt[variant];
+    }
+
+    /**
+     * @return Individuals with at least one alternate allele in the variant
+     */
+    public long[] getAltCarriers(int variant) {
+        long[] carriers = new long[het[variant].length];
+        for (int w = 0; w < carriers.length; w++) {
+            carriers[w] = het[variant][w] | homAlt[variant][w] | hetAlt[variant][w];
+        }
+        return carriers;
+    }
+
+    /**
+     * @return Individuals without a call for the variant
+     */
+    public long[] getMissing(int variant) {
+        return missing[variant];
+    }
+
+    /**
+     * @return Individuals read and called homozygous for the reference in the variant
+     */
+    public long[] getHomRef(int variant) {
+        long[] homRef = new long[het[variant].length];
+        for (int w = 0; w < homRef.length; w++) {
+            homRef[w] = individuals[w] & ~(het[variant][w] | homAlt[variant][w] | hetAlt[variant][w] | missing[variant][w]);
+        }
+        return homRef;
+    }
+
+    /**
+     * @return Heterozygous individuals, with the reference or two different alternate alleles,
+     * whose genotype is phased
+     */
+    public long[] getPhased(int variant) {
+        return phased[variant];
+    }
+
+    /**
+     * @return Phased heterozygous individuals with the alternate allele on the first haplotype,
+     * which by convention is inherited from the father
+     */
+    public long[] getAltFirst(int variant) {
+        return altFirst[variant];
+    }
+}
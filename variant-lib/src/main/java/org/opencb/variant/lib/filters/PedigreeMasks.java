@@ -0,0 +1,214 @@
+package org.opencb.variant.lib.filters;
+
+import org.opencb.commons.bioformats.pedigree.Condition;
+import org.opencb.commons.bioformats.pedigree.Individual;
+import org.opencb.commons.bioformats.pedigree.Pedigree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbering of the individuals of a pedigree, for the bitsets of a {@link GenotypeMatrix}: bit
+ * {@code i} of every bitset belongs to individual {@code i}.
+ * <p/>
+ * The masks of affected and unaffected individuals, and of the individuals with both parents in
+ * the pedigree, are computed once from the {@link Condition} and parents of every individual.
+ */
+public class PedigreeMasks {
+
+    private final String[] ids;
+    private final Map<String, Integer> indices;
+    private final int[] fathers;
+    private final int[] mothers;
+    private final long[] affected;
+    private final long[] unaffected;
+    private final long[] withParents;
+
+    public PedigreeMasks(Pedigree pedigree) {
+        this(individuals(pedigree));
+    }
+
+    private PedigreeMasks(List<Individual> individuals) {
+        this(ids(individuals), parentIds(individuals, true), parentIds(individuals, false), conditions(individuals));
+    }
+
+    /**
+     * @param fathers    Id of the father of every individual, or null
+     * @param mothers    Id of the mother of every individual, or null
+     * @param conditions Condition of every individual
+     */
+    PedigreeMasks(String[] ids, String[] fathers, String[] mothers, Condition[] conditions) {
+        this.ids = ids;
+        indices = new HashMap<>(2 * ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            indices.put(ids[i], i);
+        }
+
+        this.fathers = new int[ids.length];
+        this.mothers = new int[ids.length];
+        affected = new long[words()];
+        unaffected = new long[words()];
+        withParents = new long[words()];
+        for (int i = 0; i < ids.length; i++) {
+            this.fathers[i] = indexOf(fathers[i]);
+            this.mothers[i] = indexOf(mothers[i]);
+            if (this.fathers[i] >= 0 && this.mothers[i] >= 0) {
+                set(withParents, i);
+            }
+            if (conditions[i] == Condition.AFFECTED) {
+                set(affected, i);
+            } else if (conditions[i] == Condition.UNAFFECTED) {
+                set(unaffected, i);
+            }
+        }
+    }
+
+    private static List<Individual> individuals(Pedigree pedigree) {
+        return pedigree == null || pedigree.getIndividuals() == null
+                ? new ArrayList<Individual>()
+                : new ArrayList<>(pedigree.getIndividuals().values());
+    }
+
+    private static String[] ids(List<Individual> individuals) {
+        String[] ids = new String[individuals.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = individuals.get(i).getId();
+        }
+        return ids;
+    }
+
+    private static String[] parentIds(List<Individual> individuals, boolean father) {
+        String[] ids = new String[individuals.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Individual parent = father ? individuals.get(i).getFather() : individuals.get(i).getMother();
+            ids[i] = parent == null ? null : parent.getId();
+        }
+        return ids;
+    }
+
+    private static Condition[] conditions(List<Individual> individuals) {
+        Condition[] conditions = new Condition[individuals.size()];
+        for (int i = 0; i < conditions.length; i++) {
+            conditions[i] = individuals.get(i).getCondition();
+        }
+        return conditions;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return Number of 64-bit words of every bitset
+     */
+    public int words() {
+        return (ids.length + 63) >>> 6;
+    }
+
+    public String getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @return Index of the individual, or -1 if it is not in the pedigree
+     */
+    public int indexOf(String id) {
+        Integer index = id == null ? null : indices.get(id);
+        return index == null ? -1 : index;
+    }
+
+    public long[] getAffected() {
+        return affected;
+    }
+
+    public long[] getUnaffected() {
+        return unaffected;
+    }
+
+    /**
+     * @return Individuals whose father and mother are both in the pedigree
+     */
+    public long[] getWithParents() {
+        return withParents;
+    }
+
+    /**
+     * @return Individuals of the words from {@code fromWord} to {@code toWord} (exclusive), with the
+     * parents of those that have both in the pedigree
+     */
+    public long[] withParentsOf(int fromWord, int toWord) {
+        long[] individuals = new long[words()];
+        for (int w = fromWord; w < toWord; w++) {
+            individuals[w] = w == individuals.length - 1 && ids.length % 64 != 0 ? (1L << ids.length) - 1 : -1L;
+            long children = withParents[w];
+            while (children != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(children);
+                children &= children - 1;
+                set(individuals, fathers[i]);
+                set(individuals, mothers[i]);
+            }
+        }
+        return individuals;
+    }
+
+    /**
+     * Moves the bits of the fathers onto their children: bit {@code i} of the result is the bit of
+     * the father of individual {@code i}, or 0 if it has no father in the pedigree.
+     */
+    public long[] fromFathers(long[] bits) {
+        return fromFathers(bits, 0, words());
+    }
+
+    /**
+     * Same as {@link #fromFathers(long[])}, only for the children in the words from {@code fromWord}
+     * to {@code toWord} (exclusive).
+     */
+    public long[] fromFathers(long[] bits, int fromWord, int toWord) {
+        return gather(bits, fathers, fromWord, toWord);
+    }
+
+    /**
+     * Same as {@link #fromFathers(long[])}, with the mothers.
+     */
+    public long[] fromMothers(long[] bits) {
+        return fromMothers(bits, 0, words());
+    }
+
+    public long[] fromMothers(long[] bits, int fromWord, int toWord) {
+        return gather(bits, mothers, fromWord, toWord);
+    }
+
+    private long[] gather(long[] bits, int[] parents, int fromWord, int toWord) {
+        long[] gathered = new long[bits.length];
+        for (int w = fromWord; w < toWord; w++) {
+            long children = withParents[w];
+            while (children != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(children);
+                children &= children - 1;
+                if (get(bits, parents[i])) {
+                    set(gathered, i);
+                }
+            }
+        }
+        return gathered;
+    }
+
+    static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    static boolean isEmpty(long[] bits) {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
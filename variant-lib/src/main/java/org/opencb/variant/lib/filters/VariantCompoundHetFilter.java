@@ -0,0 +1,172 @@
+package org.opencb.variant.lib.filters;
+
+import org.opencb.commons.bioformats.pedigree.Pedigree;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.filters.VariantGeneLevelFilter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Keeps the variants of a gene that make an affected individual compound heterozygous: it is
+ * heterozygous for at least one variant inherited from the father and one inherited from the
+ * mother.
+ * <p/>
+ * By default the rules are those of
+ * {@link org.opencb.commons.bioformats.variant.filters.VariantCompoundHeterozygosityFilter}: a
+ * heterozygous variant of an individual with both parents in the pedigree is inherited from the
+ * parent that carries the alternate allele when the other one is homozygous for the reference, and
+ * the phase and the unaffected individuals play no part. With {@link #strict(boolean)}:
+ * <ul>
+ * <li>The parent of origin of a phased genotype is read from the phase, the first allele being the
+ * paternal one. An unphased genotype is only assigned when one parent is heterozygous and the other
+ * one homozygous for the reference.</li>
+ * <li>A variant is discarded if it is also part of a compound heterozygosity of an unaffected
+ * individual.</li>
+ * </ul>
+ * An individual with two different alternate alleles of a multi-allelic variant, such as 1/2, has
+ * one from each parent when both carry an alternate allele, or when the genotype is phased in strict
+ * mode.
+ * <p/>
+ * The genotypes of every gene are read once into a {@link GenotypeMatrix} and the checks run on 64
+ * individuals at a time, so the cost hardly grows with the size of the cohort. A large gene can
+ * also be split into blocks of individuals with {@link #carriers}. The filter keeps no state
+ * between genes and can be called from several threads.
+ */
+public class VariantCompoundHetFilter extends VariantGeneLevelFilter {
+
+    private final PedigreeMasks masks;
+    private boolean strict = false;
+
+    public VariantCompoundHetFilter(Pedigree pedigree) {
+        this(new PedigreeMasks(pedigree));
+    }
+
+    public VariantCompoundHetFilter(PedigreeMasks masks) {
+        this.masks = masks;
+    }
+
+    /**
+     * @param strict Whether to take the parent of origin from the phase or from heterozygous parents
+     *               only, and to discard the variants shared with unaffected individuals
+     */
+    public VariantCompoundHetFilter strict(boolean strict) {
+        this.strict = strict;
+        return this;
+    }
+
+    /**
+     * @return Number of 64-individual words of the pedigree, the units {@link #carriers} can split
+     * it into
+     */
+    public int words() {
+        return masks.words();
+    }
+
+    @Override
+    public List<Variant> apply(List<Variant> gene) {
+        if (gene.isEmpty() || PedigreeMasks.isEmpty(masks.getAffected())) {
+            return new ArrayList<>();
+        }
+        return passed(gene, carriers(gene, 0, masks.words()));
+    }
+
+    /**
+     * Finds the variants of a gene that make an individual compound heterozygous, looking only at
+     * the individuals of some words of the pedigree. The genotypes of other individuals are only
+     * read for their children in those words, so several blocks of words can be checked at the same
+     * time and their results added up with {@link Carriers#or}.
+     *
+     * @param fromWord First word of individuals
+     * @param toWord   Word after the last one
+     */
+    public Carriers carriers(List<Variant> gene, int fromWord, int toWord) {
+        Carriers result = new Carriers();
+        GenotypeMatrix genotypes = new GenotypeMatrix(masks, gene, masks.withParentsOf(fromWord, toWord));
+        int words = masks.words();
+        long[] withParents = masks.getWithParents();
+
+        long[][] carriers = new long[gene.size()][words];
+        long[] paternal = new long[words];
+        long[] maternal = new long[words];
+        for (int v = 0; v < gene.size(); v++) {
+            long[] het = genotypes.getHet(v);
+            long[] hetAlt = genotypes.getHetAlt(v);
+            long[] phased = genotypes.getPhased(v);
+            long[] altFirst = genotypes.getAltFirst(v);
+            long[] homRef = genotypes.getHomRef(v);
+            long[] alt = genotypes.getAltCarriers(v);
+            long[] fatherAlt = masks.fromFathers(alt, fromWord, toWord);
+            long[] motherAlt = masks.fromMothers(alt, fromWord, toWord);
+            long[] fatherRef = masks.fromFathers(homRef, fromWord, toWord);
+            long[] motherRef = masks.fromMothers(homRef, fromWord, toWord);
+            long[] fatherHet = strict ? masks.fromFathers(het, fromWord, toWord) : fatherAlt;
+            long[] motherHet = strict ? masks.fromMothers(het, fromWord, toWord) : motherAlt;
+
+            for (int w = fromWord; w < toWord; w++) {
+                long unphased = strict ? ~phased[w] & withParents[w] : withParents[w];
+                long fromFather = unphased & het[w] & fatherHet[w] & motherRef[w];
+                long fromMother = unphased & het[w] & motherHet[w] & fatherRef[w];
+                long fromBoth = unphased & hetAlt[w] & fatherAlt[w] & motherAlt[w];
+                if (strict) {
+                    fromFather |= phased[w] & het[w] & altFirst[w];
+                    fromMother |= phased[w] & het[w] & ~altFirst[w];
+                    fromBoth |= phased[w] & hetAlt[w];
+                }
+                fromFather |= fromBoth;
+                fromMother |= fromBoth;
+                carriers[v][w] = fromFather | fromMother;
+                paternal[w] |= fromFather;
+                maternal[w] |= fromMother;
+            }
+        }
+
+        long[] affected = masks.getAffected();
+        long[] unaffected = masks.getUnaffected();
+        for (int v = 0; v < gene.size(); v++) {
+            for (int w = fromWord; w < toWord; w++) {
+                long compoundHet = carriers[v][w] & paternal[w] & maternal[w];
+                if ((compoundHet & affected[w]) != 0) {
+                    result.affected.set(v);
+                }
+                if ((compoundHet & unaffected[w]) != 0) {
+                    result.unaffected.set(v);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param carriers Compound heterozygous individuals of every variant in the whole pedigree
+     * @return The variants that pass
+     */
+    public List<Variant> passed(List<Variant> gene, Carriers carriers) {
+        List<Variant> passed = new ArrayList<>();
+        for (int v = carriers.affected.nextSetBit(0); v >= 0; v = carriers.affected.nextSetBit(v + 1)) {
+            if (!strict || !carriers.unaffected.get(v)) {
+                passed.add(gene.get(v));
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Variants of a gene, by index, that make an affected or an unaffected individual compound
+     * heterozygous
+     */
+    public static class Carriers {
+        private final BitSet affected = new BitSet();
+        private final BitSet unaffected = new BitSet();
+
+        /**
+         * Adds the carriers found in another block of individuals
+         */
+        public Carriers or(Carriers other) {
+            affected.or(other.affected);
+            unaffected.or(other.unaffected);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package org.opencb.variant.lib.filters;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.filters.VariantFilter;
+import org.opencb.commons.bioformats.variant.utils.effect.VariantEffect;
+import org.opencb.variant.lib.utils.VariantFields;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Filter defined by a boolean expression over the fields of a variant, for example
+ * {@code QUAL>30 && GENE in (BRCA2,PPL) && CT~missense}.
+ * <p/>
+ * The expression is parsed once into a tree of predicates with its constants already converted
+ * (numbers to doubles, lists to sets), so applying it to a variant only reads the fields it needs
+ * and stops as soon as the result is known.
+ * <p/>
+ * Fields:
+ * <ul>
+ * <li>{@code CHROM}, {@code POS}, {@code ID}, {@code REF}, {@code ALT}, {@code QUAL}, {@code FILTER}:
+ * the VCF columns</li>
+ * <li>{@code GENE}: gene names, from the INFO column ({@link VariantFields#GENE_KEY}) and from the
+ * predicted effects</li>
+ * <li>{@code CT}: consequence types (SO terms) of the predicted effects</li>
+ * <li>Anything else, optionally prefixed by {@code INFO.}: the INFO value with that key</li>
+ * </ul>
+ * Operators: {@code == != > >= < <=}, {@code ~} (contains), {@code in (a,b,...)}, and
+ * {@code && || !} (or {@code and or not}) with parentheses. A field on its own is true when the
+ * variant has a value for it, which is handy for INFO flags. Comparisons with a missing or
+ * non-numeric value are false, {@code !=} included; for genes and consequence types, a comparison
+ * is true when any of the values matches, and {@code !=} when the field has values and none of
+ * them is equal.
+ */
+public class VariantExpressionFilter extends VariantFilter {
+
+    private final String expression;
+    private final Predicate predicate;
+
+    public VariantExpressionFilter(String expression) {
+        this(expression, 0);
+    }
+
+    /**
+     * @throws IllegalArgumentException If the expression is not valid
+     */
+    public VariantExpressionFilter(String expression, int priority) {
+        super(priority);
+        this.expression = expression;
+        this.predicate = new Parser(expression).parse();
+    }
+
+    @Override
+    public boolean apply(Variant variant) {
+        return predicate.test(variant);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private interface Predicate {
+        boolean test(Variant variant);
+    }
+
+    /**
+     * Test on one string value of a field.
+     */
+    private interface StringTest {
+        boolean test(String value);
+    }
+
+    private enum Field {
+        CHROM, POS, ID, REF, ALT, QUAL, FILTER, GENE, CT, INFO;
+
+        boolean isNumeric() {
+            return this == POS || this == QUAL;
+        }
+
+        boolean isMultiValued() {
+            return this == GENE || this == CT;
+        }
+    }
+
+    private static final class FieldRef {
+        private final Field field;
+        private final String key;
+
+        private FieldRef(Field field, String key) {
+            this.field = field;
+            this.key = key;
+        }
+
+        double number(Variant variant) {
+            switch (field) {
+                case POS:
+                    return variant.getPosition();
+                case QUAL:
+                    return VariantFields.getQuality(variant);
+                default:
+                    return VariantFields.getNumber(variant, key);
+            }
+        }
+
+        String string(Variant variant) {
+            switch (field) {
+                case CHROM:
+                    return variant.getChromosome();
+                case POS:
+                    return Integer.toString(variant.getPosition());
+                case ID:
+                    return variant.getId();
+                case REF:
+                    return variant.getReference();
+                case ALT:
+                    return variant.getAlternate();
+                case FILTER:
+                    return VariantFields.getFilter(variant);
+                default:
+                    return VariantFields.getAttribute(variant, key);
+            }
+        }
+
+        /**
+         * @return Whether the test is true for any value of the field
+         */
+        boolean any(Variant variant, StringTest test) {
+            if (field == Field.GENE) {
+                String genes = VariantFields.getAttribute(variant, VariantFields.GENE_KEY);
+                if (genes != null && anySplit(genes, test)) {
+                    return true;
+                }
+                for (VariantEffect effect : VariantFields.getEffects(variant)) {
+                    if (effect.getGeneName() != null && test.test(effect.getGeneName())) {
+                        return true;
+                    }
+                }
+                return false;
+            } else if (field == Field.CT) {
+                for (VariantEffect effect : VariantFields.getEffects(variant)) {
+                    if (effect.getConsequenceTypeObo() != null && test.test(effect.getConsequenceTypeObo())) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            String value = string(variant);
+            return value != null && !".".equals(value) && test.test(value);
+        }
+
+        private static boolean anySplit(String values, StringTest test) {
+            if (values.indexOf(',') < 0) {
+                return !".".equals(values) && test.test(values);
+            }
+            int start = 0;
+            while (start <= values.length()) {
+                int end = values.indexOf(',', start);
+                if (end < 0) {
+                    end = values.length();
+                }
+                if (end > start && test.test(values.substring(start, end))) {
+                    return true;
+                }
+                start = end + 1;
+            }
+            return false;
+        }
+    }
+
+    private enum TokenType {
+        LPAREN, RPAREN, COMMA, AND, OR, NOT, OPERATOR, IN, WORD, STRING, END
+    }
+
+    private static final class Token {
+        private final TokenType type;
+        private final String text;
+        private final int position;
+
+        private Token(TokenType type, String text, int position) {
+            this.type = type;
+            this.text = text;
+            this.position = position;
+        }
+    }
+
+    private static final class Parser {
+        private final String expression;
+        private final List<Token> tokens;
+        private int next;
+
+        private Parser(String expression) {
+            this.expression = expression;
+            this.tokens = tokenize(expression);
+        }
+
+        Predicate parse() {
+            Predicate predicate = parseOr();
+            expect(TokenType.END, "end of expression");
+            return predicate;
+        }
+
+        private Predicate parseOr() {
+            Predicate left = parseAnd();
+            while (peek().type == TokenType.OR) {
+                next++;
+                final Predicate a = left;
+                final Predicate b = parseAnd();
+                left = new Predicate() {
+                    @Override
+                    public boolean test(Variant variant) {
+                        return a.test(variant) || b.test(variant);
+                    }
+                };
+            }
+            return left;
+        }
+
+        private Predicate parseAnd() {
+            Predicate left = parseUnary();
+            while (peek().type == TokenType.AND) {
+                next++;
+                final Predicate a = left;
+                final Predicate b = parseUnary();
+                left = new Predicate() {
+                    @Override
+                    public boolean test(Variant variant) {
+                        return a.test(variant) && b.test(variant);
+                    }
+                };
+            }
+            return left;
+        }
+
+        private Predicate parseUnary() {
+            Token token = peek();
+            if (token.type == TokenType.NOT) {
+                next++;
+                return not(parseUnary());
+            }
+            if (token.type == TokenType.LPAREN) {
+                next++;
+                Predicate predicate = parseOr();
+                expect(TokenType.RPAREN, "')'");
+                return predicate;
+            }
+            return parseComparison();
+        }
+
+        private Predicate parseComparison() {
+            final FieldRef field = parseField(expect(TokenType.WORD, "a field name"));
+
+            Token operator = peek();
+            if (operator.type == TokenType.IN) {
+                next++;
+                return in(field, parseList());
+            }
+            if (operator.type != TokenType.OPERATOR) {
+                return exists(field);
+            }
+            next++;
+
+            Token value = next();
+            if (value.type != TokenType.WORD && value.type != TokenType.STRING) {
+                throw error(value, "a value");
+            }
+
+            String op = operator.text.equals("=") ? "==" : operator.text;
+            switch (op) {
+                case "~":
+                    return any(field, contains(value.text));
+                case "==":
+                    if (isNumericComparison(field, value)) {
+                        return compare(field, op, number(value));
+                    }
+                    return any(field, equalTo(value.text));
+                case "!=":
+                    if (isNumericComparison(field, value)) {
+                        return compare(field, op, number(value));
+                    }
+                    return notEqualTo(field, value.text);
+                default:
+                    if (field.field.isMultiValued()) {
+                        throw error(operator, "==, !=, ~ or in for " + field.field);
+                    }
+                    return compare(field, op, number(value));
+            }
+        }
+
+        private boolean isNumericComparison(FieldRef field, Token value) {
+            if (field.field.isMultiValued() || value.type == TokenType.STRING) {
+                return false;
+            }
+            return field.field.isNumeric() || (field.field == Field.INFO && !Double.isNaN(VariantFields.parseNumber(value.text)));
+        }
+
+        private FieldRef parseField(Token token) {
+            String name = token.text;
+            if (name.regionMatches(true, 0, "INFO.", 0, 5)) {
+                return new FieldRef(Field.INFO, name.substring(5));
+            }
+            for (Field field : Field.values()) {
+                if (field != Field.INFO && field.name().equalsIgnoreCase(name)) {
+                    return new FieldRef(field, null);
+                }
+            }
+            return new FieldRef(Field.INFO, name);
+        }
+
+        private List<Token> parseList() {
+            expect(TokenType.LPAREN, "'('");
+            List<Token> values = new ArrayList<>();
+            do {
+                Token value = next();
+                if (value.type != TokenType.WORD && value.type != TokenType.STRING) {
+                    throw error(value, "a value");
+                }
+                values.add(value);
+            } while (accept(TokenType.COMMA));
+            expect(TokenType.RPAREN, "')'");
+            return values;
+        }
+
+        private Predicate in(final FieldRef field, List<Token> values) {
+            boolean numeric = field.field.isNumeric();
+            if (numeric) {
+                final double[] numbers = new double[values.size()];
+                for (int i = 0; i < numbers.length; i++) {
+                    numbers[i] = number(values.get(i));
+                }
+                return new Predicate() {
+                    @Override
+                    public boolean test(Variant variant) {
+                        double value = field.number(variant);
+                        for (double number : numbers) {
+                            if (value == number) {
+                                return true;
+                            }
+                        }
+                        return false;
+                    }
+                };
+            }
+
+            final Set<String> set = new HashSet<>();
+            for (Token value : values) {
+                set.add(value.text);
+            }
+            return any(field, new StringTest() {
+                @Override
+                public boolean test(String value) {
+                    return set.contains(value);
+                }
+            });
+        }
+
+        private Predicate compare(final FieldRef field, String op, final double constant) {
+            switch (op) {
+                case "==":
+                    return new Predicate() {
+                        @Override
+                        public boolean test(Variant variant) {
+                            return field.number(variant) == constant;
+                        }
+                    };
+                case "!=":
+                    return new Predicate() {
+                        @Override
+                        public boolean test(Variant variant) {
+                            double value = field.number(variant);
+                            return !Double.isNaN(value) && value != constant;
+                        }
+                    };
+                case ">":
+                    return new Predicate() {
+                        @Override
+                        public boolean test(Variant variant) {
+                            return field.number(variant) > constant;
+                        }
+                    };
+                case ">=":
+                    return new Predicate() {
+                        @Override
+                        public boolean test(Variant variant) {
+                            return field.number(variant) >= constant;
+                        }
+                    };
+                case "<":
+                    return new Predicate() {
+                        @Override
+                        public boolean test(Variant variant) {
+                            return field.number(variant) < constant;
+                        }
+                    };
+                case "<=":
+                    return new Predicate() {
+                        @Override
+                        public boolean test(Variant variant) {
+                            return field.number(variant) <= constant;
+                        }
+                    };
+                default:
+                    throw new IllegalArgumentException("Unknown operator " + op);
+            }
+        }
+
+        /**
+         * @return Predicate that is false for a missing value, like the rest of the comparisons
+         */
+        private static Predicate notEqualTo(FieldRef field, String constant) {
+            final Predicate present = exists(field);
+            final Predicate equal = any(field, equalTo(constant));
+            return new Predicate() {
+                @Override
+                public boolean test(Variant variant) {
+                    return present.test(variant) && !equal.test(variant);
+                }
+            };
+        }
+
+        private static Predicate any(final FieldRef field, final StringTest test) {
+            return new Predicate() {
+                @Override
+                public boolean test(Variant variant) {
+                    return field.any(variant, test);
+                }
+            };
+        }
+
+        private static Predicate exists(final FieldRef field) {
+            return any(field, new StringTest() {
+                @Override
+                public boolean test(String value) {
+                    return true;
+                }
+            });
+        }
+
+        private static Predicate not(final Predicate predicate) {
+            return new Predicate() {
+                @Override
+                public boolean test(Variant variant) {
+                    return !predicate.test(variant);
+                }
+            };
+        }
+
+        private static StringTest equalTo(final String constant) {
+            return new StringTest() {
+                @Override
+                public boolean test(String value) {
+                    return constant.equals(value);
+                }
+            };
+        }
+
+        private static StringTest contains(final String constant) {
+            return new StringTest() {
+                @Override
+                public boolean test(String value) {
+                    return value.contains(constant);
+                }
+            };
+        }
+
+        private double number(Token token) {
+            double number = VariantFields.parseNumber(token.text);
+            if (Double.isNaN(number)) {
+                throw error(token, "a number");
+            }
+            return number;
+        }
+
+        private Token peek() {
+            return tokens.get(next);
+        }
+
+        private Token next() {
+            Token token = tokens.get(next);
+            if (token.type != TokenType.END) {
+                next++;
+            }
+            return token;
+        }
+
+        private boolean accept(TokenType type) {
+            if (peek().type == type) {
+                next++;
+                return true;
+            }
+            return false;
+        }
+
+        private Token expect(TokenType type, String description) {
+            Token token = peek();
+            if (token.type != type) {
+                throw error(token, description);
+            }
+            return next();
+        }
+
+        private IllegalArgumentException error(Token token, String expected) {
+            String found = token.type == TokenType.END ? "end of expression" : "'" + token.text + "'";
+            return new IllegalArgumentException("Invalid filter expression \"" + expression + "\": expected "
+                    + expected + " at position " + (token.position + 1) + ", found " + found);
+        }
+
+        private static List<Token> tokenize(String expression) {
+            List<Token> tokens = new ArrayList<>();
+            int i = 0;
+            while (i < expression.length()) {
+                char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(') {
+                    tokens.add(new Token(TokenType.LPAREN, "(", i++));
+                } else if (c == ')') {
+                    tokens.add(new Token(TokenType.RPAREN, ")", i++));
+                } else if (c == ',') {
+                    tokens.add(new Token(TokenType.COMMA, ",", i++));
+                } else if (expression.startsWith("&&", i)) {
+                    tokens.add(new Token(TokenType.AND, "&&", i));
+                    i += 2;
+                } else if (expression.startsWith("||", i)) {
+                    tokens.add(new Token(TokenType.OR, "||", i));
+                    i += 2;
+                } else if (expression.startsWith("==", i) || expression.startsWith("!=", i)
+                        || expression.startsWith(">=", i) || expression.startsWith("<=", i)) {
+                    tokens.add(new Token(TokenType.OPERATOR, expression.substring(i, i + 2), i));
+                    i += 2;
+                } else if (c == '!') {
+                    tokens.add(new Token(TokenType.NOT, "!", i++));
+                } else if (c == '=' || c == '<' || c == '>' || c == '~') {
+                    tokens.add(new Token(TokenType.OPERATOR, String.valueOf(c), i++));
+                } else if (c == '"' || c == '\'') {
+                    int end = expression.indexOf(c, i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Invalid filter expression \"" + expression
+                                + "\": unclosed quote at position " + (i + 1));
+                    }
+                    tokens.add(new Token(TokenType.STRING, expression.substring(i + 1, end), i));
+                    i = end + 1;
+                } else {
+                    int start = i;
+                    while (i < expression.length() && "()!,&|=<>~\"".indexOf(expression.charAt(i)) < 0
+                            && !Character.isWhitespace(expression.charAt(i))) {
+                        i++;
+                    }
+                    String word = expression.substring(start, i);
+                    if (word.isEmpty()) {
+                        // A single '&' or '|'
+                        throw new IllegalArgumentException("Invalid filter expression \"" + expression
+                                + "\": unexpected '" + c + "' at position " + (i + 1) + ", use '" + c + c + "'");
+                    }
+                    if (word.equalsIgnoreCase("and")) {
+                        tokens.add(new Token(TokenType.AND, word, start));
+                    } else if (word.equalsIgnoreCase("or")) {
+                        tokens.add(new Token(TokenType.OR, word, start));
+                    } else if (word.equalsIgnoreCase("not")) {
+                        tokens.add(new Token(TokenType.NOT, word, start));
+                    } else if (word.equalsIgnoreCase("in")) {
+                        tokens.add(new Token(TokenType.IN, word, start));
+                    } else {
+                        tokens.add(new Token(TokenType.WORD, word, start));
+                    }
+                }
+            }
+            tokens.add(new Token(TokenType.END, "", expression.length()));
+            return tokens;
+        }
+    }
+}
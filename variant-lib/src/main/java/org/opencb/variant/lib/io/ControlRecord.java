@@ -0,0 +1,162 @@
+package org.opencb.variant.lib.io;
+
+/**
+ * A record of a control VCF, parsed only as far as needed to know the frequency of its alleles.
+ * <p/>
+ * Frequencies are counted from the genotypes of the samples, or taken from the AC and AN (or AF)
+ * INFO fields of control files without samples, such as population summaries.
+ */
+public class ControlRecord {
+
+    private final String[] fields;
+    private final String[] alternates;
+
+    private ControlRecord(String[] fields) {
+        this.fields = fields;
+        this.alternates = fields[4].split(",");
+    }
+
+    /**
+     * @return The record, or null if the line does not have the fixed VCF columns
+     */
+    public static ControlRecord parse(String line) {
+        String[] fields = line.split("\t");
+        return fields.length < 8 ? null : new ControlRecord(fields);
+    }
+
+    public String getChromosome() {
+        return fields[0];
+    }
+
+    public long getPosition() {
+        return Long.parseLong(fields[1]);
+    }
+
+    public String getReference() {
+        return fields[3];
+    }
+
+    /**
+     * @return Number of alternate alleles
+     */
+    public int getAlternates() {
+        return alternates.length;
+    }
+
+    public String getAlternate(int allele) {
+        return alternates[allele - 1];
+    }
+
+    /**
+     * @return Index (from 1) of the alternate allele, compared after {@link #normalize}, or 0 if
+     * the record does not have it
+     */
+    public int indexOf(String reference, String alternate) {
+        String[] normalized = normalize(reference, alternate);
+        for (int a = 0; a < alternates.length; a++) {
+            String[] control = normalize(fields[3], alternates[a]);
+            if (control[0].equals(normalized[0]) && control[1].equals(normalized[1])) {
+                return a + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param allele Index of the alternate allele, from 1
+     * @return The frequency of the allele (NaN if unknown) and the number of alleles called (-1 if
+     * unknown)
+     */
+    public double[] frequency(int allele) {
+        if (fields.length > 9 && fields[8].startsWith("GT")) {
+            return fromGenotypes(allele);
+        }
+        return fromInfo(allele);
+    }
+
+    private double[] fromGenotypes(int allele) {
+        long count = 0;
+        long called = 0;
+        for (int s = 9; s < fields.length; s++) {
+            String sample = fields[s];
+            int end = sample.indexOf(':');
+            end = end < 0 ? sample.length() : end;
+
+            int start = 0;
+            for (int c = 0; c <= end; c++) {
+                if (c == end || sample.charAt(c) == '/' || sample.charAt(c) == '|') {
+                    int value = parseAllele(sample, start, c);
+                    if (value >= 0) {
+                        called++;
+                        if (value == allele) {
+                            count++;
+                        }
+                    }
+                    start = c + 1;
+                }
+            }
+        }
+        return new double[]{called > 0 ? (double) count / called : Double.NaN, called};
+    }
+
+    /**
+     * @return The allele index, or -1 if it is missing or not a number
+     */
+    private static int parseAllele(String sample, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        int value = 0;
+        for (int c = start; c < end; c++) {
+            char digit = sample.charAt(c);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            value = 10 * value + digit - '0';
+        }
+        return value;
+    }
+
+    private double[] fromInfo(int allele) {
+        String ac = null;
+        String an = null;
+        String af = null;
+        for (String field : fields[7].split(";")) {
+            if (field.startsWith("AC=")) {
+                ac = field.substring(3);
+            } else if (field.startsWith("AN=")) {
+                an = field.substring(3);
+            } else if (field.startsWith("AF=")) {
+                af = field.substring(3);
+            }
+        }
+
+        try {
+            String[] counts = ac == null ? null : ac.split(",");
+            if (counts != null && an != null && counts.length >= allele) {
+                long called = Long.parseLong(an);
+                return new double[]{called > 0 ? Double.parseDouble(counts[allele - 1]) / called : Double.NaN, called};
+            }
+            String[] frequencies = af == null ? null : af.split(",");
+            if (frequencies != null && frequencies.length >= allele) {
+                return new double[]{Double.parseDouble(frequencies[allele - 1]), -1};
+            }
+        } catch (NumberFormatException e) {
+            // Same as a record without frequencies
+        }
+        return new double[]{Double.NaN, -1};
+    }
+
+    /**
+     * Removes the trailing bases shared by the reference and the alternate, keeping at least one,
+     * so an allele of a multi-allelic record matches the same allele split in its own record.
+     */
+    public static String[] normalize(String reference, String alternate) {
+        int end = 0;
+        while (end < reference.length() - 1 && end < alternate.length() - 1
+                && reference.charAt(reference.length() - 1 - end) == alternate.charAt(alternate.length() - 1 - end)) {
+            end++;
+        }
+        return new String[]{reference.substring(0, reference.length() - end), alternate.substring(0, alternate.length() - end)};
+    }
+}
@@ -0,0 +1,276 @@
+package org.opencb.variant.lib.io;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary store of the allele frequencies of a control population, for random lookups from
+ * unsorted input.
+ * <p/>
+ * {@link #build} converts control VCFs once into a file of fixed-size entries sorted by
+ * chromosome, position and allele, each with the frequency of the allele and the number of alleles
+ * called. {@link #open} only reads the small chromosome table and maps the entries into memory, so
+ * it takes milliseconds whatever the size of the store, and the pages are shared through the page
+ * cache by every process using the same store. Lookups are a binary search on the position within
+ * the chromosome, and alleles are compared by a 64-bit hash of their normalized form (see
+ * {@link ControlRecord#normalize}). Lookups do not change any state, so a store can be used from
+ * several threads.
+ */
+public class ControlStore implements Closeable {
+
+    private static final int MAGIC = 0x4354524c; // CTRL
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    /**
+     * Position (int), allele hash (long), frequency (float) and alleles called (int)
+     */
+    private static final int ENTRY_SIZE = 20;
+
+    /**
+     * Entries per mapped buffer, which cannot be larger than 2 GB
+     */
+    private static final int CHUNK_ENTRIES = Integer.MAX_VALUE / ENTRY_SIZE;
+
+    private final RandomAccessFile file;
+    private final Map<String, long[]> chromosomes;
+    private final MappedByteBuffer[] chunks;
+    private final long entries;
+
+    private ControlStore(RandomAccessFile file, Map<String, long[]> chromosomes, MappedByteBuffer[] chunks, long entries) {
+        this.file = file;
+        this.chromosomes = chromosomes;
+        this.chunks = chunks;
+        this.entries = entries;
+    }
+
+    /**
+     * @param storeFile File written by {@link #build}
+     * @return The store, with its entries mapped into memory
+     * @throws IOException If the file cannot be read or is not a control store
+     */
+    public static ControlStore open(File storeFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(storeFile, "r");
+        try {
+            if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+                throw new IOException(storeFile + " is not a control store");
+            }
+            long entries = file.readLong();
+            long tableOffset = file.readLong();
+
+            Map<String, long[]> chromosomes = new LinkedHashMap<>();
+            byte[] table = new byte[(int) (file.length() - tableOffset)];
+            file.seek(tableOffset);
+            file.readFully(table);
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(table))) {
+                int count = in.readInt();
+                for (int c = 0; c < count; c++) {
+                    String chromosome = in.readUTF();
+                    chromosomes.put(chromosome, new long[]{in.readLong(), in.readLong()});
+                }
+            }
+
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((entries + CHUNK_ENTRIES - 1) / CHUNK_ENTRIES)];
+            for (int c = 0; c < chunks.length; c++) {
+                long first = (long) c * CHUNK_ENTRIES;
+                long size = Math.min(CHUNK_ENTRIES, entries - first) * ENTRY_SIZE;
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * ENTRY_SIZE, size);
+            }
+            return new ControlStore(file, chromosomes, chunks, entries);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Number of alleles in the store
+     */
+    public long size() {
+        return entries;
+    }
+
+    public List<String> getChromosomes() {
+        return new ArrayList<>(chromosomes.keySet());
+    }
+
+    /**
+     * @return The frequency of the allele and the number of alleles called (-1 if unknown), or
+     * null if the allele is not in the store
+     */
+    public double[] get(String chromosome, long position, String reference, String alternate) {
+        long[] range = chromosomes.get(chromosome);
+        if (range == null || position > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        // First entry at or after the position
+        long low = range[0];
+        long high = range[0] + range[1];
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (position(middle) < position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        long hash = hash(reference, alternate);
+        for (long entry = low; entry < range[0] + range[1] && position(entry) == position; entry++) {
+            MappedByteBuffer chunk = chunks[(int) (entry / CHUNK_ENTRIES)];
+            int offset = (int) (entry % CHUNK_ENTRIES) * ENTRY_SIZE;
+            if (chunk.getLong(offset + 4) == hash) {
+                return new double[]{chunk.getFloat(offset + 12), chunk.getInt(offset + 16)};
+            }
+        }
+        return null;
+    }
+
+    private int position(long entry) {
+        return chunks[(int) (entry / CHUNK_ENTRIES)].getInt((int) (entry % CHUNK_ENTRIES) * ENTRY_SIZE);
+    }
+
+    /**
+     * FNV-1a hash of the normalized alleles
+     */
+    static long hash(String reference, String alternate) {
+        String[] normalized = ControlRecord.normalize(reference, alternate);
+        long hash = 0xcbf29ce484222325L;
+        String alleles = normalized[0] + '>' + normalized[1];
+        for (int c = 0; c < alleles.length(); c++) {
+            hash ^= alleles.charAt(c);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Converts control VCFs into a store. The VCFs do not need to be sorted, and can hold any
+     * chromosomes as long as no chromosome is in two of them.
+     *
+     * @param controlFiles Control VCFs, plain or gzip-compressed
+     * @param storeFile    Store to write
+     * @param tmpDir       Directory for the sorted copies of the VCFs, null for the default
+     * @return Number of alleles in the store
+     * @throws IOException If a control file cannot be read or the store cannot be written
+     */
+    public static long build(List<File> controlFiles, File storeFile, File tmpDir) throws IOException {
+        Map<String, long[]> chromosomes = new LinkedHashMap<>();
+        long entries = 0;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storeFile), 1 << 16))) {
+            // Counts and table offset are filled in at the end
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(0);
+            out.writeLong(0);
+
+            for (File controlFile : controlFiles) {
+                File sorted = File.createTempFile("controls-", ".vcf", tmpDir);
+                try {
+                    new VcfExternalSorter().tmpDir(tmpDir).sort(controlFile, sorted);
+                    entries = writeEntries(sorted, out, entries, chromosomes);
+                } finally {
+                    sorted.delete();
+                }
+            }
+
+            out.writeInt(chromosomes.size());
+            for (Map.Entry<String, long[]> chromosome : chromosomes.entrySet()) {
+                out.writeUTF(chromosome.getKey());
+                out.writeLong(chromosome.getValue()[0]);
+                out.writeLong(chromosome.getValue()[1]);
+            }
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(storeFile, "rw")) {
+            file.seek(8);
+            file.writeLong(entries);
+            file.writeLong(HEADER_SIZE + entries * ENTRY_SIZE);
+        }
+        return entries;
+    }
+
+    private static long writeEntries(File sortedVcf, DataOutputStream out, long entries, Map<String, long[]> chromosomes) throws IOException {
+        String chromosome = null;
+        long position = -1;
+        long[] written = new long[4];
+        int writtenCount = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(sortedVcf), StandardCharsets.UTF_8), 1 << 16)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                ControlRecord record = ControlRecord.parse(line);
+                if (record == null || record.getPosition() > Integer.MAX_VALUE) {
+                    continue;
+                }
+
+                if (!record.getChromosome().equals(chromosome)) {
+                    chromosome = record.getChromosome();
+                    if (chromosomes.containsKey(chromosome)) {
+                        throw new IOException("Chromosome " + chromosome + " is in more than one control file");
+                    }
+                    chromosomes.put(chromosome, new long[]{entries, 0});
+                    position = -1;
+                }
+                if (record.getPosition() != position) {
+                    position = record.getPosition();
+                    writtenCount = 0;
+                }
+
+                for (int allele = 1; allele <= record.getAlternates(); allele++) {
+                    long hash = hash(record.getReference(), record.getAlternate(allele));
+                    // The same allele in several records of a position is kept once
+                    boolean duplicated = false;
+                    for (int w = 0; w < writtenCount && !duplicated; w++) {
+                        duplicated = written[w] == hash;
+                    }
+                    if (duplicated) {
+                        continue;
+                    }
+                    if (writtenCount == written.length) {
+                        written = Arrays.copyOf(written, 2 * written.length);
+                    }
+                    written[writtenCount++] = hash;
+
+                    double[] frequency = record.frequency(allele);
+                    out.writeInt((int) position);
+                    out.writeLong(hash);
+                    out.writeFloat((float) frequency[0]);
+                    out.writeInt((int) Math.min(Integer.MAX_VALUE, frequency[1]));
+                    entries++;
+                    chromosomes.get(chromosome)[1]++;
+                }
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,191 @@
+package org.opencb.variant.lib.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Persistent map of strings, to keep the results of expensive lookups across runs.
+ * <p/>
+ * The entries are appended to a log ({@code cache.dat}) and found through an open-addressing table
+ * of key hashes and log offsets, which costs 16 bytes of heap per entry whatever the size of the
+ * keys and values. The table is saved ({@code cache.idx}) on {@link #close()}; if it is missing or
+ * does not match the log, for instance after a crash, it is rebuilt from the log when the cache is
+ * opened. Entries are never removed or replaced.
+ */
+public class DiskCache implements Closeable {
+
+    private static final int MAGIC = 0x44434348; // DCCH
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    private final File logFile;
+    private final File indexFile;
+    private final RandomAccessFile log;
+    private long[] hashes;
+    private long[] offsets;
+    private int size;
+
+    public DiskCache(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create the cache directory " + dir);
+        }
+        this.logFile = new File(dir, "cache.dat");
+        this.indexFile = new File(dir, "cache.idx");
+        this.log = new RandomAccessFile(logFile, "rw");
+        try {
+            if (!readIndex()) {
+                rebuildIndex();
+            }
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The value of the key, or null if it is not in the cache
+     */
+    public synchronized String get(String key) throws IOException {
+        long hash = hash(key);
+        for (int slot = slot(hash); hashes[slot] != 0; slot = (slot + 1) & (hashes.length - 1)) {
+            if (hashes[slot] == hash) {
+                log.seek(offsets[slot]);
+                if (key.equals(log.readUTF())) {
+                    return log.readUTF();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds an entry. Keys already in the cache must not be added again.
+     */
+    public synchronized void put(String key, String value) throws IOException {
+        long offset = log.length();
+        log.seek(offset);
+        log.writeUTF(key);
+        log.writeUTF(value);
+        insert(hash(key), offset);
+    }
+
+    private void insert(long hash, long offset) {
+        if (2 * (size + 1) > hashes.length) {
+            long[] oldHashes = hashes;
+            long[] oldOffsets = offsets;
+            hashes = new long[2 * oldHashes.length];
+            offsets = new long[2 * oldHashes.length];
+            size = 0;
+            for (int slot = 0; slot < oldHashes.length; slot++) {
+                if (oldHashes[slot] != 0) {
+                    insert(oldHashes[slot], oldOffsets[slot]);
+                }
+            }
+        }
+
+        int slot = slot(hash);
+        while (hashes[slot] != 0) {
+            slot = (slot + 1) & (hashes.length - 1);
+        }
+        hashes[slot] = hash;
+        offsets[slot] = offset;
+        size++;
+    }
+
+    private int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & (hashes.length - 1);
+    }
+
+    /**
+     * FNV-1a hash of the key, never 0, which marks the empty slots
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int c = 0; c < key.length(); c++) {
+            hash ^= key.charAt(c);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private boolean readIndex() throws IOException {
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != log.length()) {
+                return false;
+            }
+            int capacity = in.readInt();
+            hashes = new long[capacity];
+            offsets = new long[capacity];
+            size = in.readInt();
+            for (int slot = 0; slot < capacity; slot++) {
+                hashes[slot] = in.readLong();
+                offsets[slot] = in.readLong();
+            }
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private void rebuildIndex() throws IOException {
+        hashes = new long[INITIAL_CAPACITY];
+        offsets = new long[INITIAL_CAPACITY];
+        size = 0;
+
+        long offset = 0;
+        long length = log.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile), 1 << 16))) {
+            while (offset < length) {
+                String key = in.readUTF();
+                String value = in.readUTF();
+                insert(hash(key), offset);
+                offset += 4 + utfLength(key) + utfLength(value);
+            }
+        } catch (EOFException e) {
+            // A record cut by a crash, dropped
+        }
+        log.setLength(offset);
+    }
+
+    private static int utfLength(String value) {
+        int length = 0;
+        for (int c = 0; c < value.length(); c++) {
+            char ch = value.charAt(c);
+            length += ch >= 0x0001 && ch <= 0x007f ? 1 : ch > 0x07ff ? 3 : 2;
+        }
+        return length;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(log.length());
+            out.writeInt(hashes.length);
+            out.writeInt(size);
+            for (int slot = 0; slot < hashes.length; slot++) {
+                out.writeLong(hashes[slot]);
+                out.writeLong(offsets[slot]);
+            }
+        } finally {
+            log.close();
+        }
+    }
+}
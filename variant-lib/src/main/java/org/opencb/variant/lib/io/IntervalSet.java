@@ -0,0 +1,112 @@
+package org.opencb.variant.lib.io;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Set of genomic regions answering whether a position falls in any of them.
+ * <p/>
+ * The regions are merged and kept per chromosome as two sorted primitive arrays of starts and
+ * ends, so a lookup is a binary search and allocates nothing. In sweep mode, meant for
+ * coordinate-sorted input, every thread keeps a cursor on the last interval it visited and moves
+ * it forward instead of searching; a position behind the cursor or on another chromosome falls
+ * back to a binary search, so unsorted input is still answered correctly.
+ */
+public class IntervalSet {
+
+    private final Map<String, Intervals> intervals;
+    private final int size;
+    private boolean sweep;
+    private final ThreadLocal<Cursor> cursors = new ThreadLocal<Cursor>() {
+        @Override
+        protected Cursor initialValue() {
+            return new Cursor();
+        }
+    };
+
+    public IntervalSet(List<Region> regions) {
+        List<Region> merged = Region.merge(regions);
+        this.intervals = new HashMap<>();
+        this.size = merged.size();
+
+        int from = 0;
+        for (int i = 1; i <= merged.size(); i++) {
+            if (i == merged.size() || !merged.get(i).getChromosome().equals(merged.get(from).getChromosome())) {
+                intervals.put(merged.get(from).getChromosome(), new Intervals(merged.subList(from, i)));
+                from = i;
+            }
+        }
+    }
+
+    /**
+     * @param sweep Whether the positions are queried in coordinate order
+     * @return This set
+     */
+    public IntervalSet sweep(boolean sweep) {
+        this.sweep = sweep;
+        return this;
+    }
+
+    /**
+     * @return Number of intervals after merging
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(String chromosome, long position) {
+        Intervals chromosomeIntervals = intervals.get(chromosome);
+        if (chromosomeIntervals == null) {
+            return false;
+        }
+
+        int index;
+        if (sweep) {
+            Cursor cursor = cursors.get();
+            if (cursor.intervals != chromosomeIntervals || position < cursor.position) {
+                cursor.intervals = chromosomeIntervals;
+                cursor.index = chromosomeIntervals.firstEndingAtOrAfter(position);
+            } else {
+                while (cursor.index < chromosomeIntervals.ends.length && chromosomeIntervals.ends[cursor.index] < position) {
+                    cursor.index++;
+                }
+            }
+            cursor.position = position;
+            index = cursor.index;
+        } else {
+            index = chromosomeIntervals.firstEndingAtOrAfter(position);
+        }
+
+        return index < chromosomeIntervals.starts.length && chromosomeIntervals.starts[index] <= position;
+    }
+
+    /**
+     * Disjoint intervals of one chromosome: both arrays are sorted.
+     */
+    private static class Intervals {
+        private final long[] starts;
+        private final long[] ends;
+
+        private Intervals(List<Region> regions) {
+            starts = new long[regions.size()];
+            ends = new long[regions.size()];
+            for (int i = 0; i < regions.size(); i++) {
+                starts[i] = regions.get(i).getStart();
+                ends[i] = regions.get(i).getEnd();
+            }
+        }
+
+        private int firstEndingAtOrAfter(long position) {
+            int index = Arrays.binarySearch(ends, position);
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+
+    private static class Cursor {
+        private Intervals intervals;
+        private int index;
+        private long position;
+    }
+}
@@ -0,0 +1,185 @@
+package org.opencb.variant.lib.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Genomic interval, 1-based and inclusive at both ends, as in VCF positions.
+ */
+public class Region {
+
+    private final String chromosome;
+    private final long start;
+    private final long end;
+
+    public Region(String chromosome, long start, long end) {
+        this.chromosome = chromosome;
+        this.start = start;
+        this.end = end;
+    }
+
+    public String getChromosome() {
+        return chromosome;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public boolean contains(String chromosome, long position) {
+        return this.chromosome.equals(chromosome) && position >= start && position <= end;
+    }
+
+    /**
+     * @param regions Regions separated by commas, each one as chr, chr:pos or chr:start-end
+     * @return The parsed regions
+     */
+    public static List<Region> parse(String regions) {
+        List<Region> list = new ArrayList<>();
+        for (String region : regions.split(",")) {
+            region = region.trim();
+            if (region.isEmpty()) {
+                continue;
+            }
+
+            int colon = region.lastIndexOf(':');
+            if (colon < 0) {
+                list.add(new Region(region, 1, Long.MAX_VALUE));
+                continue;
+            }
+
+            String chromosome = region.substring(0, colon);
+            String interval = region.substring(colon + 1);
+            int dash = interval.indexOf('-');
+            if (dash < 0) {
+                long position = Long.parseLong(interval);
+                list.add(new Region(chromosome, position, position));
+            } else {
+                list.add(new Region(chromosome, Long.parseLong(interval.substring(0, dash)),
+                        Long.parseLong(interval.substring(dash + 1))));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @param bedFile BED file, whose 0-based half-open intervals are converted to 1-based
+     *                inclusive ones
+     * @return The regions of the file, in file order
+     * @throws IOException If the file cannot be read
+     */
+    public static List<Region> parseBed(File bedFile) throws IOException {
+        List<Region> list = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(bedFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", 4);
+                list.add(new Region(fields[0], Long.parseLong(fields[1]) + 1, Long.parseLong(fields[2])));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @param regions Regions in any order, possibly overlapping
+     * @return Disjoint regions covering the same positions, sorted by chromosome name and start
+     */
+    public static List<Region> merge(List<Region> regions) {
+        List<Region> sorted = new ArrayList<>(regions);
+        Collections.sort(sorted, new Comparator<Region>() {
+            @Override
+            public int compare(Region r1, Region r2) {
+                int c = r1.chromosome.compareTo(r2.chromosome);
+                return c != 0 ? c : Long.compare(r1.start, r2.start);
+            }
+        });
+
+        List<Region> merged = new ArrayList<>(sorted.size());
+        Region current = null;
+        for (Region region : sorted) {
+            if (current != null && current.chromosome.equals(region.chromosome)
+                    && (current.end == Long.MAX_VALUE || region.start <= current.end + 1)) {
+                current = new Region(current.chromosome, current.start, Math.max(current.end, region.end));
+            } else {
+                if (current != null) {
+                    merged.add(current);
+                }
+                current = region;
+            }
+        }
+        if (current != null) {
+            merged.add(current);
+        }
+        return merged;
+    }
+
+    /**
+     * @param a Merged regions, as returned by {@link #merge(List)}
+     * @param b Merged regions, as returned by {@link #merge(List)}
+     * @return Merged regions with the positions covered by both lists
+     */
+    public static List<Region> intersect(List<Region> a, List<Region> b) {
+        List<Region> intersection = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < a.size() && j < b.size()) {
+            Region r1 = a.get(i);
+            Region r2 = b.get(j);
+            int c = r1.chromosome.compareTo(r2.chromosome);
+            if (c < 0) {
+                i++;
+            } else if (c > 0) {
+                j++;
+            } else {
+                long start = Math.max(r1.start, r2.start);
+                long end = Math.min(r1.end, r2.end);
+                if (start <= end) {
+                    intersection.add(new Region(r1.chromosome, start, end));
+                }
+                if (r1.end < r2.end) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+        }
+        return intersection;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Region)) {
+            return false;
+        }
+        Region region = (Region) o;
+        return start == region.start && end == region.end && chromosome.equals(region.chromosome);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = chromosome.hashCode();
+        result = 31 * result + (int) (start ^ (start >>> 32));
+        result = 31 * result + (int) (end ^ (end >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return chromosome + ":" + start + "-" + end;
+    }
+}
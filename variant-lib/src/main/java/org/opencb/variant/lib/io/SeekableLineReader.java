@@ -0,0 +1,173 @@
+package org.opencb.variant.lib.io;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a text file and can go back to any line it has read before.
+ * <p/>
+ * Offsets are byte offsets for plain files and BGZF virtual file pointers for block-compressed
+ * ones; in both cases they are only meaningful to a reader of the same file.
+ */
+abstract class SeekableLineReader implements Closeable {
+
+    /**
+     * @return Offset of the next line
+     */
+    abstract long getOffset();
+
+    abstract void seek(long offset) throws IOException;
+
+    /**
+     * @return The next line without its terminator, or null at the end of the file
+     */
+    abstract String readLine() throws IOException;
+
+    /**
+     * @param file Plain or BGZF-compressed file
+     * @return A reader for the file, or null if it is compressed with plain gzip, which does not
+     * allow seeking
+     * @throws IOException If the file cannot be opened
+     */
+    static SeekableLineReader open(File file) throws IOException {
+        if (isGzip(file)) {
+            if (!isBgzf(file)) {
+                return null;
+            }
+            return new Bgzf(file);
+        }
+        return new Plain(file);
+    }
+
+    static boolean isGzip(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    static boolean isBgzf(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return BlockCompressedInputStream.isValidFile(in);
+        }
+    }
+
+    private static class Bgzf extends SeekableLineReader {
+
+        private final BlockCompressedInputStream in;
+
+        private Bgzf(File file) throws IOException {
+            this.in = new BlockCompressedInputStream(file);
+            // Loads the first block, getFilePointer() fails before any block is read
+            this.in.seek(0);
+        }
+
+        @Override
+        long getOffset() {
+            return in.getFilePointer();
+        }
+
+        @Override
+        void seek(long offset) throws IOException {
+            in.seek(offset);
+        }
+
+        @Override
+        String readLine() throws IOException {
+            return in.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static class Plain extends SeekableLineReader {
+
+        private final RandomAccessFile file;
+        private final byte[] buffer = new byte[1 << 16];
+        private byte[] line = new byte[1 << 12];
+        private long bufferOffset;
+        private int bufferLength;
+        private int position;
+
+        private Plain(File file) throws IOException {
+            this.file = new RandomAccessFile(file, "r");
+        }
+
+        @Override
+        long getOffset() {
+            return bufferOffset + position;
+        }
+
+        @Override
+        void seek(long offset) throws IOException {
+            if (offset >= bufferOffset && offset <= bufferOffset + bufferLength) {
+                position = (int) (offset - bufferOffset);
+                return;
+            }
+            file.seek(offset);
+            bufferOffset = offset;
+            bufferLength = 0;
+            position = 0;
+        }
+
+        @Override
+        String readLine() throws IOException {
+            int length = 0;
+            while (true) {
+                if (position == bufferLength && !fill()) {
+                    return length == 0 ? null : decode(length);
+                }
+
+                int start = position;
+                while (position < bufferLength && buffer[position] != '\n') {
+                    position++;
+                }
+                length = append(start, position, length);
+
+                if (position < bufferLength) {
+                    position++;
+                    return decode(length);
+                }
+            }
+        }
+
+        private boolean fill() throws IOException {
+            bufferOffset += bufferLength;
+            position = 0;
+            bufferLength = Math.max(0, file.read(buffer));
+            return bufferLength > 0;
+        }
+
+        private int append(int from, int to, int length) {
+            int n = to - from;
+            if (length + n > line.length) {
+                line = Arrays.copyOf(line, Math.max(2 * line.length, length + n));
+            }
+            System.arraycopy(buffer, from, line, length, n);
+            return length + n;
+        }
+
+        private String decode(int length) {
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            return new String(line, 0, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package org.opencb.variant.lib.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sorts the records of a VCF by coordinate with a bounded amount of memory, so that the streaming
+ * gene-level filter, which needs the variants of every gene together, can run on unsorted input
+ * of any size.
+ * <p/>
+ * Records are read in runs of at most {@link #bufferSize(long)} bytes; every run is sorted in
+ * memory and spilled to a gzip-compressed temporary file, and the runs are then merged k at a time
+ * ({@link #MAX_FAN_IN}) into the output. Lines are not parsed beyond the chromosome and position.
+ * The sort is stable: records at the same position keep their input order. Chromosomes are
+ * ordered by number (ignoring a {@code chr} prefix) and then by name.
+ */
+public class VcfExternalSorter {
+
+    public static final long DEFAULT_BUFFER_SIZE = 256L << 20;
+    public static final int MAX_FAN_IN = 64;
+
+    /**
+     * Approximate heap used by a buffered record besides the characters of the line
+     */
+    private static final int RECORD_OVERHEAD = 96;
+
+    public static final Comparator<String> CHROMOSOME_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String c1, String c2) {
+            String name1 = c1.startsWith("chr") ? c1.substring(3) : c1;
+            String name2 = c2.startsWith("chr") ? c2.substring(3) : c2;
+            boolean numeric1 = isNumber(name1);
+            boolean numeric2 = isNumber(name2);
+            if (numeric1 && numeric2) {
+                int byNumber = Long.compare(Long.parseLong(name1), Long.parseLong(name2));
+                return byNumber != 0 ? byNumber : c1.compareTo(c2);
+            }
+            if (numeric1 != numeric2) {
+                return numeric1 ? -1 : 1;
+            }
+            int byName = name1.compareTo(name2);
+            return byName != 0 ? byName : c1.compareTo(c2);
+        }
+    };
+
+    private static final Comparator<Record> RECORD_ORDER = new Comparator<Record>() {
+        @Override
+        public int compare(Record r1, Record r2) {
+            int byChromosome = r1.chromosome.equals(r2.chromosome) ? 0 : CHROMOSOME_ORDER.compare(r1.chromosome, r2.chromosome);
+            return byChromosome != 0 ? byChromosome : Long.compare(r1.position, r2.position);
+        }
+    };
+
+    private long bufferSize = DEFAULT_BUFFER_SIZE;
+    private File tmpDir;
+    private int runs;
+
+    /**
+     * @param bufferSize Approximate heap, in bytes, taken by the records of a run
+     * @return This sorter
+     */
+    public VcfExternalSorter bufferSize(long bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * @param tmpDir Directory for the runs, by default the system temporary directory
+     * @return This sorter
+     */
+    public VcfExternalSorter tmpDir(File tmpDir) {
+        this.tmpDir = tmpDir;
+        return this;
+    }
+
+    /**
+     * @return Number of runs spilled by the last sort
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    /**
+     * @param input  VCF to sort, plain or gzip-compressed
+     * @param output Sorted VCF to write, uncompressed
+     * @return Number of records written
+     * @throws IOException If the input cannot be read or the output or the runs cannot be written
+     */
+    public long sort(File input, File output) throws IOException {
+        List<String> header = new ArrayList<>();
+        List<File> runFiles = new ArrayList<>();
+        try {
+            List<Record> buffer = spill(input, header, runFiles);
+
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8), 1 << 16)) {
+                for (String line : header) {
+                    writeLine(line, writer);
+                }
+                if (runFiles.isEmpty()) {
+                    // Everything fitted in memory
+                    for (Record record : buffer) {
+                        writeLine(record.line, writer);
+                    }
+                    return buffer.size();
+                }
+
+                while (runFiles.size() > MAX_FAN_IN) {
+                    List<File> group = new ArrayList<>(runFiles.subList(0, MAX_FAN_IN));
+                    runFiles.subList(0, MAX_FAN_IN).clear();
+                    File merged = newRunFile();
+                    // The merged run holds the earliest records, so it goes first to keep the sort stable
+                    runFiles.add(0, merged);
+                    try (Writer runWriter = runWriter(merged)) {
+                        merge(group, runWriter);
+                    }
+                    delete(group);
+                }
+                return merge(runFiles, writer);
+            }
+        } finally {
+            delete(runFiles);
+        }
+    }
+
+    /**
+     * Reads the input, spilling a sorted run every time the buffer is full.
+     *
+     * @return The sorted records of the last run, which are not spilled
+     */
+    private List<Record> spill(File input, List<String> header, List<File> runFiles) throws IOException {
+        runs = 0;
+        InputStream in = new FileInputStream(input);
+        if (SeekableLineReader.isGzip(input)) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+
+        List<Record> buffer = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            long buffered = 0;
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.startsWith("#")) {
+                    header.add(line);
+                    continue;
+                }
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                buffer.add(new Record(line, lineNumber));
+                buffered += RECORD_OVERHEAD + 2L * line.length();
+                if (buffered >= bufferSize) {
+                    writeRun(buffer, runFiles);
+                    buffered = 0;
+                }
+            }
+        }
+
+        if (runFiles.isEmpty()) {
+            Collections.sort(buffer, RECORD_ORDER);
+        } else if (!buffer.isEmpty()) {
+            writeRun(buffer, runFiles);
+        }
+        return buffer;
+    }
+
+    /**
+     * Sorts the buffer, writes it to a new run and clears it.
+     */
+    private void writeRun(List<Record> buffer, List<File> runFiles) throws IOException {
+        Collections.sort(buffer, RECORD_ORDER);
+        File run = newRunFile();
+        runFiles.add(run);
+        try (Writer writer = runWriter(run)) {
+            for (Record record : buffer) {
+                writeLine(record.line, writer);
+            }
+        }
+        buffer.clear();
+    }
+
+    private long merge(List<File> runFiles, Writer writer) throws IOException {
+        List<RunReader> readers = new ArrayList<>(runFiles.size());
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runFiles.size()), new Comparator<RunReader>() {
+            @Override
+            public int compare(RunReader r1, RunReader r2) {
+                int byRecord = RECORD_ORDER.compare(r1.record, r2.record);
+                // Earlier runs hold earlier records of the input
+                return byRecord != 0 ? byRecord : Integer.compare(r1.index, r2.index);
+            }
+        });
+
+        long count = 0;
+        try {
+            for (File runFile : runFiles) {
+                RunReader reader = new RunReader(runFile, readers.size());
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                writeLine(reader.record.line, writer);
+                count++;
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+        return count;
+    }
+
+    private File newRunFile() throws IOException {
+        runs++;
+        return File.createTempFile("vcf-sort-", ".run.gz", tmpDir);
+    }
+
+    private static Writer runWriter(File run) throws IOException {
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(run), 1 << 16) {
+            {
+                // Runs are read once, compression speed matters more than size
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static void delete(List<File> files) {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private static void writeLine(String line, Writer writer) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    private static boolean isNumber(String name) {
+        if (name.isEmpty() || name.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Record {
+        private final String line;
+        private final String chromosome;
+        private final long position;
+
+        /**
+         * @param lineNumber Line of the input, 0 for the lines of a run, which were read before
+         */
+        private Record(String line, long lineNumber) throws IOException {
+            this.line = line;
+            int tab = line.indexOf('\t');
+            int nextTab = line.indexOf('\t', tab + 1);
+            try {
+                this.chromosome = line.substring(0, tab);
+                this.position = Long.parseLong(line.substring(tab + 1, nextTab < 0 ? line.length() : nextTab));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                throw new IOException("Malformed VCF record" + (lineNumber > 0 ? " at line " + lineNumber : "")
+                        + ", expected CHROM and a numeric POS: " + (line.length() > 100 ? line.substring(0, 100) + "..." : line));
+            }
+        }
+    }
+
+    private static class RunReader {
+        private final BufferedReader reader;
+        private final int index;
+        private Record record;
+
+        private RunReader(File run, int index) throws IOException {
+            this.reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(run), 1 << 16), StandardCharsets.UTF_8), 1 << 16);
+            this.index = index;
+        }
+
+        private boolean next() throws IOException {
+            String line = reader.readLine();
+            record = line == null ? null : new Record(line, 0);
+            return record != null;
+        }
+
+        private void close() throws IOException {
+            reader.close();
+        }
+    }
+}
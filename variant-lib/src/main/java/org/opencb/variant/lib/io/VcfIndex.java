@@ -0,0 +1,192 @@
+package org.opencb.variant.lib.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Linear index of a coordinate-sorted VCF, plain or BGZF-compressed.
+ * <p/>
+ * The genome is divided in bins of {@link #BIN_SIZE} bp, and for every bin the index keeps the
+ * offset of the first record at or after the start of the bin. A region query seeks to the bin of
+ * its start and reads forward until the records pass its end, so only the records of the region
+ * (plus part of one bin) are read.
+ * <p/>
+ * The index is built with one pass over the raw lines and saved next to the VCF with the
+ * {@code .vidx} extension, so only the first query of a file pays for it. It is rebuilt when the
+ * VCF changes.
+ */
+public class VcfIndex {
+
+    public static final String EXTENSION = ".vidx";
+    public static final int BIN_SIZE = 1 << 14;
+    private static final int MAGIC = 0x56494458; // VIDX
+    private static final int VERSION = 1;
+
+    private final Map<String, long[]> offsets;
+
+    private VcfIndex(Map<String, long[]> offsets) {
+        this.offsets = offsets;
+    }
+
+    /**
+     * @param vcfFile Coordinate-sorted VCF, plain or BGZF-compressed
+     * @return The saved index of the file, or a new one if there is none or it is older than the
+     * file; null if the file is not sorted or is compressed with plain gzip
+     * @throws IOException If the file cannot be read
+     */
+    public static VcfIndex load(File vcfFile) throws IOException {
+        File indexFile = new File(vcfFile.getPath() + EXTENSION);
+        if (indexFile.isFile() && indexFile.lastModified() >= vcfFile.lastModified()) {
+            try {
+                VcfIndex index = read(indexFile, vcfFile.length());
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException e) {
+                // Truncated or corrupt, build it again
+            }
+        }
+
+        try (SeekableLineReader reader = SeekableLineReader.open(vcfFile)) {
+            if (reader == null) {
+                return null;
+            }
+            VcfIndex index = build(reader);
+            if (index != null) {
+                try {
+                    index.write(indexFile, vcfFile.length());
+                } catch (IOException e) {
+                    System.out.println("Could not save the index " + indexFile + ": " + e.getMessage());
+                }
+            }
+            return index;
+        }
+    }
+
+    static VcfIndex build(SeekableLineReader reader) throws IOException {
+        Map<String, long[]> offsets = new LinkedHashMap<>();
+
+        String chromosome = null;
+        long[] bins = null;
+        int filledBins = 0;
+        long lastPosition = 0;
+
+        long offset = reader.getOffset();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                offset = reader.getOffset();
+                continue;
+            }
+
+            int tab = line.indexOf('\t');
+            int end = line.indexOf('\t', tab + 1);
+            String lineChromosome = line.substring(0, tab);
+            long position = Long.parseLong(line.substring(tab + 1, end));
+
+            if (!lineChromosome.equals(chromosome)) {
+                if (chromosome != null) {
+                    offsets.put(chromosome, Arrays.copyOf(bins, filledBins));
+                }
+                if (offsets.containsKey(lineChromosome)) {
+                    return null;
+                }
+                chromosome = lineChromosome;
+                bins = new long[64];
+                filledBins = 0;
+                lastPosition = 0;
+            } else if (position < lastPosition) {
+                return null;
+            }
+            lastPosition = position;
+
+            // Every bin up to this one without records of its own starts at this record
+            int bin = (int) ((position - 1) / BIN_SIZE);
+            if (bin >= filledBins) {
+                if (bin >= bins.length) {
+                    bins = Arrays.copyOf(bins, Math.max(2 * bins.length, bin + 1));
+                }
+                Arrays.fill(bins, filledBins, bin + 1, offset);
+                filledBins = bin + 1;
+            }
+
+            offset = reader.getOffset();
+        }
+
+        if (chromosome != null) {
+            offsets.put(chromosome, Arrays.copyOf(bins, filledBins));
+        }
+        return new VcfIndex(offsets);
+    }
+
+    /**
+     * @return The chromosomes of the VCF, in file order
+     */
+    public List<String> getChromosomes() {
+        return new ArrayList<>(offsets.keySet());
+    }
+
+    /**
+     * @param chromosome Chromosome
+     * @param position   1-based position
+     * @return Offset from which the records of the chromosome at or after the position can be
+     * read, or -1 if there are none
+     */
+    public long getOffset(String chromosome, long position) {
+        long[] bins = offsets.get(chromosome);
+        if (bins == null) {
+            return -1;
+        }
+        long bin = Math.max(0, (position - 1) / BIN_SIZE);
+        return bin < bins.length ? bins[(int) bin] : -1;
+    }
+
+    private void write(File indexFile, long vcfLength) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(vcfLength);
+            out.writeInt(BIN_SIZE);
+            out.writeInt(offsets.size());
+            for (Map.Entry<String, long[]> entry : offsets.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                for (long offset : entry.getValue()) {
+                    out.writeLong(offset);
+                }
+            }
+        }
+    }
+
+    private static VcfIndex read(File indexFile, long vcfLength) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != vcfLength
+                    || in.readInt() != BIN_SIZE) {
+                return null;
+            }
+
+            int chromosomes = in.readInt();
+            Map<String, long[]> offsets = new LinkedHashMap<>();
+            for (int c = 0; c < chromosomes; c++) {
+                String chromosome = in.readUTF();
+                long[] bins = new long[in.readInt()];
+                for (int b = 0; b < bins.length; b++) {
+                    bins[b] = in.readLong();
+                }
+                offsets.put(chromosome, bins);
+            }
+            return new VcfIndex(offsets);
+        }
+    }
+}
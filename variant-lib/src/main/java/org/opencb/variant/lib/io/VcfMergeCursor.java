@@ -0,0 +1,161 @@
+package org.opencb.variant.lib.io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Forward-only cursor over a coordinate-sorted VCF, for joining it with another sorted stream of
+ * variants: every call to {@link #get(String, long)} only reads the lines between the previous
+ * position and the new one, so the whole file is read once and nothing but the records of the
+ * current position is held in memory.
+ * <p/>
+ * The chromosomes do not need to be in the same order in both streams. A chromosome not reached
+ * yet is looked for forwards, and asking for one already passed (or for a position before the
+ * current one) reopens the file, which is only slow, never wrong. Chromosomes missing from the
+ * file cost a read to the end the first time they are asked for.
+ */
+public class VcfMergeCursor implements Closeable {
+
+    private final File file;
+    private BufferedReader reader;
+    private long reopened;
+
+    /**
+     * Chromosomes already left behind by the cursor
+     */
+    private final Set<String> passed = new HashSet<>();
+
+    /**
+     * Chromosomes found in the file so far, all of them once it has been read to the end
+     */
+    private final Set<String> seen = new HashSet<>();
+    private boolean complete;
+
+    /**
+     * First line not consumed yet, or null at the end of the file
+     */
+    private String next;
+    private String nextChromosome;
+    private long nextPosition;
+
+    private String chromosome;
+    private long position;
+    private final List<String> current = new ArrayList<>();
+
+    public VcfMergeCursor(File file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    private void open() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+        InputStream in = new FileInputStream(file);
+        if (SeekableLineReader.isGzip(file)) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        passed.clear();
+        nextChromosome = null;
+        chromosome = null;
+        position = 0;
+        current.clear();
+        advance();
+    }
+
+    /**
+     * @return The records at the position, possibly empty; the list is reused by the next call
+     * @throws IOException If the file cannot be read
+     */
+    public List<String> get(String chromosome, long position) throws IOException {
+        if (chromosome.equals(this.chromosome) && position == this.position) {
+            return current;
+        }
+        current.clear();
+        if (complete && !seen.contains(chromosome)) {
+            // Not in the file at all
+            return current;
+        }
+        if (chromosome.equals(this.chromosome) && position >= this.position && passed.contains(chromosome)) {
+            // Further along a chromosome whose last record is behind
+            this.position = position;
+            return current;
+        }
+        if (passed.contains(chromosome) || (chromosome.equals(this.chromosome) && position < this.position)) {
+            reopened++;
+            open();
+        }
+
+        this.chromosome = chromosome;
+        this.position = position;
+        while (next != null) {
+            if (nextChromosome.equals(chromosome)) {
+                if (nextPosition > position) {
+                    break;
+                }
+                if (nextPosition == position) {
+                    current.add(next);
+                }
+                advance();
+            } else if (passed.contains(chromosome)) {
+                // Past the records of the chromosome
+                break;
+            } else {
+                // Another chromosome before this one
+                advance();
+            }
+        }
+        return current;
+    }
+
+    private void advance() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+        } while (line != null && (line.isEmpty() || line.startsWith("#")));
+
+        next = line;
+        if (line == null) {
+            complete = true;
+            if (nextChromosome != null) {
+                passed.add(nextChromosome);
+            }
+            return;
+        }
+        int tab = line.indexOf('\t');
+        int nextTab = line.indexOf('\t', tab + 1);
+        String lineChromosome = line.substring(0, tab);
+        if (!lineChromosome.equals(nextChromosome)) {
+            if (nextChromosome != null) {
+                passed.add(nextChromosome);
+            }
+            seen.add(lineChromosome);
+            nextChromosome = lineChromosome;
+        }
+        nextPosition = Long.parseLong(line.substring(tab + 1, nextTab < 0 ? line.length() : nextTab));
+    }
+
+    /**
+     * @return Number of times the file had to be read again from the start
+     */
+    public long getReopened() {
+        return reopened;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
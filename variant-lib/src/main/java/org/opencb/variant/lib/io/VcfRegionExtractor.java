@@ -0,0 +1,196 @@
+package org.opencb.variant.lib.io;
+
+import org.broad.tribble.readers.TabixReader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Copies the header and the records inside a set of regions of a VCF into a new, smaller VCF,
+ * reading as little of the input as possible.
+ * <p/>
+ * Block-compressed files with a tabix index ({@code .tbi}) are queried through the tabix index.
+ * Any other sorted file, plain or block-compressed, gets a {@link VcfIndex} on first use. Only
+ * files that cannot be indexed (unsorted, or compressed with plain gzip) are scanned from start to
+ * end, and even then the records are not parsed.
+ * <p/>
+ * Overlapping regions are merged first, so every record is written once, and records are written
+ * in input order.
+ */
+public class VcfRegionExtractor {
+
+    private final File vcfFile;
+
+    public VcfRegionExtractor(File vcfFile) {
+        this.vcfFile = vcfFile;
+    }
+
+    /**
+     * @param regions Regions to extract, in any order
+     * @param output  VCF to write
+     * @return Number of records written
+     * @throws IOException If the input cannot be read or the output cannot be written
+     */
+    public long extract(List<Region> regions, File output) throws IOException {
+        List<Region> merged = Region.merge(regions);
+        Map<String, List<Region>> byChromosome = groupByChromosome(merged);
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8), 1 << 16)) {
+            if (new File(vcfFile.getPath() + ".tbi").isFile() && SeekableLineReader.isBgzf(vcfFile)) {
+                return extractTabix(byChromosome, writer);
+            }
+
+            VcfIndex index = VcfIndex.load(vcfFile);
+            if (index != null) {
+                return extractIndexed(index, byChromosome, writer);
+            }
+
+            System.out.println(vcfFile + " is not sorted or not block-compressed, scanning the whole file");
+            return extractScan(new IntervalSet(merged).sweep(true), writer);
+        }
+    }
+
+    private long extractTabix(Map<String, List<Region>> byChromosome, Writer writer) throws IOException {
+        final TabixReader reader = new TabixReader(vcfFile.getPath());
+        try {
+            String line;
+            while ((line = reader.readLine()) != null && line.startsWith("#")) {
+                writeLine(line, writer);
+            }
+
+            List<String> chromosomes = new ArrayList<>(reader.mChr2tid.keySet());
+            Collections.sort(chromosomes, new Comparator<String>() {
+                @Override
+                public int compare(String c1, String c2) {
+                    return reader.mChr2tid.get(c1).compareTo(reader.mChr2tid.get(c2));
+                }
+            });
+
+            long count = 0;
+            for (String chromosome : chromosomes) {
+                List<Region> regions = byChromosome.get(chromosome);
+                if (regions == null) {
+                    continue;
+                }
+                int tid = reader.mChr2tid.get(chromosome);
+                for (Region region : regions) {
+                    TabixReader.Iterator records = reader.query(tid, (int) Math.min(region.getStart() - 1, Integer.MAX_VALUE),
+                            (int) Math.min(region.getEnd(), Integer.MAX_VALUE));
+                    // Tabix returns the records overlapping the region, keep those starting in it
+                    while (records != null && (line = records.next()) != null) {
+                        if (region.getStart() <= position(line)) {
+                            writeLine(line, writer);
+                            count++;
+                        }
+                    }
+                }
+            }
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private long extractIndexed(VcfIndex index, Map<String, List<Region>> byChromosome, Writer writer) throws IOException {
+        try (SeekableLineReader reader = SeekableLineReader.open(vcfFile)) {
+            String line;
+            while ((line = reader.readLine()) != null && line.startsWith("#")) {
+                writeLine(line, writer);
+            }
+
+            long count = 0;
+            for (String chromosome : index.getChromosomes()) {
+                List<Region> regions = byChromosome.get(chromosome);
+                if (regions == null) {
+                    continue;
+                }
+                String prefix = chromosome + "\t";
+                for (Region region : regions) {
+                    long offset = index.getOffset(chromosome, region.getStart());
+                    if (offset < 0) {
+                        break;
+                    }
+
+                    reader.seek(offset);
+                    while ((line = reader.readLine()) != null && line.startsWith(prefix)) {
+                        long position = position(line);
+                        if (position > region.getEnd()) {
+                            break;
+                        }
+                        if (position >= region.getStart()) {
+                            writeLine(line, writer);
+                            count++;
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    private long extractScan(IntervalSet intervals, Writer writer) throws IOException {
+        InputStream in = new FileInputStream(vcfFile);
+        if (SeekableLineReader.isGzip(vcfFile)) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+
+        long count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    writeLine(line, writer);
+                    continue;
+                }
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                if (intervals.contains(line.substring(0, line.indexOf('\t')), position(line))) {
+                    writeLine(line, writer);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static Map<String, List<Region>> groupByChromosome(List<Region> merged) {
+        Map<String, List<Region>> byChromosome = new LinkedHashMap<>();
+        for (Region region : merged) {
+            List<Region> regions = byChromosome.get(region.getChromosome());
+            if (regions == null) {
+                regions = new ArrayList<>();
+                byChromosome.put(region.getChromosome(), regions);
+            }
+            regions.add(region);
+        }
+        return byChromosome;
+    }
+
+    private static long position(String line) {
+        int tab = line.indexOf('\t');
+        return Long.parseLong(line.substring(tab + 1, line.indexOf('\t', tab + 1)));
+    }
+
+    private static void writeLine(String line, Writer writer) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+}
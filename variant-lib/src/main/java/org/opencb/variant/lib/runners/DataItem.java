@@ -0,0 +1,29 @@
+package org.opencb.variant.lib.runners;
+
+/**
+ * A batch tagged with its position in the input, so it can be re-sequenced after being
+ * processed out of order.
+ */
+public class DataItem<T> implements Comparable<DataItem<T>> {
+
+    private final int tokenId;
+    private final T data;
+
+    public DataItem(int tokenId, T data) {
+        this.tokenId = tokenId;
+        this.data = data;
+    }
+
+    public int getTokenId() {
+        return tokenId;
+    }
+
+    public T getData() {
+        return data;
+    }
+
+    @Override
+    public int compareTo(DataItem<T> o) {
+        return Integer.compare(tokenId, o.tokenId);
+    }
+}
@@ -0,0 +1,323 @@
+package org.opencb.variant.lib.runners;
+
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+import org.opencb.commons.run.Task;
+import org.opencb.variant.lib.runners.metrics.InstrumentedTask;
+import org.opencb.variant.lib.runners.metrics.RunnerMetrics;
+import org.opencb.variant.lib.runners.tasks.ParallelTask;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a task chain over the batches of a reader using several threads, keeping the output in
+ * input order.
+ * <p/>
+ * A reader thread numbers every batch, a pool of workers applies the leading {@link ParallelTask}s
+ * of the chain, and a sequencer hands the batches back in input order to the remaining tasks and
+ * to the writers. Tasks after the first non-parallel one therefore see the same batches, in the
+ * same order, as in a sequential run.
+ * <p/>
+ * Reading, task processing and writing are connected by bounded queues, and at most
+ * {@code maxInFlight} batches are alive at any time (queued, being processed or waiting to be
+ * re-sequenced). When tasks or writers fall behind, the reader blocks instead of parsing more
+ * batches, so memory stays bounded however slow the downstream stages are. Use
+ * {@link #getStages()} to see where the time goes.
+ * <p/>
+ * The engine does not open, close or call pre/post on the reader, the writers or the tasks: that
+ * is left to the runner that owns them. Tasks that keep results of the last batch can find out
+ * where the batch they are given comes in the input with {@link #currentBatch()}.
+ */
+public class ParallelTaskEngine<T> {
+
+    private static final ThreadLocal<Integer> currentBatch = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return -1;
+        }
+    };
+
+    private final DataReader<T> reader;
+    private final List<? extends DataWriter<T>> writers;
+    private final List<Task<T>> parallelTasks;
+    private final List<Task<T>> orderedTasks;
+    private final int batchSize;
+    private final int numThreads;
+    private final int maxInFlight;
+
+    private final DataItem<List<T>> end = new DataItem<>(-1, null);
+    private final BlockingQueue<DataItem<List<T>>> readQueue;
+    private final BlockingQueue<DataItem<List<T>>> writeQueue;
+    private final Semaphore inFlight;
+    private final AtomicReference<Throwable> error;
+
+    private final StageStats readerStats;
+    private final StageStats workerStats;
+    private final StageStats writerStats;
+    private RunnerMetrics metrics;
+
+    public ParallelTaskEngine(DataReader<T> reader, List<? extends DataWriter<T>> writers, List<Task<T>> tasks,
+                              int batchSize, int numThreads) {
+        this(reader, writers, tasks, batchSize, numThreads, 0);
+    }
+
+    /**
+     * @param maxInFlight Maximum number of batches alive at the same time, 0 for twice the
+     *                    number of threads
+     */
+    public ParallelTaskEngine(DataReader<T> reader, List<? extends DataWriter<T>> writers, List<Task<T>> tasks,
+                              int batchSize, int numThreads, int maxInFlight) {
+        this.reader = reader;
+        this.writers = writers;
+        this.batchSize = batchSize;
+        this.numThreads = Math.max(1, numThreads);
+        this.maxInFlight = maxInFlight > 0 ? maxInFlight : 2 * this.numThreads;
+        this.parallelTasks = new ArrayList<>();
+        this.orderedTasks = new ArrayList<>();
+        // Room for the end markers too, so they never block behind a full queue
+        this.readQueue = new ArrayBlockingQueue<>(this.maxInFlight + this.numThreads);
+        this.writeQueue = new ArrayBlockingQueue<>(this.maxInFlight + this.numThreads);
+        this.inFlight = new Semaphore(this.maxInFlight);
+        this.error = new AtomicReference<>();
+
+        this.readerStats = new StageStats("reader", null);
+        this.workerStats = new StageStats("tasks", readQueue);
+        this.writerStats = new StageStats("writers", writeQueue);
+
+        for (Task<T> task : tasks) {
+            if (orderedTasks.isEmpty() && isParallel(task)) {
+                parallelTasks.add(task);
+            } else {
+                orderedTasks.add(task);
+            }
+        }
+    }
+
+    /**
+     * @param task Task to check
+     * @return Whether the task can be applied to several batches at the same time
+     */
+    public static boolean isParallel(Task<?> task) {
+        if (task instanceof InstrumentedTask) {
+            return isParallel(((InstrumentedTask<?>) task).getTask());
+        }
+        return task instanceof ParallelTask;
+    }
+
+    /**
+     * @return Position in the input, from 0, of the batch the tasks are being applied to in the
+     * calling thread, or -1 outside of an engine
+     */
+    public static int currentBatch() {
+        return currentBatch.get();
+    }
+
+    /**
+     * @param metrics Where to record the reader parse time and the writer flush time
+     * @return This engine
+     */
+    public ParallelTaskEngine<T> metrics(RunnerMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public List<Task<T>> getParallelTasks() {
+        return parallelTasks;
+    }
+
+    public List<Task<T>> getOrderedTasks() {
+        return orderedTasks;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return Statistics of the reader, task and writer stages, in pipeline order
+     */
+    public List<StageStats> getStages() {
+        return Arrays.asList(readerStats, workerStats, writerStats);
+    }
+
+    public void run() throws IOException {
+        ExecutorService threadPool = Executors.newFixedThreadPool(numThreads + 1);
+
+        try {
+            threadPool.execute(new Reader());
+            for (int i = 0; i < numThreads; i++) {
+                threadPool.execute(new Worker());
+            }
+            new Sequencer().run();
+        } finally {
+            threadPool.shutdownNow();
+            try {
+                threadPool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Throwable t = error.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t != null) {
+            throw new IOException(t);
+        }
+    }
+
+    private boolean failed() {
+        return error.get() != null;
+    }
+
+    private void fail(Throwable t) {
+        error.compareAndSet(null, t);
+    }
+
+    private class Reader implements Runnable {
+
+        @Override
+        public void run() {
+            int count = 0;
+            try {
+                while (!failed()) {
+                    long start = System.nanoTime();
+                    inFlight.acquire();
+                    long read = System.nanoTime();
+                    readerStats.addStall(read - start);
+
+                    List<T> batch = reader.read(batchSize);
+                    long readTime = System.nanoTime() - read;
+                    readerStats.addBusy(readTime);
+                    if (batch == null || batch.isEmpty()) {
+                        inFlight.release();
+                        break;
+                    }
+
+                    if (metrics != null) {
+                        metrics.recordRead(batch.size(), readTime);
+                    }
+
+                    // Cannot block: the permit guarantees there is room in the queue
+                    readQueue.add(new DataItem<>(count++, batch));
+                    workerStats.sampleQueueDepth(0);
+                }
+            } catch (InterruptedException | RuntimeException e) {
+                fail(e);
+            } finally {
+                for (int i = 0; i < numThreads; i++) {
+                    readQueue.add(end);
+                }
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                DataItem<List<T>> item = take(readQueue, workerStats);
+                while (item != end) {
+                    if (!failed()) {
+                        long start = System.nanoTime();
+                        currentBatch.set(item.getTokenId());
+                        try {
+                            for (Task<T> task : parallelTasks) {
+                                task.apply(item.getData());
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            fail(e);
+                        } finally {
+                            currentBatch.remove();
+                        }
+                        workerStats.addBusy(System.nanoTime() - start);
+                    }
+                    // Failed batches are forwarded too, the sequencer gives their permits back
+                    writeQueue.add(item);
+                    writerStats.sampleQueueDepth(0);
+                    item = take(readQueue, workerStats);
+                }
+            } catch (InterruptedException e) {
+                fail(e);
+            } finally {
+                writeQueue.add(end);
+            }
+        }
+    }
+
+    private class Sequencer {
+
+        public void run() {
+            PriorityQueue<DataItem<List<T>>> pending = new PriorityQueue<>();
+            int nextToken = 0;
+            int finishedWorkers = 0;
+
+            try {
+                while (finishedWorkers < numThreads) {
+                    DataItem<List<T>> item = take(writeQueue, writerStats);
+                    if (item == end) {
+                        finishedWorkers++;
+                        continue;
+                    }
+
+                    pending.add(item);
+                    writerStats.sampleQueueDepth(pending.size());
+                    while (!pending.isEmpty() && (failed() || pending.peek().getTokenId() == nextToken)) {
+                        write(pending.poll());
+                        nextToken++;
+                    }
+                }
+            } catch (InterruptedException e) {
+                fail(e);
+            }
+        }
+
+        private void write(DataItem<List<T>> item) {
+            List<T> batch = item.getData();
+            long start = System.nanoTime();
+            currentBatch.set(item.getTokenId());
+            try {
+                if (!failed()) {
+                    for (Task<T> task : orderedTasks) {
+                        task.apply(batch);
+                    }
+                    long write = System.nanoTime();
+                    for (DataWriter<T> writer : writers) {
+                        writer.write(batch);
+                    }
+                    if (metrics != null) {
+                        metrics.recordWrite(System.nanoTime() - write);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            } finally {
+                currentBatch.remove();
+                batch.clear();
+                inFlight.release();
+                writerStats.addBusy(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private DataItem<List<T>> take(BlockingQueue<DataItem<List<T>>> queue, StageStats stats) throws InterruptedException {
+        long start = System.nanoTime();
+        DataItem<List<T>> item = queue.take();
+        stats.addStall(System.nanoTime() - start);
+        return item;
+    }
+}
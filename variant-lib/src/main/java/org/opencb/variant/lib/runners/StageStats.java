@@ -0,0 +1,89 @@
+package org.opencb.variant.lib.runners;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of one stage of the {@link ParallelTaskEngine} pipeline.
+ * <p/>
+ * The stall time is the time the stage spent blocked, either waiting for input or waiting for
+ * room downstream. A reader that stalls a lot is being throttled by slower tasks or writers,
+ * while workers that stall on an empty input queue are waiting for the reader.
+ */
+public class StageStats {
+
+    private final String name;
+    private final Collection<?> queue;
+    private final AtomicLong batches;
+    private final AtomicLong busyTime;
+    private final AtomicLong stallTime;
+    private final AtomicLong maxQueueDepth;
+
+    public StageStats(String name, Collection<?> queue) {
+        this.name = name;
+        this.queue = queue;
+        this.batches = new AtomicLong();
+        this.busyTime = new AtomicLong();
+        this.stallTime = new AtomicLong();
+        this.maxQueueDepth = new AtomicLong();
+    }
+
+    void addBusy(long nanos) {
+        batches.incrementAndGet();
+        busyTime.addAndGet(nanos);
+    }
+
+    void addStall(long nanos) {
+        stallTime.addAndGet(nanos);
+    }
+
+    void sampleQueueDepth(int extra) {
+        long depth = getQueueDepth() + extra;
+        long max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Batches currently waiting at the input of this stage
+     */
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return Time spent working, in nanoseconds, added up over all the threads of the stage
+     */
+    public long getBusyTime() {
+        return busyTime.get();
+    }
+
+    /**
+     * @return Time spent blocked, in nanoseconds, added up over all the threads of the stage
+     */
+    public long getStallTime() {
+        return stallTime.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + "{batches=" + getBatches()
+                + ", busy=" + busyTime.get() / 1000000 + "ms"
+                + ", stalled=" + stallTime.get() / 1000000 + "ms"
+                + ", queue=" + getQueueDepth()
+                + ", maxQueue=" + maxQueueDepth.get() + "}";
+    }
+}
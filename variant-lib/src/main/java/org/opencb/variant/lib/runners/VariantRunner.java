@@ -1,13 +1,18 @@
 package org.opencb.variant.lib.runners;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import org.opencb.commons.bioformats.pedigree.io.readers.PedigreeReader;
 import org.opencb.commons.bioformats.variant.Variant;
 import org.opencb.commons.bioformats.variant.VariantStudy;
 import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantReader;
 import org.opencb.commons.bioformats.variant.vcf4.io.writers.VariantWriter;
+import org.opencb.commons.io.DataWriter;
 import org.opencb.commons.run.Runner;
 import org.opencb.commons.run.Task;
+import org.opencb.variant.lib.runners.metrics.RunnerMetrics;
 /**
  * @author Alejandro Aleman Ramos <aaleman@cipf.es>
  * @author Cristina Yenyxe Gonzalez Garcia <cgonzalez@cipf.es>
@@ -15,6 +20,12 @@ import org.opencb.commons.run.Task;
 public class VariantRunner extends Runner<Variant> {
 
     protected VariantStudy study;
+    protected int numThreads = 1;
+    protected int maxInFlight = 0;
+    protected List<StageStats> stageStats = Collections.emptyList();
+    protected String name = "variant";
+    protected RunnerMetrics metrics;
+    protected File metricsFile;
 
     public VariantRunner(VariantStudy study, VariantReader reader, PedigreeReader pedReader, List<VariantWriter> writer, List<Task<Variant>> tasks) {
         super(reader, writer, tasks);
@@ -38,6 +49,145 @@ public class VariantRunner extends Runner<Variant> {
         this.study = study;
     }
 
+    /**
+     * Process the batches with several threads. Output order and the results of stateful tasks
+     * are the same as in a sequential run (see {@link ParallelTaskEngine}).
+     *
+     * @param numThreads Number of worker threads, 1 for a sequential run
+     * @return This runner
+     */
+    public VariantRunner parallel(int numThreads) {
+        this.numThreads = numThreads;
+        return this;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Run reading, tasks and writing as separate stages with at most {@code maxInFlight} batches
+     * in memory, even with a single worker thread. Slow tasks or writers then throttle the reader.
+     *
+     * @param maxInFlight Maximum number of batches alive at the same time
+     * @return This runner
+     */
+    public VariantRunner pipeline(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return Statistics of the reader, tasks and writers stages of the last pipelined run, or an
+     * empty list for sequential runs
+     */
+    public List<StageStats> getStageStats() {
+        return stageStats;
+    }
+
+    /**
+     * @param name Name of the run in the metrics, which tells apart runners working at the same time
+     * @return This runner
+     */
+    public VariantRunner name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    /**
+     * @param metricsFile File where a JSON summary of the run performance is written when it
+     *                    finishes, or null to skip it
+     * @return This runner
+     */
+    public VariantRunner metricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+        return this;
+    }
+
+    /**
+     * @return Performance metrics of the current or last run
+     */
+    public RunnerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Run the tasks over the whole input. Whatever happens, the tasks that were started are
+     * finished with {@code post()}, which also stops their thread pools, the reader and the
+     * writers are closed and the metrics are unregistered, so the runner can be run again.
+     */
+    @Override
+    public void run() throws IOException {
+        metrics = new RunnerMetrics(name);
+        List<Task<Variant>> measuredTasks = metrics.instrument(tasks);
+        metrics.register();
+        int started = 0;
+        try {
+            metrics.start();
+
+            readerInit();
+            writerInit();
+
+            for (Task<Variant> task : measuredTasks) {
+                task.pre();
+                started++;
+            }
+
+            if (numThreads <= 1 && maxInFlight <= 0) {
+                runSequential(measuredTasks);
+            } else {
+                ParallelTaskEngine<Variant> engine = new ParallelTaskEngine<>(reader, writers, measuredTasks, batchSize, numThreads, maxInFlight);
+                stageStats = engine.getStages();
+                engine.metrics(metrics).run();
+            }
+        } finally {
+            try {
+                for (Task<Variant> task : measuredTasks.subList(0, started)) {
+                    task.post();
+                }
+                metrics.stop();
+            } finally {
+                try {
+                    readerClose();
+                    writerClose();
+                } finally {
+                    metrics.unregister();
+                }
+            }
+        }
+
+        if (metricsFile != null) {
+            metrics.writeJson(metricsFile);
+        }
+    }
+
+    private void runSequential(List<Task<Variant>> measuredTasks) throws IOException {
+        long start = System.nanoTime();
+        List<Variant> batch = reader.read(batchSize);
+        metrics.recordRead(batch.size(), System.nanoTime() - start);
+
+        while (!batch.isEmpty()) {
+            for (Task<Variant> task : measuredTasks) {
+                task.apply(batch);
+            }
+
+            start = System.nanoTime();
+            for (DataWriter<Variant> writer : writers) {
+                writer.write(batch);
+            }
+            metrics.recordWrite(System.nanoTime() - start);
+
+            batch.clear();
+            start = System.nanoTime();
+            batch = reader.read(batchSize);
+            metrics.recordRead(batch.size(), System.nanoTime() - start);
+        }
+    }
+
     @Override
     protected void readerInit() {
         super.readerInit();
@@ -0,0 +1,362 @@
+package org.opencb.variant.lib.runners;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.VariantStudy;
+import org.opencb.commons.bioformats.variant.utils.stats.VariantStatsWrapper;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantReader;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantVcfReader;
+import org.opencb.commons.bioformats.variant.vcf4.io.writers.VariantVcfDataWriter;
+import org.opencb.commons.bioformats.variant.vcf4.io.writers.VariantWriter;
+import org.opencb.commons.run.Task;
+import org.opencb.variant.lib.runners.metrics.RunnerMetrics;
+import org.opencb.variant.lib.runners.tasks.VariantStatsTask;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Processes a coordinate-sorted VCF as independent shards, one per contig or per fixed genomic
+ * window, and merges the results.
+ * <p/>
+ * The input is split in a single pass over the raw lines (nothing is parsed apart from the
+ * chromosome and, for windows, the position). Each shard then runs its own {@link VariantRunner}
+ * with a fresh set of tasks, several shards at a time, and the shard outputs are concatenated in
+ * shard order into a single VCF, which keeps the input order. Statistics computed by
+ * {@link VariantStatsTask}s in the shards are combined into the study, and the performance metrics
+ * of every shard are written together to {@link #metricsFile(File)}.
+ * <p/>
+ * The input must be sorted: a contig or window that comes back after another one fails the run
+ * rather than producing unsorted output. Windows are at least {@link #MIN_WINDOW_SIZE} bp, since
+ * every shard costs a temporary file and a runner of its own.
+ */
+public class VariantShardedRunner {
+
+    /**
+     * Creates the tasks of each shard. Tasks keep state, so every shard needs its own instances.
+     */
+    public interface TaskFactory {
+        List<Task<Variant>> createTasks(VariantReader reader, VariantStudy study);
+    }
+
+    public static final int MIN_WINDOW_SIZE = 100000;
+
+    private final VariantStudy study;
+    private final String inputFile;
+    private final String outputFile;
+    private final TaskFactory taskFactory;
+    private int windowSize = 0;
+    private int numThreads = 1;
+    private File tmpDir;
+    private File metricsFile;
+    private VariantStatsWrapper stats;
+
+    public VariantShardedRunner(VariantStudy study, String inputFile, String outputFile, TaskFactory taskFactory) {
+        this.study = study;
+        this.inputFile = inputFile;
+        this.outputFile = outputFile;
+        this.taskFactory = taskFactory;
+    }
+
+    /**
+     * @param windowSize Size in bp of the shards, 0 for one shard per contig
+     * @return This runner
+     * @throws IllegalArgumentException If the window is smaller than {@link #MIN_WINDOW_SIZE}
+     */
+    public VariantShardedRunner window(int windowSize) {
+        if (windowSize != 0 && windowSize < MIN_WINDOW_SIZE) {
+            throw new IllegalArgumentException("Shard windows must be at least " + MIN_WINDOW_SIZE + " bp, not " + windowSize);
+        }
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    /**
+     * @param numThreads Number of shards processed at the same time
+     * @return This runner
+     */
+    public VariantShardedRunner parallel(int numThreads) {
+        this.numThreads = numThreads;
+        return this;
+    }
+
+    /**
+     * @param tmpDir Directory for the shard files, by default the system temporary directory
+     * @return This runner
+     */
+    public VariantShardedRunner tmpDir(File tmpDir) {
+        this.tmpDir = tmpDir;
+        return this;
+    }
+
+    /**
+     * @param metricsFile File where a JSON summary of the run and of every shard is written when
+     *                    it finishes, or null to skip it
+     * @return This runner
+     */
+    public VariantShardedRunner metricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+        return this;
+    }
+
+    /**
+     * @return Combined statistics of the shards, or null if there was no {@link VariantStatsTask}
+     */
+    public VariantStatsWrapper getStats() {
+        return stats;
+    }
+
+    public void run() throws IOException {
+        File workDir = tmpDir == null
+                ? Files.createTempDirectory("variant-shards").toFile()
+                : Files.createTempDirectory(tmpDir.toPath(), "variant-shards").toFile();
+
+        try {
+            long start = System.currentTimeMillis();
+            List<String> header = new ArrayList<>();
+            List<Shard> shards = split(workDir, header);
+            System.out.println("Processing " + shards.size() + " shards with " + numThreads + " threads");
+
+            runShards(shards);
+            merge(shards, header);
+            mergeStats(shards);
+            if (metricsFile != null) {
+                writeMetrics(shards, System.currentTimeMillis() - start);
+            }
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    private List<Shard> split(File workDir, List<String> header) throws IOException {
+        Map<String, Shard> shards = new LinkedHashMap<>();
+        Shard current = null;
+        Writer writer = null;
+
+        try (BufferedReader reader = open(inputFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    header.add(line);
+                    continue;
+                }
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                String key = shardKey(line);
+                if (current == null || !current.key.equals(key)) {
+                    if (writer != null) {
+                        writer.close();
+                    }
+
+                    if (shards.containsKey(key)) {
+                        // The merged output would not keep the input order
+                        throw new IOException("Input is not sorted by coordinate: " + line.substring(0, line.indexOf('\t'))
+                                + " comes back after other records, sort it first (--sort)");
+                    }
+                    current = new Shard(key, shards.size(), workDir);
+                    shards.put(key, current);
+                    writer = createWriter(current.input);
+                    for (String headerLine : header) {
+                        writer.write(headerLine);
+                        writer.write('\n');
+                    }
+                }
+
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        return new ArrayList<>(shards.values());
+    }
+
+    private String shardKey(String line) {
+        int tab = line.indexOf('\t');
+        String chromosome = line.substring(0, tab);
+        if (windowSize <= 0) {
+            return chromosome;
+        }
+
+        int end = line.indexOf('\t', tab + 1);
+        long position = Long.parseLong(line.substring(tab + 1, end));
+        return chromosome + ":" + (position - 1) / windowSize;
+    }
+
+    private void runShards(List<Shard> shards) throws IOException {
+        ExecutorService threadPool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try {
+            List<Future<Void>> futures = new ArrayList<>(shards.size());
+            for (final Shard shard : shards) {
+                futures.add(threadPool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        shard.run();
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    private void merge(List<Shard> shards, List<String> inputHeader) throws IOException {
+        try (Writer writer = createWriter(new File(outputFile))) {
+            if (shards.isEmpty()) {
+                for (String line : inputHeader) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+                return;
+            }
+
+            for (Shard shard : shards) {
+                try (BufferedReader reader = open(shard.output.getAbsolutePath())) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        // The header written by the first shard stands for all of them
+                        if (!line.startsWith("#") || shard.index == 0) {
+                            writer.write(line);
+                            writer.write('\n');
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void mergeStats(List<Shard> shards) {
+        List<VariantStatsWrapper> partials = new ArrayList<>();
+        for (Shard shard : shards) {
+            if (shard.index == 0) {
+                study.addMetadata("variant_file_header", shard.header);
+                study.setSamples(shard.samples);
+            }
+            for (Task<Variant> task : shard.tasks) {
+                if (task instanceof VariantStatsTask) {
+                    partials.add(((VariantStatsTask) task).getStats());
+                }
+            }
+        }
+
+        if (!partials.isEmpty()) {
+            stats = VariantStatsTask.merge(partials, study.getPedigree() != null);
+            study.setStats(stats.getFinalGlobalStats());
+        }
+    }
+
+    private static BufferedReader open(String file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private void writeMetrics(List<Shard> shards, long elapsedMillis) throws IOException {
+        long variantsRead = 0;
+        List<Map<String, Object>> shardSummaries = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            variantsRead += shard.metrics.getVariantsRead();
+            shardSummaries.add(shard.metrics.summary());
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("elapsedMs", elapsedMillis);
+        summary.put("variantsRead", variantsRead);
+        summary.put("variantsPerSecond", elapsedMillis == 0 ? 0 : Math.round(variantsRead * 1000.0 / elapsedMillis));
+        summary.put("shards", shardSummaries);
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(metricsFile, summary);
+    }
+
+    private static Writer createWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private class Shard {
+        private final String key;
+        private final int index;
+        private final File input;
+        private final File output;
+        private VariantStudy study;
+        private List<Task<Variant>> tasks = Collections.emptyList();
+        private String header;
+        private List<String> samples;
+        private RunnerMetrics metrics;
+
+        private Shard(String key, int index, File workDir) {
+            this.key = key;
+            this.index = index;
+            this.input = new File(workDir, "shard_" + index + ".vcf");
+            this.output = new File(workDir, "shard_" + index + ".out.vcf");
+        }
+
+        private void run() throws IOException {
+            VariantReader reader = new VariantVcfReader(input.getAbsolutePath());
+            VariantWriter writer = new VariantVcfDataWriter(reader, output.getAbsolutePath());
+
+            study = new VariantStudy(key, key, "Shard " + key, Collections.<String>emptyList(), Arrays.asList(input.getName()));
+            study.setPedigree(VariantShardedRunner.this.study.getPedigree());
+            tasks = taskFactory.createTasks(reader, study);
+
+            VariantRunner runner = new VariantRunner(study, reader, null, Arrays.asList(writer), tasks);
+            runner.name("shard " + key).run();
+            metrics = runner.getMetrics();
+
+            header = reader.getHeader();
+            samples = reader.getSampleNames();
+        }
+    }
+}
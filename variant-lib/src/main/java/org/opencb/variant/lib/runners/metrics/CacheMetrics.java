@@ -0,0 +1,136 @@
+package org.opencb.variant.lib.runners.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hits, misses, evictions and lookup latency of a cache. Every lookup is recorded with its
+ * latency, and then as a hit in one of the tiers, as coalesced if it waited for the same entry
+ * being loaded by another lookup, or else as a miss.
+ */
+public class CacheMetrics implements CacheMetricsMBean {
+
+    private final String name;
+    private final LatencyHistogram lookups;
+    private final AtomicLong memoryHits;
+    private final AtomicLong diskHits;
+    private final AtomicLong coalesced;
+    private final AtomicLong evictions;
+
+    public CacheMetrics(String name) {
+        this.name = name;
+        this.lookups = new LatencyHistogram();
+        this.memoryHits = new AtomicLong();
+        this.diskHits = new AtomicLong();
+        this.coalesced = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    public void recordLookup(long nanos) {
+        lookups.record(nanos);
+    }
+
+    public void recordMemoryHit() {
+        memoryHits.incrementAndGet();
+    }
+
+    public void recordDiskHit() {
+        diskHits.incrementAndGet();
+    }
+
+    public void recordCoalesced() {
+        coalesced.incrementAndGet();
+    }
+
+    public void recordEviction() {
+        evictions.incrementAndGet();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getLatency() {
+        return lookups;
+    }
+
+    @Override
+    public long getLookups() {
+        return lookups.getCount();
+    }
+
+    @Override
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    @Override
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    @Override
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return lookups.getCount() - memoryHits.get() - diskHits.get() - coalesced.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return Fraction of the lookups found in either tier or coalesced, that is, not loaded
+     */
+    @Override
+    public double getHitRate() {
+        long count = lookups.getCount();
+        return count == 0 ? 0 : (double) (memoryHits.get() + diskHits.get() + coalesced.get()) / count;
+    }
+
+    /**
+     * Lookups take well under a millisecond, so their latency is given in microseconds
+     */
+    @Override
+    public double getMeanLookupMicros() {
+        return toMicros(lookups.getMean());
+    }
+
+    @Override
+    public double getP99LookupMicros() {
+        return toMicros(lookups.getPercentile(99));
+    }
+
+    private static double toMicros(double nanos) {
+        return Math.round(nanos / 10.0) / 100.0;
+    }
+
+    public Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("name", name);
+        summary.put("lookups", getLookups());
+        summary.put("memoryHits", getMemoryHits());
+        summary.put("diskHits", getDiskHits());
+        summary.put("coalesced", getCoalesced());
+        summary.put("misses", getMisses());
+        summary.put("evictions", getEvictions());
+        summary.put("hitRate", Math.round(getHitRate() * 10000) / 10000.0);
+        summary.put("meanLookupUs", getMeanLookupMicros());
+        summary.put("p99LookupUs", getP99LookupMicros());
+        summary.put("maxLookupUs", toMicros(lookups.getMax()));
+        return summary;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + getLookups() + " lookups, " + (getMemoryHits() + getDiskHits()) + " hits, "
+                + getCoalesced() + " coalesced, " + getMisses() + " misses, " + getEvictions() + " evictions";
+    }
+}
@@ -0,0 +1,27 @@
+package org.opencb.variant.lib.runners.metrics;
+
+/**
+ * JMX view of {@link CacheMetrics}.
+ */
+public interface CacheMetricsMBean {
+
+    String getName();
+
+    long getLookups();
+
+    long getMemoryHits();
+
+    long getDiskHits();
+
+    long getCoalesced();
+
+    long getMisses();
+
+    long getEvictions();
+
+    double getHitRate();
+
+    double getMeanLookupMicros();
+
+    double getP99LookupMicros();
+}
@@ -0,0 +1,11 @@
+package org.opencb.variant.lib.runners.metrics;
+
+import java.util.List;
+
+/**
+ * Task with caches whose metrics are published along with those of the runner.
+ */
+public interface CacheMetricsSource {
+
+    List<CacheMetrics> getCacheMetrics();
+}
@@ -0,0 +1,48 @@
+package org.opencb.variant.lib.runners.metrics;
+
+import org.opencb.commons.run.Task;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Task decorator that records the latency and the input and output sizes of every batch.
+ */
+public class InstrumentedTask<T> extends Task<T> {
+
+    private final Task<T> task;
+    private final TaskMetrics metrics;
+
+    public InstrumentedTask(Task<T> task, TaskMetrics metrics) {
+        super(task.getPriority());
+        this.task = task;
+        this.metrics = metrics;
+    }
+
+    public Task<T> getTask() {
+        return task;
+    }
+
+    public TaskMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public boolean pre() {
+        return task.pre();
+    }
+
+    @Override
+    public boolean apply(List<T> batch) throws IOException {
+        int sizeIn = batch.size();
+        long start = System.nanoTime();
+        boolean result = task.apply(batch);
+        metrics.record(sizeIn, batch.size(), System.nanoTime() - start);
+        return result;
+    }
+
+    @Override
+    public boolean post() {
+        return task.post();
+    }
+}
@@ -0,0 +1,105 @@
+package org.opencb.variant.lib.runners.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two buckets.
+ * <p/>
+ * Bucket {@code i} counts the samples between 2^(i-1) and 2^i - 1 nanoseconds, so percentiles are
+ * approximate (within a factor of two) but recording a sample costs a couple of atomic increments
+ * and no allocation.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong total;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        this.buckets = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+        this.total = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return Sum of all the samples, in nanoseconds
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Upper bound, in nanoseconds, of the bucket where the percentile falls
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                long upperBound = i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upperBound, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return Count, mean, percentiles and maximum, in milliseconds
+     */
+    public Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", getCount());
+        summary.put("totalMs", toMillis(getTotal()));
+        summary.put("meanMs", toMillis(getMean()));
+        summary.put("p50Ms", toMillis(getPercentile(50)));
+        summary.put("p90Ms", toMillis(getPercentile(90)));
+        summary.put("p99Ms", toMillis(getPercentile(99)));
+        summary.put("maxMs", toMillis(getMax()));
+        return summary;
+    }
+
+    static double toMillis(double nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
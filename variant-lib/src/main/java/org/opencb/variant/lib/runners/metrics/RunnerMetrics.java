@@ -0,0 +1,219 @@
+package org.opencb.variant.lib.runners.metrics;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opencb.commons.run.Task;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Performance profile of a runner: reader parse time, writer flush time, per-task metrics and the
+ * metrics of the caches used by the tasks.
+ * <p/>
+ * While the run is active the metrics are published through JMX under the
+ * {@code org.opencb.variant} domain, and {@link #writeJson(File)} leaves a summary behind when
+ * the run ends.
+ */
+public class RunnerMetrics implements RunnerMetricsMBean {
+
+    private static final String DOMAIN = "org.opencb.variant";
+
+    private final String name;
+    private final LatencyHistogram readLatency;
+    private final LatencyHistogram writeLatency;
+    private final AtomicLong variantsRead;
+    private final List<TaskMetrics> tasks;
+    private final List<CacheMetrics> caches;
+    private final List<ObjectName> registered;
+    private long startTime;
+    private long endTime;
+
+    public RunnerMetrics(String name) {
+        this.name = name;
+        this.readLatency = new LatencyHistogram();
+        this.writeLatency = new LatencyHistogram();
+        this.variantsRead = new AtomicLong();
+        this.tasks = new ArrayList<>();
+        this.caches = new ArrayList<>();
+        this.registered = new ArrayList<>();
+    }
+
+    /**
+     * Wrap the tasks so that each batch they process is measured. The caches of tasks that are a
+     * {@link CacheMetricsSource} are added to the metrics as well.
+     *
+     * @param tasks Tasks to instrument, in execution order
+     * @return Instrumented tasks, in the same order
+     */
+    public <T> List<Task<T>> instrument(List<Task<T>> tasks) {
+        List<Task<T>> instrumented = new ArrayList<>(tasks.size());
+        for (Task<T> task : tasks) {
+            TaskMetrics metrics = new TaskMetrics(task.getClass().getSimpleName());
+            this.tasks.add(metrics);
+            instrumented.add(new InstrumentedTask<>(task, metrics));
+            if (task instanceof CacheMetricsSource) {
+                caches.addAll(((CacheMetricsSource) task).getCacheMetrics());
+            }
+        }
+        return instrumented;
+    }
+
+    public void start() {
+        startTime = System.nanoTime();
+        endTime = 0;
+    }
+
+    public void stop() {
+        endTime = System.nanoTime();
+    }
+
+    public void recordRead(int variants, long nanos) {
+        readLatency.record(nanos);
+        variantsRead.addAndGet(variants);
+    }
+
+    public void recordWrite(long nanos) {
+        writeLatency.record(nanos);
+    }
+
+    public List<TaskMetrics> getTasks() {
+        return tasks;
+    }
+
+    public List<CacheMetrics> getCaches() {
+        return caches;
+    }
+
+    public LatencyHistogram getReadLatency() {
+        return readLatency;
+    }
+
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    @Override
+    public long getVariantsRead() {
+        return variantsRead.get();
+    }
+
+    @Override
+    public long getBatchesRead() {
+        return readLatency.getCount();
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        if (startTime == 0) {
+            return 0;
+        }
+        return ((endTime == 0 ? System.nanoTime() : endTime) - startTime) / 1000000;
+    }
+
+    @Override
+    public double getVariantsPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : variantsRead.get() * 1000.0 / elapsed;
+    }
+
+    @Override
+    public double getReadMillis() {
+        return LatencyHistogram.toMillis(readLatency.getTotal());
+    }
+
+    @Override
+    public double getWriteMillis() {
+        return LatencyHistogram.toMillis(writeLatency.getTotal());
+    }
+
+    @Override
+    public String getSummary() {
+        try {
+            return new ObjectMapper().writeValueAsString(summary());
+        } catch (JsonProcessingException e) {
+            return e.getMessage();
+        }
+    }
+
+    public Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("name", name);
+        summary.put("elapsedMs", getElapsedMillis());
+        summary.put("variantsRead", getVariantsRead());
+        summary.put("variantsPerSecond", Math.round(getVariantsPerSecond()));
+        summary.put("read", readLatency.summary());
+        summary.put("write", writeLatency.summary());
+
+        List<Map<String, Object>> taskSummaries = new ArrayList<>(tasks.size());
+        for (TaskMetrics task : tasks) {
+            taskSummaries.add(task.summary());
+        }
+        summary.put("tasks", taskSummaries);
+
+        if (!caches.isEmpty()) {
+            List<Map<String, Object>> cacheSummaries = new ArrayList<>(caches.size());
+            for (CacheMetrics cache : caches) {
+                cacheSummaries.add(cache.summary());
+            }
+            summary.put("caches", cacheSummaries);
+        }
+        return summary;
+    }
+
+    public void writeJson(File file) throws IOException {
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, summary());
+    }
+
+    /**
+     * Publish the runner and task metrics in the platform MBean server.
+     */
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            String runner = ObjectName.quote(name);
+            register(server, ObjectName.getInstance(DOMAIN + ":type=Runner,name=" + runner), this);
+            for (int i = 0; i < tasks.size(); i++) {
+                ObjectName taskName = ObjectName.getInstance(DOMAIN + ":type=Task,runner=" + runner + ",index=" + i
+                        + ",name=" + ObjectName.quote(tasks.get(i).getName()));
+                register(server, taskName, tasks.get(i));
+            }
+            for (int i = 0; i < caches.size(); i++) {
+                ObjectName cacheName = ObjectName.getInstance(DOMAIN + ":type=Cache,runner=" + runner + ",index=" + i
+                        + ",name=" + ObjectName.quote(caches.get(i).getName()));
+                register(server, cacheName, caches.get(i));
+            }
+        } catch (JMException e) {
+            System.err.println("Could not register the runner metrics in JMX: " + e.getMessage());
+        }
+    }
+
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registered) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                System.err.println("Could not unregister " + objectName + ": " + e.getMessage());
+            }
+        }
+        registered.clear();
+    }
+
+    private void register(MBeanServer server, ObjectName objectName, Object bean) throws JMException {
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        server.registerMBean(bean, objectName);
+        registered.add(objectName);
+    }
+}
@@ -0,0 +1,21 @@
+package org.opencb.variant.lib.runners.metrics;
+
+/**
+ * JMX view of {@link RunnerMetrics}.
+ */
+public interface RunnerMetricsMBean {
+
+    long getVariantsRead();
+
+    long getBatchesRead();
+
+    long getElapsedMillis();
+
+    double getVariantsPerSecond();
+
+    double getReadMillis();
+
+    double getWriteMillis();
+
+    String getSummary();
+}
@@ -0,0 +1,93 @@
+package org.opencb.variant.lib.runners.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batch latency and throughput of one task of a runner.
+ */
+public class TaskMetrics implements TaskMetricsMBean {
+
+    private final String name;
+    private final LatencyHistogram latency;
+    private final AtomicLong variantsIn;
+    private final AtomicLong variantsOut;
+
+    public TaskMetrics(String name) {
+        this.name = name;
+        this.latency = new LatencyHistogram();
+        this.variantsIn = new AtomicLong();
+        this.variantsOut = new AtomicLong();
+    }
+
+    public void record(int sizeIn, int sizeOut, long nanos) {
+        latency.record(nanos);
+        variantsIn.addAndGet(sizeIn);
+        variantsOut.addAndGet(sizeOut);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getBatches() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getVariantsIn() {
+        return variantsIn.get();
+    }
+
+    @Override
+    public long getVariantsOut() {
+        return variantsOut.get();
+    }
+
+    @Override
+    public long getFilteredOut() {
+        return variantsIn.get() - variantsOut.get();
+    }
+
+    /**
+     * @return Variants processed per second of time spent inside the task
+     */
+    @Override
+    public double getVariantsPerSecond() {
+        long nanos = latency.getTotal();
+        return nanos == 0 ? 0 : variantsIn.get() * 1e9 / nanos;
+    }
+
+    @Override
+    public double getMeanBatchMillis() {
+        return LatencyHistogram.toMillis(latency.getMean());
+    }
+
+    @Override
+    public double getP99BatchMillis() {
+        return LatencyHistogram.toMillis(latency.getPercentile(99));
+    }
+
+    @Override
+    public double getMaxBatchMillis() {
+        return LatencyHistogram.toMillis(latency.getMax());
+    }
+
+    public Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("name", name);
+        summary.put("variantsIn", getVariantsIn());
+        summary.put("variantsOut", getVariantsOut());
+        summary.put("filteredOut", getFilteredOut());
+        summary.put("variantsPerSecond", Math.round(getVariantsPerSecond()));
+        summary.put("batchLatency", latency.summary());
+        return summary;
+    }
+}
@@ -0,0 +1,25 @@
+package org.opencb.variant.lib.runners.metrics;
+
+/**
+ * JMX view of {@link TaskMetrics}.
+ */
+public interface TaskMetricsMBean {
+
+    String getName();
+
+    long getBatches();
+
+    long getVariantsIn();
+
+    long getVariantsOut();
+
+    long getFilteredOut();
+
+    double getVariantsPerSecond();
+
+    double getMeanBatchMillis();
+
+    double getP99BatchMillis();
+
+    double getMaxBatchMillis();
+}
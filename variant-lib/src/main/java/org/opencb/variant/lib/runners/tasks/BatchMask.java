@@ -0,0 +1,93 @@
+package org.opencb.variant.lib.runners.tasks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.RandomAccess;
+
+/**
+ * Bitmask over the positions of a batch, used to mark the records that survive a task and then
+ * remove the rest in a single pass.
+ * <p/>
+ * Removing records one by one from an {@code ArrayList} shifts the tail every time, which is
+ * quadratic in the batch size. Marking first and compacting afterwards moves every survivor at most
+ * once and keeps their order. A mask is meant to be reused across batches (one per thread), so
+ * after the first batches nothing is allocated.
+ */
+class BatchMask {
+
+    private long[] words = new long[0];
+    private int size;
+
+    /**
+     * Clears the mask for a batch of the given size.
+     */
+    void reset(int size) {
+        int wordCount = (size + 63) >>> 6;
+        if (words.length < wordCount) {
+            words = new long[Math.max(wordCount, 2 * words.length)];
+        } else {
+            Arrays.fill(words, 0, wordCount, 0L);
+        }
+        this.size = size;
+    }
+
+    void set(int index) {
+        words[index >>> 6] |= 1L << index;
+    }
+
+    boolean get(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int count() {
+        int count = 0;
+        for (int w = 0; w < (size + 63) >>> 6; w++) {
+            count += Long.bitCount(words[w]);
+        }
+        return count;
+    }
+
+    /**
+     * Removes from the batch the records not marked, keeping the order of the rest.
+     *
+     * @param batch Batch of the size given to {@link #reset(int)}
+     * @return Number of records left
+     */
+    <T> int compact(List<T> batch) {
+        int kept;
+        if (batch instanceof RandomAccess) {
+            // Skip the leading survivors, which do not move
+            kept = 0;
+            while (kept < size && get(kept)) {
+                kept++;
+            }
+            for (int i = kept + 1; i < size; i++) {
+                if (get(i)) {
+                    batch.set(kept++, batch.get(i));
+                }
+            }
+        } else {
+            ListIterator<T> reader = batch.listIterator();
+            ListIterator<T> writer = batch.listIterator();
+            kept = 0;
+            for (int i = 0; i < size; i++) {
+                T item = reader.next();
+                if (get(i)) {
+                    writer.next();
+                    writer.set(item);
+                    kept++;
+                }
+            }
+        }
+
+        if (kept < batch.size()) {
+            batch.subList(kept, batch.size()).clear();
+        }
+        return kept;
+    }
+}
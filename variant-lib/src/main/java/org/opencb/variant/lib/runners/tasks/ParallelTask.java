@@ -0,0 +1,10 @@
+package org.opencb.variant.lib.runners.tasks;
+
+/**
+ * Marker for tasks whose {@code apply} can be called concurrently on different batches.
+ * <p/>
+ * Tasks without this marker keep state across batches (or depend on the batch order), so the
+ * parallel engine runs them on a single thread and in input order.
+ */
+public interface ParallelTask {
+}
@@ -3,17 +3,59 @@ package org.opencb.variant.lib.runners.tasks;
 import org.opencb.commons.bioformats.variant.Variant;
 import org.opencb.commons.bioformats.variant.annotators.VariantAnnotator;
 import org.opencb.commons.run.Task;
+import org.opencb.variant.lib.annotators.CachedVariantAnnotator;
+import org.opencb.variant.lib.runners.DaemonThreadFactory;
+import org.opencb.variant.lib.runners.metrics.CacheMetrics;
+import org.opencb.variant.lib.runners.metrics.CacheMetricsSource;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
+ * Applies a list of annotators to every batch, in list order.
+ * <p/>
+ * Annotators usually look up independent sources and write their own attributes, so with
+ * {@link #concurrent(boolean)} they run side by side on the same batch and the batch takes as long
+ * as the slowest annotator instead of the sum of all. Annotators that use the results of another
+ * one are declared with {@link #dependsOn} and run after it, on the same thread; every group of
+ * annotators linked by dependencies runs as a sequence. {@link #threads(int)} caps how many groups
+ * run at the same time, as {@code --threads} does for the effect requests.
+ * <p/>
+ * The first group annotates the batch itself, and every other group a copy of the variants with
+ * their own id and attributes, so no two threads write to the same variant. When all the groups
+ * are done, the ids and attributes set by the other groups are copied back in list order, which
+ * gives the same result as running the annotators one after another as long as they do not write
+ * the same attributes. The sample data, effects and statistics of the copies are shared with the
+ * batch and must not be changed by the annotators.
+ *
  * @author Alejandro Aleman Ramos <aaleman@cipf.es>
  */
-public class VariantAnnotTask extends Task<Variant> {
+public class VariantAnnotTask extends Task<Variant> implements CacheMetricsSource {
 
     private List<VariantAnnotator> annotations;
 
+    private boolean concurrent = false;
+
+    private int threads = 0;
+
+    /**
+     * Indexes of the annotators each annotator depends on, by index of the annotator
+     */
+    private final Map<Integer, List<Integer>> dependencies = new HashMap<>();
+
+    private List<List<VariantAnnotator>> groups;
+
+    private ExecutorService threadPool;
+
     public VariantAnnotTask(List<VariantAnnotator> annots) {
         super();
         this.annotations = annots;
@@ -24,13 +66,229 @@ public class VariantAnnotTask extends Task<Variant> {
         this.annotations = annots;
     }
 
+    /**
+     * @param concurrent Whether to run the independent annotators at the same time
+     */
+    public VariantAnnotTask concurrent(boolean concurrent) {
+        this.concurrent = concurrent;
+        return this;
+    }
+
+    /**
+     * @param threads Maximum number of annotator groups running at the same time on a batch, the
+     *                calling thread included, or 0 for all of them
+     */
+    public VariantAnnotTask threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Declares that an annotator uses the results of another one, which is then always applied
+     * before it.
+     *
+     * @param annotator  Annotator of the task
+     * @param dependency Annotator of the task that goes before it in the list
+     */
+    public VariantAnnotTask dependsOn(VariantAnnotator annotator, VariantAnnotator dependency) {
+        int index = annotations.indexOf(annotator);
+        int dependencyIndex = annotations.indexOf(dependency);
+        if (index < 0 || dependencyIndex < 0) {
+            throw new IllegalArgumentException("Both annotators must be annotators of the task");
+        }
+        if (dependencyIndex >= index) {
+            throw new IllegalArgumentException(dependency.getClass().getSimpleName()
+                    + " must go before " + annotator.getClass().getSimpleName() + " to be a dependency");
+        }
+        if (!dependencies.containsKey(index)) {
+            dependencies.put(index, new ArrayList<Integer>());
+        }
+        dependencies.get(index).add(dependencyIndex);
+        groups = null;
+        return this;
+    }
+
     @Override
     public boolean apply(List<Variant> batch) throws IOException {
+        List<List<VariantAnnotator>> groups = concurrent ? getGroups() : null;
+        if (groups == null || groups.size() < 2 || threads == 1 || batch.isEmpty()) {
+            for (VariantAnnotator annotation : annotations) {
+                annotation.annot(batch);
+            }
+            return true;
+        }
 
-        for (VariantAnnotator annotation : annotations) {
-            annotation.annot(batch);
+        List<String> ids = new ArrayList<>(batch.size());
+        List<Map<String, String>> attributes = new ArrayList<>(batch.size());
+        for (Variant variant : batch) {
+            ids.add(variant.getId());
+            attributes.add(new HashMap<>(variant.getAttributes()));
+        }
+
+        ExecutorService pool = getThreadPool(threads > 1 ? Math.min(threads - 1, groups.size() - 1) : groups.size() - 1);
+        List<Future<List<Variant>>> results = new ArrayList<>(groups.size() - 1);
+        for (int g = 1; g < groups.size(); g++) {
+            results.add(pool.submit(new GroupJob(groups.get(g), copy(batch))));
         }
+        new GroupJob(groups.get(0), batch).call();
 
+        try {
+            for (Future<List<Variant>> result : results) {
+                merge(batch, result.get(), ids, attributes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
         return true;
     }
+
+    /**
+     * @return The annotators linked by dependencies, each group in list order, and the groups in
+     * the order of their first annotator
+     */
+    List<List<VariantAnnotator>> getGroups() {
+        if (groups != null) {
+            return groups;
+        }
+
+        // Every annotator points to the first annotator of its group
+        int[] first = new int[annotations.size()];
+        for (int a = 0; a < first.length; a++) {
+            first[a] = a;
+            List<Integer> annotatorDependencies = dependencies.get(a);
+            if (annotatorDependencies != null) {
+                for (int dependency : annotatorDependencies) {
+                    int from = Math.min(first[a], first[dependency]);
+                    int to = Math.max(first[a], first[dependency]);
+                    // Join both groups under the earliest first annotator
+                    for (int b = 0; b <= a; b++) {
+                        if (first[b] == to) {
+                            first[b] = from;
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<Integer, List<VariantAnnotator>> byFirst = new HashMap<>();
+        groups = new ArrayList<>();
+        for (int a = 0; a < first.length; a++) {
+            List<VariantAnnotator> group = byFirst.get(first[a]);
+            if (group == null) {
+                group = new ArrayList<>();
+                byFirst.put(first[a], group);
+                groups.add(group);
+            }
+            group.add(annotations.get(a));
+        }
+        return groups;
+    }
+
+    private synchronized ExecutorService getThreadPool(int numThreads) {
+        if (threadPool == null) {
+            threadPool = Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory("annot"));
+        }
+        return threadPool;
+    }
+
+    /**
+     * @return Variants with the same fields as the batch and their own id and attributes
+     */
+    private static List<Variant> copy(List<Variant> batch) {
+        List<Variant> copies = new ArrayList<>(batch.size());
+        for (Variant variant : batch) {
+            Variant copy = new Variant(variant.getChromosome(), variant.getPosition(), variant.getReference(), variant.getAlternate());
+            copy.setId(variant.getId());
+            copy.setAttributes(new HashMap<>(variant.getAttributes()));
+            copy.setEffect(variant.getEffect());
+            copy.setStats(variant.getStats());
+            for (Map.Entry<String, Map<String, String>> sample : variant.getSamplesData().entrySet()) {
+                copy.addSampleData(sample.getKey(), sample.getValue());
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * Copies the ids and attributes the annotators set on the copies to the batch.
+     *
+     * @param ids        Ids of the batch before the annotators ran
+     * @param attributes Attributes of the batch before the annotators ran
+     */
+    private static void merge(List<Variant> batch, List<Variant> copies, List<String> ids, List<Map<String, String>> attributes) {
+        for (int v = 0; v < batch.size(); v++) {
+            Variant variant = batch.get(v);
+            Variant copy = copies.get(v);
+            if (copy.getId() != null && !copy.getId().equals(ids.get(v))) {
+                variant.setId(copy.getId());
+            }
+            Map<String, String> before = attributes.get(v);
+            for (Map.Entry<String, String> attribute : copy.getAttributes().entrySet()) {
+                if (attribute.getValue() != null && !attribute.getValue().equals(before.get(attribute.getKey()))) {
+                    variant.addAttribute(attribute.getKey(), attribute.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<CacheMetrics> getCacheMetrics() {
+        List<CacheMetrics> metrics = new ArrayList<>();
+        for (VariantAnnotator annotation : annotations) {
+            if (annotation instanceof CachedVariantAnnotator) {
+                metrics.add(((CachedVariantAnnotator) annotation).getMetrics());
+            }
+        }
+        return metrics;
+    }
+
+    @Override
+    public boolean post() {
+        if (threadPool != null) {
+            threadPool.shutdown();
+        }
+        for (CacheMetrics metrics : getCacheMetrics()) {
+            System.out.println(metrics);
+        }
+
+        // Annotators that stream their sources, such as the sort-merge control annotator
+        boolean closed = true;
+        for (VariantAnnotator annotation : annotations) {
+            if (annotation instanceof Closeable) {
+                try {
+                    ((Closeable) annotation).close();
+                } catch (IOException e) {
+                    System.err.println("Cannot close " + annotation.getClass().getSimpleName() + ": " + e.getMessage());
+                    closed = false;
+                }
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Annotators of a group, applied in order to some variants
+     */
+    private static class GroupJob implements Callable<List<Variant>> {
+
+        private final List<VariantAnnotator> annotators;
+        private final List<Variant> variants;
+
+        GroupJob(List<VariantAnnotator> annotators, List<Variant> variants) {
+            this.annotators = annotators;
+            this.variants = variants;
+        }
+
+        @Override
+        public List<Variant> call() {
+            for (VariantAnnotator annotator : annotators) {
+                annotator.annot(variants);
+            }
+            return variants;
+        }
+    }
 }
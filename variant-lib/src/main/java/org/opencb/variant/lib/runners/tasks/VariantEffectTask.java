@@ -1,17 +1,70 @@
 package org.opencb.variant.lib.runners.tasks;
 
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
 import org.opencb.commons.bioformats.variant.Variant;
-import org.opencb.commons.bioformats.variant.effect.EffectCalculator;
 import org.opencb.commons.bioformats.variant.utils.effect.VariantEffect;
 import org.opencb.commons.run.Task;
+import org.opencb.variant.lib.annotators.VariantMemo;
+import org.opencb.variant.lib.effect.CellBaseEffectPredictor;
+import org.opencb.variant.lib.effect.EffectPredictor;
+import org.opencb.variant.lib.runners.DaemonThreadFactory;
+import org.opencb.variant.lib.runners.metrics.CacheMetrics;
+import org.opencb.variant.lib.runners.metrics.CacheMetricsSource;
 
 /**
+ * Sets the effects of every variant, from CellBase unless another {@link EffectPredictor} is
+ * given.
+ * <p/>
+ * Every batch is split into requests of {@link #requestSize(int)} variants, which are sent by a
+ * pool of {@code numThreads} threads shared by all the batches, so no more than that many
+ * requests are in flight at once however many workers of the runner apply the task. While a
+ * worker waits for the effects of its batch, the reader and the other workers go on with the next
+ * batches. A request that fails, or that takes longer than {@link #timeout(long)} once sent, is
+ * sent again up to {@link #retries(int)} times, waiting a bit longer after every attempt. A
+ * predictor that ignores the interruption of a cancelled request keeps its thread until it
+ * returns; the pool gets a thread more meanwhile, so the requests in flight are not reduced.
+ * <p/>
+ * With a {@link #memo(VariantMemo)}, which can be shared with the tasks of other shards, the
+ * effects of every distinct allele are only requested once: the variants already predicted, or
+ * being predicted for another batch, are not sent again. Variants with the same normalized alleles
+ * then share the same list of effects.
+ *
  * @author Alejandro Aleman Ramos <aaleman@cipf.es>
  */
-public class VariantEffectTask extends Task<Variant> {
+public class VariantEffectTask extends Task<Variant> implements ParallelTask, CacheMetricsSource {
+
+    private int numThreads = 1;
+    private ThreadPoolExecutor threadPool;
+    private int stuckThreads;
+    private ScheduledExecutorService timer;
+
+    private EffectPredictor predictor = new CellBaseEffectPredictor();
+    private int requestSize = 250;
+    private int retries = 2;
+    private long timeoutMillis = 60000;
+    private long retryDelayMillis = 1000;
+    private VariantMemo<List<VariantEffect>> memo;
+    private final VariantMemo.Loader<List<VariantEffect>> loader = new VariantMemo.Loader<List<VariantEffect>>() {
+        @Override
+        public List<List<VariantEffect>> load(List<Variant> variants, List<String> keys) throws IOException {
+            return predict(variants);
+        }
+    };
 
     public VariantEffectTask() {
     }
@@ -20,17 +73,245 @@ public class VariantEffectTask extends Task<Variant> {
         super(priority);
     }
 
+    /**
+     * @param numThreads Number of requests in flight at the same time
+     */
+    public VariantEffectTask(int priority, int numThreads) {
+        super(priority);
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public VariantEffectTask predictor(EffectPredictor predictor) {
+        this.predictor = predictor;
+        return this;
+    }
+
+    /**
+     * @param requestSize Maximum number of variants per request
+     */
+    public VariantEffectTask requestSize(int requestSize) {
+        this.requestSize = Math.max(1, requestSize);
+        return this;
+    }
+
+    /**
+     * @param retries Times a failed request is sent again
+     */
+    public VariantEffectTask retries(int retries) {
+        this.retries = Math.max(0, retries);
+        return this;
+    }
+
+    /**
+     * @param timeoutMillis Time a request is waited for once sent, before it is cancelled
+     */
+    public VariantEffectTask timeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * @param retryDelayMillis Wait before the first retry of a request, doubled for every next one
+     */
+    public VariantEffectTask retryDelay(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+        return this;
+    }
+
+    /**
+     * @param memo Effects already predicted, by allele
+     */
+    public VariantEffectTask memo(VariantMemo<List<VariantEffect>> memo) {
+        this.memo = memo;
+        return this;
+    }
+
     @Override
     public boolean apply(List<Variant> batch) throws IOException {
-        List<List<VariantEffect>> batchEffect = EffectCalculator.getEffectPerVariant(batch);
+        List<List<VariantEffect>> effects = memo == null ? predict(batch) : memo.get(batch, loader);
+        for (int v = 0; v < batch.size() && v < effects.size(); v++) {
+            if (effects.get(v) != null) {
+                batch.get(v).setEffect(effects.get(v));
+            }
+        }
+        return true;
+    }
 
-        Iterator<Variant> variantIterator = batch.iterator();
-        Iterator<List<VariantEffect>> effectIterator = batchEffect.iterator();
+    /**
+     * @return The effects of the variants, in the same order, sent in requests of at most
+     * {@link #requestSize(int)} variants
+     */
+    private List<List<VariantEffect>> predict(List<Variant> variants) throws IOException {
+        List<Request> requests = new ArrayList<>();
+        for (int start = 0; start < variants.size(); start += requestSize) {
+            Request request = new Request(variants.subList(start, Math.min(start + requestSize, variants.size())));
+            request.send();
+            requests.add(request);
+        }
 
-        while (variantIterator.hasNext() && effectIterator.hasNext()) {
-            variantIterator.next().setEffect(effectIterator.next());
+        List<List<VariantEffect>> effects = new ArrayList<>(variants.size());
+        try {
+            for (Request request : requests) {
+                List<List<VariantEffect>> requestEffects = request.await();
+                for (int v = 0; v < request.variants.size(); v++) {
+                    effects.add(v < requestEffects.size() ? requestEffects.get(v) : null);
+                }
+            }
+        } finally {
+            for (Request request : requests) {
+                request.cancel();
+            }
         }
+        return effects;
+    }
 
+    @Override
+    public List<CacheMetrics> getCacheMetrics() {
+        return memo == null ? Collections.<CacheMetrics>emptyList() : Collections.singletonList(memo.getMetrics());
+    }
+
+    @Override
+    public boolean post() {
+        if (memo != null) {
+            System.out.println(memo.getMetrics());
+        }
+        if (threadPool != null) {
+            threadPool.shutdown();
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+        }
         return true;
     }
+
+    private synchronized ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("effect-timer"));
+        }
+        return timer;
+    }
+
+    private synchronized ExecutorService getThreadPool() {
+        if (threadPool == null) {
+            threadPool = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("effect"));
+        }
+        return threadPool;
+    }
+
+    /**
+     * Adds a thread to the pool for every attempt that is still running after being cancelled, and
+     * removes it once the attempt returns
+     */
+    private synchronized void stuckThreads(int delta) {
+        stuckThreads += delta;
+        int size = numThreads + stuckThreads;
+        // The maximum can never be below the core size
+        if (delta > 0) {
+            threadPool.setMaximumPoolSize(size);
+            threadPool.setCorePoolSize(size);
+        } else {
+            threadPool.setCorePoolSize(size);
+            threadPool.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * Effects of a part of a batch, with the attempts made to get them
+     */
+    private class Request {
+
+        private final List<Variant> variants;
+        private Attempt attempt;
+
+        Request(List<Variant> variants) {
+            this.variants = variants;
+        }
+
+        void send() {
+            attempt = new Attempt(variants);
+            getThreadPool().execute(attempt.task);
+        }
+
+        void cancel() {
+            attempt.task.cancel(true);
+        }
+
+        List<List<VariantEffect>> await() throws IOException {
+            for (int attempts = 1; ; attempts++) {
+                Throwable failure;
+                try {
+                    return attempt.task.get();
+                } catch (CancellationException e) {
+                    failure = new TimeoutException("No effects after " + timeoutMillis + " ms");
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+
+                if (attempts > retries) {
+                    throw new IOException("Cannot predict the effects of " + variants.size() + " variants from "
+                            + variants.get(0).getChromosome() + ":" + variants.get(0).getPosition()
+                            + " after " + attempts + " attempts", failure);
+                }
+                System.err.println("Effect request failed (" + failure + "), retrying");
+                try {
+                    Thread.sleep(retryDelayMillis << (attempts - 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+                send();
+            }
+        }
+    }
+
+    /**
+     * One request to the predictor, cancelled if it takes too long once it leaves the queue of the
+     * thread pool. Cancelling interrupts the thread, and if the predictor does not stop the pool
+     * makes up for the thread until it does.
+     */
+    private class Attempt implements Callable<List<List<VariantEffect>>> {
+
+        private final List<Variant> variants;
+        private final FutureTask<List<List<VariantEffect>>> task;
+        private boolean finished;
+        private boolean timedOut;
+
+        Attempt(List<Variant> variants) {
+            this.variants = variants;
+            this.task = new FutureTask<>(this);
+        }
+
+        @Override
+        public List<List<VariantEffect>> call() throws IOException {
+            ScheduledFuture<?> timeout = getTimer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timeOut();
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            try {
+                return predictor.predict(variants);
+            } finally {
+                timeout.cancel(false);
+                synchronized (this) {
+                    finished = true;
+                    if (timedOut) {
+                        stuckThreads(-1);
+                    }
+                }
+            }
+        }
+
+        private synchronized void timeOut() {
+            if (!finished) {
+                timedOut = true;
+                stuckThreads(1);
+            }
+            task.cancel(true);
+        }
+    }
 }
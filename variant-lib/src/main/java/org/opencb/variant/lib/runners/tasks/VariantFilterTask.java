@@ -2,33 +2,172 @@ package org.opencb.variant.lib.runners.tasks;
 
 import org.opencb.commons.bioformats.variant.Variant;
 import org.opencb.commons.bioformats.variant.filters.VariantFilter;
-import org.opencb.commons.filters.FilterApplicator;
 import org.opencb.commons.run.Task;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Removes from every batch the variants rejected by any of the filters.
+ * <p/>
+ * Each variant stops at the first filter that rejects it, so the order of the filters matters: a
+ * cheap filter that rejects most variants should run before an expensive one that rejects few.
+ * The task learns that order by itself. On the first batches, and on one batch out of every
+ * {@link #RECALIBRATION_INTERVAL} afterwards, every filter is applied to every variant and its
+ * cost and rejection rate are measured; filters are then sorted by cost per rejected variant.
+ * <p/>
+ * The variants that pass are marked in a {@link BatchMask} kept by every thread, and the rejected
+ * ones are removed afterwards in a single pass over the batch.
+ *
  * @author Alejandro Aleman Ramos <aaleman@cipf.es>
  */
-public class VariantFilterTask extends Task<Variant> {
+public class VariantFilterTask extends Task<Variant> implements ParallelTask {
+
+    public static final int CALIBRATION_BATCHES = 4;
+    public static final int RECALIBRATION_INTERVAL = 64;
+
     private List<VariantFilter> filters;
+    private volatile VariantFilter[] order;
+    private long[] rejected;
+    private long[] nanos;
+    private final AtomicLong batches = new AtomicLong();
+    private boolean adaptive = true;
+    private final ThreadLocal<BatchMask> masks = new ThreadLocal<BatchMask>() {
+        @Override
+        protected BatchMask initialValue() {
+            return new BatchMask();
+        }
+    };
 
     public VariantFilterTask(List<VariantFilter> filters) {
         super();
-        this.filters = filters;
+        setFilters(filters);
     }
 
     public VariantFilterTask(List<VariantFilter> filters, int priority) {
         super(priority);
+        setFilters(filters);
+    }
+
+    private void setFilters(List<VariantFilter> filters) {
         this.filters = filters;
+        this.order = filters.toArray(new VariantFilter[filters.size()]);
+        this.rejected = new long[filters.size()];
+        this.nanos = new long[filters.size()];
+    }
+
+    /**
+     * @param adaptive Whether to reorder the filters by their measured cost and selectivity, or
+     *                 keep them in the given order
+     * @return This task
+     */
+    public VariantFilterTask adaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+    /**
+     * @return The filters in the order they are currently applied
+     */
+    public List<VariantFilter> getOrder() {
+        return Arrays.asList(order.clone());
     }
 
     @Override
     public boolean apply(List<Variant> batch) throws IOException {
+        long batchNumber = batches.getAndIncrement();
+        boolean measure = adaptive && filters.size() > 1
+                && (batchNumber < CALIBRATION_BATCHES || batchNumber % RECALIBRATION_INTERVAL == 0);
 
-        FilterApplicator.filter(batch, filters);
+        BatchMask accepted = masks.get();
+        accepted.reset(batch.size());
+        if (measure) {
+            markMeasuring(batch, accepted);
+        } else {
+            markOrdered(batch, accepted);
+        }
+        accepted.compact(batch);
 
         return true;
     }
+
+    private void markOrdered(List<Variant> batch, BatchMask accepted) {
+        VariantFilter[] current = order;
+        int i = 0;
+        for (Variant variant : batch) {
+            boolean passed = true;
+            for (VariantFilter filter : current) {
+                if (!filter.apply(variant)) {
+                    passed = false;
+                    break;
+                }
+            }
+            if (passed) {
+                accepted.set(i);
+            }
+            i++;
+        }
+    }
+
+    private void markMeasuring(List<Variant> batch, BatchMask accepted) {
+        long[] batchRejected = new long[filters.size()];
+        long[] batchNanos = new long[filters.size()];
+
+        int i = 0;
+        for (Variant variant : batch) {
+            boolean allPassed = true;
+            for (int f = 0; f < filters.size(); f++) {
+                long start = System.nanoTime();
+                boolean passed = filters.get(f).apply(variant);
+                batchNanos[f] += System.nanoTime() - start;
+                if (!passed) {
+                    batchRejected[f]++;
+                    allPassed = false;
+                }
+            }
+            if (allPassed) {
+                accepted.set(i);
+            }
+            i++;
+        }
+
+        reorder(batchRejected, batchNanos);
+    }
+
+    private synchronized void reorder(long[] batchRejected, long[] batchNanos) {
+        boolean calibrated = batches.get() > CALIBRATION_BATCHES;
+        for (int f = 0; f < filters.size(); f++) {
+            if (calibrated) {
+                // Older measurements weigh less, so the order follows changes along the input
+                rejected[f] /= 2;
+                nanos[f] /= 2;
+            }
+            rejected[f] += batchRejected[f];
+            nanos[f] += batchNanos[f];
+        }
+
+        final double[] rank = new double[filters.size()];
+        Integer[] indices = new Integer[filters.size()];
+        for (int f = 0; f < filters.size(); f++) {
+            indices[f] = f;
+            // Expected cost per rejected variant: filters that never reject go last
+            rank[f] = rejected[f] == 0 ? Double.MAX_VALUE : (double) nanos[f] / rejected[f];
+        }
+        Arrays.sort(indices, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer f1, Integer f2) {
+                return Double.compare(rank[f1], rank[f2]);
+            }
+        });
+
+        List<VariantFilter> newOrder = new ArrayList<>(filters.size());
+        for (int f : indices) {
+            newOrder.add(filters.get(f));
+        }
+        order = newOrder.toArray(new VariantFilter[newOrder.size()]);
+    }
 }
@@ -11,12 +11,46 @@ import org.opencb.commons.bioformats.variant.vcf4.VcfRecordCoordinateComparator;
 import org.opencb.commons.bioformats.variant.filters.VariantGeneLevelFilter;
 import org.opencb.commons.bioformats.variant.vcf4.io.writers.VariantWriter;
 import org.opencb.commons.run.Task;
+import org.opencb.variant.lib.filters.VariantCompoundHetFilter;
+import org.opencb.variant.lib.runners.DaemonThreadFactory;
 import org.opencb.variant.lib.runners.VariantRunner;
+import org.opencb.variant.lib.utils.VariantFields;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
+ * Applies gene-level filters, such as compound heterozygosity, to the variants of every gene.
+ * <p/>
+ * By default every batch must hold the variants of one gene, as {@code VariantVcfByGeneReader}
+ * returns them, and the batch is reduced to the variants that pass.
+ * <p/>
+ * In streaming mode ({@link #streaming(boolean)}) the task accepts ordinary coordinate-sorted
+ * batches instead. The variants of every gene are buffered while the gene is open, and the gene
+ * is filtered once the input moves more than {@link #geneGap(long)} bases past its last variant, or
+ * to another chromosome. Variants of other genes, or of none, in between do not close it, since
+ * genes overlap and the variants of an intron may not be annotated with its gene. A variant is
+ * kept if it passes the filters of any of its genes, and it is written, in input order, once all
+ * its genes are closed. Memory is bounded by the variants of the genes open at the same time, not
+ * by the input. Since variants are held back across batches, the output goes to the writer of the
+ * task and the batches are left empty; the genes still open at the end are flushed in
+ * {@link #post()}.
+ * <p/>
+ * Genes are independent, so in streaming mode they can be filtered by a pool of threads
+ * ({@link #parallel(int)}): the genes closed together are submitted largest first, so a long gene
+ * does not end up alone at the tail, and their results are applied back on the thread of the task.
+ * Output order does not change, since a variant is only written once all its genes are decided.
+ * The filters are then called concurrently, each call with the variants of one gene, and must not
+ * keep state between calls. A gene with many variants, such as TTN, would still keep one thread
+ * busy long after the others are done; when the only filter is a {@link VariantCompoundHetFilter}
+ * such a gene is split into blocks of individuals instead, one per thread, and the variants that
+ * pass in any block are kept. Other filters get whole genes.
+ * <p/>
  * Created by parce on 2/27/14.
  */
 public class VariantGeneLevelFilterTask extends Task<Variant>{
@@ -28,6 +62,59 @@ public class VariantGeneLevelFilterTask extends Task<Variant>{
 
     private VariantWriter writer;
 
+    private final BatchMask mask = new BatchMask();
+
+    private boolean streaming = false;
+
+    /**
+     * Variants of the open genes, by gene, in the order the genes were opened
+     */
+    private final Map<String, OpenGene> openGenes = new LinkedHashMap<>();
+
+    private long geneGap = DEFAULT_GENE_GAP;
+
+    /**
+     * Variants in input order from the oldest one not yet decided
+     */
+    private final Deque<PendingVariant> pending = new ArrayDeque<>();
+
+    private final List<Variant> ready = new ArrayList<>();
+
+    private String chromosome;
+
+    private long position;
+
+    /**
+     * Chromosomes already left behind, which must not appear again in sorted input
+     */
+    private final Set<String> passedChromosomes = new HashSet<>();
+
+    private int maxPending;
+
+    private int numThreads = 1;
+
+    private ExecutorService threadPool;
+
+    /**
+     * Genes submitted to the thread pool whose results have not been applied yet
+     */
+    private final List<GeneJob> inFlight = new LinkedList<>();
+
+    /**
+     * Genes in flight per thread before the task waits for the oldest one
+     */
+    private static final int IN_FLIGHT_PER_THREAD = 8;
+
+    /**
+     * Variants of a gene from which it is split into blocks of individuals, when possible
+     */
+    private static final int SPLIT_VARIANTS = 256;
+
+    /**
+     * Default {@link #geneGap(long)}, longer than nearly all introns
+     */
+    public static final long DEFAULT_GENE_GAP = 1000000;
+
     private static final int UNAFFECTED = 1;
 
     private static final int AFFECTED = 2;
@@ -49,174 +136,375 @@ public class VariantGeneLevelFilterTask extends Task<Variant>{
         this.writer = writer;
     }
 
+    /**
+     * @param streaming Whether the input is coordinate-sorted, rather than grouped by gene
+     * @return This task
+     */
+    public VariantGeneLevelFilterTask streaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    /**
+     * @param numThreads Number of threads the genes are filtered by in streaming mode
+     * @return This task
+     */
+    public VariantGeneLevelFilterTask parallel(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        return this;
+    }
+
+    /**
+     * @param geneGap Distance in bases past the last variant of a gene after which, in streaming
+     *                mode, the gene is closed; a variant of the gene further away starts a new group
+     * @return This task
+     */
+    public VariantGeneLevelFilterTask geneGap(long geneGap) {
+        this.geneGap = geneGap;
+        return this;
+    }
+
+    /**
+     * @return Maximum number of variants held back at the same time in streaming mode
+     */
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    @Override
+    public boolean pre() {
+        if (streaming && writer != null) {
+            return writer.open() && writer.pre();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean post() {
+        if (!streaming) {
+            return true;
+        }
+
+        boolean ok = true;
+        try {
+            closeGenes(new ArrayList<>(openGenes.keySet()));
+            resolve(true);
+            flush();
+        } catch (IOException e) {
+            System.err.println("Gene-level filter failed: " + e.getMessage());
+            ok = false;
+        } finally {
+            if (threadPool != null) {
+                threadPool.shutdown();
+            }
+        }
+        if (writer != null) {
+            return writer.post() && writer.close() && ok;
+        }
+        return ok;
+    }
+
     public boolean apply(List<Variant> batch) throws IOException {
-        List<Variant> tempBatch;
+        if (streaming) {
+            applyStreaming(batch);
+            return true;
+        }
+
         for (VariantGeneLevelFilter filter : this.filters) {
-            tempBatch = filter.apply(batch);
-            batch = tempBatch;
+            if (batch.isEmpty()) {
+                break;
+            }
+            List<Variant> passed = filter.apply(batch);
+            if (passed != batch) {
+                retain(batch, passed);
+            }
         }
-        // TODO: hacer que el metodo apply de los filtros filtre directamente sobre el batch de entrada
         return true;
     }
 
-//    // NUEVA VERSION DEL METODO:
-//    // Usamos el reader que va devolviendo batchs de variantes por gen, asi que el batch que recibe este metodo ya son
-//    // las variantes de un unico gen, y podemos pasar directamente al filtro
-//    public boolean apply(List<Variant> batch) throws IOException {
-//        //List<Variant> filteredBatch = new LinkedList<Variant>();
-//        // TODO: cambiar nombre
-//        Set<Variant> preOutputSet = new TreeSet<>(new VcfRecordCoordinateComparator());
-//        // TODO: Hay VcfRecordCoordinateComparator de la clase Variant?
-//        List<Variant> variantsToRemove = null;
-//        List<String> finishedGenes;
-//        List<String> geneNames;
-//        for (Variant variant : batch) {
-//
-//                // filter the variants from finished genes, adding those who pass the filters to the output batch
-//                preOutputSet.addAll(this.applyGeneLevelFilterToFinishedGenes(finishedGenes, geneMap));
-//
-//                // add to the output batch (in coordinate order) the variants that are not in "not finished" genes
-//                boolean found = false;
-//                for (Variant record : preOutputSet) {
-//                    for (List<Variant> geneVariants: geneMap.values()) {
-//                        if (geneVariants.contains(record)) {
-//                            found = true;
-//                            break;
-//                        }
-//                    }
-//                    if (!found) {
-//                        filteredBatch.add(record);
-//                        if (variantsToRemove == null) {
-//                            variantsToRemove = new LinkedList<Variant>();
-//                        }
-//                        variantsToRemove.add(record);
-//                    } else {
-//                        break;
-//                    }
-//                }
-//                // remove the processed variants from the set
-//                if (variantsToRemove != null) {
-//                    preOutputSet.removeAll(variantsToRemove);
-//                    variantsToRemove = null;
-//                }
-//
-//        }
-//        // write the filtered batch
-//        batch.clear();
-//        if (writer != null) {
-//            ((VariantWriter) writer).write(filteredBatch);
-//        }
-//
-//        // TODO: ver si es necesario devolver una variable (true si va bien, false si hay error)
-//        return true;
-//
-//    }
-
-//    public boolean apply(List<Variant> batch) throws IOException {
-//        List<Variant> filteredBatch = new LinkedList<Variant>();
-//        // TODO: cambiar nombre
-//        Set<Variant> preOutputSet = new TreeSet<Variant>(new VcfRecordCoordinateComparator());
-//        // TODO: Hay VcfRecordCoordinateComparator de la clase Variant?
-//        List<Variant> variantsToRemove = null;
-//        List<String> finishedGenes;
-//        List<String> geneNames;
-//        for (Variant variant : batch) {
-//            // check if there are "finished" genes
-//            geneNames = this.variantGeneNames(variant);
-//            finishedGenes = this.finishedGenes(geneNames, geneMap.keySet());
-//            if (finishedGenes != null) {
-//                // filter the variants from finished genes, adding those who pass the filters to the output batch
-//                preOutputSet.addAll(this.applyGeneLevelFilterToFinishedGenes(finishedGenes, geneMap));
-//                // remove the finished genes from the gene map
-//                for (String finishedGene : finishedGenes) {
-//                    geneMap.remove(finishedGene);
-//                }
-//                // add to the output batch (in coordinate order) the variants that are not in "not finished" genes
-//                boolean found = false;
-//                for (Variant record : preOutputSet) {
-//                    for (List<Variant> geneVariants: geneMap.values()) {
-//                        if (geneVariants.contains(record)) {
-//                            found = true;
-//                            break;
-//                        }
-//                    }
-//                    if (!found) {
-//                        filteredBatch.add(record);
-//                        if (variantsToRemove == null) {
-//                            variantsToRemove = new LinkedList<Variant>();
-//                        }
-//                        variantsToRemove.add(record);
-//                    } else {
-//                        break;
-//                    }
-//                }
-//                // remove the processed variants from the set
-//                if (variantsToRemove != null) {
-//                    preOutputSet.removeAll(variantsToRemove);
-//                    variantsToRemove = null;
-//                }
-//            }
-//
-//            // if the variant has one of more gene names, add them to the gene map
-//            if (geneNames != null) {
-//                this.addVariantAndGenes(variant, geneNames);
-//            }
-//        }
-//        // write the filtered batch
-//        batch.clear();
-//        if (writer != null) {
-//            ((VariantWriter) writer).write(filteredBatch);
-//        }
-//
-//        // TODO: el prototipo dice que debe devolver un boolean. Co
-//        return filteredBatch;
-//    }
-
-//
-//    /**
-//     *
-//     * @param finishedGenes
-//     * @param geneMap
-//     * @return
-//     */
-//    private Set<Variant> applyGeneLevelFilterToFinishedGenes(List<Variant> variants) {
-//        Set<Variant> passedVariants = new HashSet<Variant>();
-//        //Map<String, Individual> individuals = this.pedigree.getIndividuals();
-//        for (String gene : finishedGenes) {
-//            passedVariants.addAll(this.filter.apply(geneMap.get(gene)));
-//        }
-//        return passedVariants;
-//    }
-//
-//    /**
-//     * Add the variant and its genes to the geneMap
-//     * @param variant - variant to be added
-//     * @param geneNames - List with one or more Gene names
-//     */
-//    private void addVariantAndGenes(Variant variant, List<String> geneNames) {
-//        List<Variant> variantsFromGene;
-//        for (String geneName : geneNames) {
-//            variantsFromGene = geneMap.get(geneName);
-//            if (variantsFromGene == null) {
-//                // the gene is not in the map, create a new variant list
-//                variantsFromGene = new LinkedList<Variant> ();
-//            }
-//            variantsFromGene.add(variant);
-//            geneMap.put(geneName, variantsFromGene);
-//        }
-//    }
-//
-//    // TODO: este metodo deberia estar en el PED
-//    private Set<String> getIndividualsWithCondition(Condition condition) {
-//        Set<String> filteredIndividualNames = new HashSet<String>();
-//        Map<String, Individual> individuals = this.pedigree.getIndividuals();
-//
-//        for (String individualName : individuals.keySet()) {
-//            if (individuals.get(individualName).getCondition() == condition) {
-//                filteredIndividualNames.add(individualName);
-//            }
-//        }
-//
-//        return filteredIndividualNames;
-//    }
+    /**
+     * Reduces the batch, in place, to the variants returned by a filter.
+     */
+    private void retain(List<Variant> batch, List<Variant> passed) {
+        mask.reset(batch.size());
+
+        // Filters return the variants that pass in batch order, so both lists are walked once
+        Iterator<Variant> passedIterator = passed.iterator();
+        Variant next = passedIterator.hasNext() ? passedIterator.next() : null;
+        int i = 0;
+        for (Variant variant : batch) {
+            if (variant == next) {
+                mask.set(i);
+                next = passedIterator.hasNext() ? passedIterator.next() : null;
+            }
+            i++;
+        }
+
+        if (next != null) {
+            // Not in batch order after all
+            Set<Variant> passedSet = Collections.newSetFromMap(new IdentityHashMap<Variant, Boolean>());
+            passedSet.addAll(passed);
+            mask.reset(batch.size());
+            i = 0;
+            for (Variant variant : batch) {
+                if (passedSet.contains(variant)) {
+                    mask.set(i);
+                }
+                i++;
+            }
+        }
+
+        mask.compact(batch);
+    }
+
+    private void applyStreaming(List<Variant> batch) throws IOException {
+        List<String> finished = new ArrayList<>();
+        for (Variant variant : batch) {
+            List<String> genes = VariantFields.getGenes(variant);
+
+            boolean newChromosome = !variant.getChromosome().equals(chromosome);
+            if (newChromosome ? passedChromosomes.contains(variant.getChromosome()) : variant.getPosition() < position) {
+                // Genes would be split, and their variants filtered apart
+                throw new IOException("Input is not sorted by coordinate at " + variant.getChromosome() + ":"
+                        + variant.getPosition() + ", gene-level filters need sorted input (use --sort)");
+            }
+            if (newChromosome && chromosome != null) {
+                passedChromosomes.add(chromosome);
+            }
+            chromosome = variant.getChromosome();
+            position = variant.getPosition();
+            for (Map.Entry<String, OpenGene> openGene : openGenes.entrySet()) {
+                if (newChromosome || position - openGene.getValue().end > geneGap) {
+                    finished.add(openGene.getKey());
+                }
+            }
+            if (!finished.isEmpty()) {
+                closeGenes(finished);
+                finished.clear();
+            }
+
+            // Intergenic variants cannot pass a gene-level filter
+            if (genes.isEmpty()) {
+                continue;
+            }
+
+            PendingVariant pendingVariant = new PendingVariant(variant, genes.size());
+            pending.add(pendingVariant);
+            for (String gene : genes) {
+                OpenGene openGene = openGenes.get(gene);
+                if (openGene == null) {
+                    openGene = new OpenGene();
+                    openGenes.put(gene, openGene);
+                }
+                openGene.variants.add(pendingVariant);
+                openGene.end = position;
+            }
+        }
+        maxPending = Math.max(maxPending, pending.size());
+
+        batch.clear();
+        resolve(false);
+        flush();
+    }
+
+    /**
+     * Applies the filters to the variants of the genes, which are then forgotten. With more than
+     * one thread the genes are only submitted, and their results applied by {@link #resolve}.
+     */
+    private void closeGenes(List<String> genes) {
+        List<GeneJob> jobs = new ArrayList<>(genes.size());
+        for (String gene : genes) {
+            OpenGene openGene = openGenes.remove(gene);
+            if (openGene != null) {
+                jobs.add(new GeneJob(openGene.variants));
+            }
+        }
+
+        if (numThreads <= 1) {
+            for (GeneJob job : jobs) {
+                job.apply(job.call());
+            }
+            return;
+        }
+
+        Collections.sort(jobs, new Comparator<GeneJob>() {
+            @Override
+            public int compare(GeneJob job1, GeneJob job2) {
+                return Integer.compare(job2.variants.size(), job1.variants.size());
+            }
+        });
+        ExecutorService pool = getThreadPool();
+        for (GeneJob job : jobs) {
+            submit(job, pool);
+            inFlight.add(job);
+        }
+    }
+
+    private void submit(GeneJob job, ExecutorService pool) {
+        if (job.variants.size() < SPLIT_VARIANTS || filters.size() != 1
+                || !(filters.get(0) instanceof VariantCompoundHetFilter)
+                || ((VariantCompoundHetFilter) filters.get(0)).words() < 2) {
+            job.result = pool.submit(job);
+            return;
+        }
+
+        final VariantCompoundHetFilter filter = (VariantCompoundHetFilter) filters.get(0);
+        final List<Variant> gene = job.getVariants();
+        int words = filter.words();
+        int blocks = Math.min(numThreads, words);
+        job.filter = filter;
+        job.blocks = new ArrayList<>(blocks);
+        for (int b = 0; b < blocks; b++) {
+            final int fromWord = words * b / blocks;
+            final int toWord = words * (b + 1) / blocks;
+            job.blocks.add(pool.submit(new Callable<VariantCompoundHetFilter.Carriers>() {
+                @Override
+                public VariantCompoundHetFilter.Carriers call() {
+                    return filter.carriers(gene, fromWord, toWord);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Applies the results of the genes already filtered by the thread pool.
+     *
+     * @param all Whether to wait for all the genes in flight, rather than only for the oldest
+     *            ones while there are too many
+     */
+    private void resolve(boolean all) throws IOException {
+        int limit = all ? 0 : IN_FLIGHT_PER_THREAD * numThreads;
+        try {
+            Iterator<GeneJob> iterator = inFlight.iterator();
+            while (iterator.hasNext()) {
+                GeneJob job = iterator.next();
+                if (job.isDone() || inFlight.size() > limit) {
+                    job.apply(job.get());
+                    iterator.remove();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private synchronized ExecutorService getThreadPool() {
+        if (threadPool == null) {
+            threadPool = Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory("gene-filter"));
+        }
+        return threadPool;
+    }
+
+    /**
+     * Writes, in input order, the leading variants whose genes are all closed.
+     */
+    private void flush() {
+        while (!pending.isEmpty() && pending.peek().openGenes == 0) {
+            PendingVariant pendingVariant = pending.poll();
+            if (pendingVariant.passed) {
+                ready.add(pendingVariant.variant);
+            }
+        }
+
+        if (!ready.isEmpty()) {
+            if (writer != null) {
+                writer.write(ready);
+            }
+            ready.clear();
+        }
+    }
+
+    /**
+     * Filtering of the variants of one gene. It runs on any thread, or split into blocks of
+     * individuals on several, and only reads the variants; the result is applied to them on the
+     * thread of the task.
+     */
+    private class GeneJob implements Callable<Set<Variant>> {
+        private final List<PendingVariant> variants;
+        private Future<Set<Variant>> result;
+        private VariantCompoundHetFilter filter;
+        private List<Future<VariantCompoundHetFilter.Carriers>> blocks;
+
+        private GeneJob(List<PendingVariant> variants) {
+            this.variants = variants;
+        }
+
+        private List<Variant> getVariants() {
+            List<Variant> gene = new ArrayList<>(variants.size());
+            for (PendingVariant pendingVariant : variants) {
+                gene.add(pendingVariant.variant);
+            }
+            return gene;
+        }
+
+        @Override
+        public Set<Variant> call() {
+            List<Variant> passed = getVariants();
+            for (VariantGeneLevelFilter filter : filters) {
+                if (passed.isEmpty()) {
+                    break;
+                }
+                passed = filter.apply(passed);
+            }
+            return toSet(passed);
+        }
+
+        private boolean isDone() {
+            if (blocks == null) {
+                return result.isDone();
+            }
+            for (Future<VariantCompoundHetFilter.Carriers> block : blocks) {
+                if (!block.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return The variants that pass, adding up the blocks of a split gene
+         */
+        private Set<Variant> get() throws InterruptedException, ExecutionException {
+            if (blocks == null) {
+                return result.get();
+            }
+            VariantCompoundHetFilter.Carriers carriers = new VariantCompoundHetFilter.Carriers();
+            for (Future<VariantCompoundHetFilter.Carriers> block : blocks) {
+                carriers.or(block.get());
+            }
+            return toSet(filter.passed(getVariants(), carriers));
+        }
+
+        private Set<Variant> toSet(List<Variant> passed) {
+            Set<Variant> passedSet = Collections.newSetFromMap(new IdentityHashMap<Variant, Boolean>());
+            passedSet.addAll(passed);
+            return passedSet;
+        }
+
+        private void apply(Set<Variant> passedSet) {
+            for (PendingVariant pendingVariant : variants) {
+                pendingVariant.passed |= passedSet.contains(pendingVariant.variant);
+                pendingVariant.openGenes--;
+            }
+        }
+    }
+
+    private static class OpenGene {
+        private final List<PendingVariant> variants = new ArrayList<>();
+        private long end;
+    }
+
+    private static class PendingVariant {
+        private final Variant variant;
+        private int openGenes;
+        private boolean passed;
+
+        private PendingVariant(Variant variant, int openGenes) {
+            this.variant = variant;
+            this.openGenes = openGenes;
+        }
+    }
 }
@@ -8,53 +8,88 @@ import org.opencb.commons.bioformats.variant.utils.stats.VariantStats;
 import org.opencb.commons.bioformats.variant.utils.stats.VariantStatsWrapper;
 import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantReader;
 import org.opencb.commons.run.Task;
+import org.opencb.variant.lib.runners.ParallelTaskEngine;
+import org.opencb.variant.lib.stats.VariantStatsCounter;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
 /**
+ * Statistics of the variants, samples and (with a pedigree) groups of a study.
+ * <p/>
+ * Batches can be processed at the same time: every thread adds its batches up in its own
+ * {@link VariantStatsWrapper}, and the partial results are combined with {@link #merge} in
+ * {@link #post()}. The counts are sums, so the result does not depend on how the batches were
+ * split among the threads, and with a single thread its wrapper is the result as is. The statistics
+ * of every variant, in the study and within each group, are those of the last batch, so they are
+ * taken from the thread that processed the last batch of the input (see
+ * {@link ParallelTaskEngine#currentBatch()}).
+ * <p/>
+ * The statistics of a batch are worked out by a {@link VariantStatsCounter} per thread, which reads
+ * every genotype once for the variant, sample and group statistics together.
+ *
  * @author Alejandro Aleman Ramos <aaleman@cipf.es>
  */
-public class VariantStatsTask extends Task<Variant> {
+public class VariantStatsTask extends Task<Variant> implements ParallelTask {
 
     private VariantReader reader;
     private VariantStudy study;
     private VariantStatsWrapper stats;
+    private final List<Partial> partials = new ArrayList<>();
+    private final ThreadLocal<Partial> partial = new ThreadLocal<Partial>() {
+        @Override
+        protected Partial initialValue() {
+            Partial partial = new Partial();
+            synchronized (partials) {
+                partials.add(partial);
+            }
+            return partial;
+        }
+    };
 
     public VariantStatsTask(VariantReader reader, VariantStudy study) {
         super();
         this.reader = reader;
         this.study = study;
-        stats = new VariantStatsWrapper();
-
     }
 
     public VariantStatsTask(VariantReader reader, VariantStudy study, int priority) {
         super(priority);
         this.reader = reader;
         this.study = study;
-        stats = new VariantStatsWrapper();
-
     }
 
     @Override
     public boolean apply(List<Variant> batch) throws IOException {
+        Partial partial = this.partial.get();
+        partial.lastBatch = ParallelTaskEngine.currentBatch();
+        if (partial.counter == null) {
+            partial.counter = new VariantStatsCounter(reader.getSampleNames(), study.getPedigree());
+        }
+        VariantStatsCounter counter = partial.counter;
+        counter.count(batch);
+
+        VariantStatsWrapper stats = partial.stats;
+        List<VariantStats> variantStats = counter.getVariantStats();
 
         stats.setSampleNames(reader.getSampleNames());
-        stats.setVariantStats(StatsCalculator.variantStats(batch, reader.getSampleNames(), study.getPedigree()));
-        stats.addGlobalStats(StatsCalculator.globalStats(stats.getVariantStats()));
-        stats.addSampleStats(StatsCalculator.sampleStats(batch, reader.getSampleNames(), study.getPedigree()));
+        stats.setVariantStats(variantStats);
+        stats.addGlobalStats(StatsCalculator.globalStats(variantStats));
+        stats.addSampleStats(counter.getSampleStats());
 
         if (study.getPedigree() != null) {
-            stats.addGroupStats("phenotype", StatsCalculator.groupStats(batch, study.getPedigree(), "phenotype"));
-            stats.addGroupStats("family", StatsCalculator.groupStats(batch, study.getPedigree(), "family"));
-            stats.addSampleGroupStats("phenotype", StatsCalculator.sampleGroupStats(batch, study.getPedigree(), "phenotype"));
-            stats.addSampleGroupStats("family", StatsCalculator.sampleGroupStats(batch, study.getPedigree(), "family"));
+            stats.addGroupStats("phenotype", counter.getGroupStats(VariantStatsCounter.PHENOTYPE));
+            stats.addGroupStats("family", counter.getGroupStats(VariantStatsCounter.FAMILY));
+            stats.addSampleGroupStats("phenotype", counter.getSampleGroupStats(VariantStatsCounter.PHENOTYPE));
+            stats.addSampleGroupStats("family", counter.getSampleGroupStats(VariantStatsCounter.FAMILY));
         }
 
         Iterator<Variant> variantIterator = batch.iterator();
-        Iterator<VariantStats> statsIterator = stats.getVariantStats().iterator();
+        Iterator<VariantStats> statsIterator = variantStats.iterator();
 
         while (variantIterator.hasNext() && statsIterator.hasNext()) {
             variantIterator.next().setStats(statsIterator.next());
@@ -64,9 +99,85 @@ public class VariantStatsTask extends Task<Variant> {
         return true;
     }
 
+    /**
+     * @return Statistics of all the batches, combined once {@link #post()} is called
+     */
+    public VariantStatsWrapper getStats() {
+        return stats != null ? stats : combine();
+    }
+
+    private VariantStatsWrapper combine() {
+        List<VariantStatsWrapper> threads = new ArrayList<>();
+        for (Partial partial : sortedPartials()) {
+            threads.add(partial.stats);
+        }
+        if (threads.isEmpty()) {
+            return new VariantStatsWrapper();
+        } else if (threads.size() == 1) {
+            return threads.get(0);
+        }
+        VariantStatsWrapper merged = merge(threads, study.getPedigree() != null);
+        merged.setSampleNames(reader.getSampleNames());
+        return merged;
+    }
+
+    /**
+     * @return The results of every thread, the one that processed the last batch of the input last
+     */
+    private List<Partial> sortedPartials() {
+        List<Partial> sorted;
+        synchronized (partials) {
+            sorted = new ArrayList<>(partials);
+        }
+        Collections.sort(sorted, new Comparator<Partial>() {
+            @Override
+            public int compare(Partial a, Partial b) {
+                return Integer.compare(a.lastBatch, b.lastBatch);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Combine the statistics of several tasks that processed disjoint parts of the same study.
+     * Partial results are added up exactly as the batches of a single task are, and the statistics
+     * of every variant of the last batch, in the study and within each group, are those of the last
+     * part.
+     *
+     * @param partials Statistics of each part, in input order
+     * @param groups   Whether to combine the per-group statistics (only present when the study has
+     *                 a pedigree)
+     * @return Combined statistics
+     */
+    public static VariantStatsWrapper merge(List<VariantStatsWrapper> partials, boolean groups) {
+        VariantStatsWrapper merged = new VariantStatsWrapper();
+        VariantStatsWrapper last = null;
+        for (VariantStatsWrapper partial : partials) {
+            if (partial.getFinalSampleStats() == null) {
+                continue;   // This part had no variants
+            }
+            merged.addGlobalStats(partial.getFinalGlobalStats());
+            merged.addSampleStats(partial.getFinalSampleStats());
+            if (groups) {
+                merged.addSampleGroupStats("phenotype", partial.getFinalSampleGroupStat("phenotype"));
+                merged.addSampleGroupStats("family", partial.getFinalSampleGroupStat("family"));
+            }
+            last = partial;
+        }
+
+        if (last != null) {
+            merged.setVariantStats(last.getVariantStats());
+            if (groups) {
+                merged.addGroupStats("phenotype", last.getGroupStats("phenotype"));
+                merged.addGroupStats("family", last.getGroupStats("family"));
+            }
+        }
+        return merged;
+    }
+
     @Override
     public boolean post() {
-
+        stats = combine();
         VariantGlobalStats finalGlobalStats = stats.getFinalGlobalStats();
 
         study.setStats(finalGlobalStats);
@@ -74,4 +185,13 @@ public class VariantStatsTask extends Task<Variant> {
         return true;
 
     }
+
+    /**
+     * What one thread has added up, and where the last batch it processed comes in the input
+     */
+    private static class Partial {
+        private final VariantStatsWrapper stats = new VariantStatsWrapper();
+        private VariantStatsCounter counter;
+        private int lastBatch = -1;
+    }
 }
@@ -0,0 +1,481 @@
+package org.opencb.variant.lib.stats;
+
+import org.opencb.commons.bioformats.pedigree.Condition;
+import org.opencb.commons.bioformats.pedigree.Individual;
+import org.opencb.commons.bioformats.pedigree.Pedigree;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.utils.stats.SampleStats;
+import org.opencb.commons.bioformats.variant.utils.stats.VariantGroupStats;
+import org.opencb.commons.bioformats.variant.utils.stats.VariantSampleGroupStats;
+import org.opencb.commons.bioformats.variant.utils.stats.VariantSampleStats;
+import org.opencb.commons.bioformats.variant.utils.stats.VariantStats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statistics of the variants, samples and sample groups of a batch, worked out in a single walk over
+ * the genotypes of every variant.
+ * <p/>
+ * {@code StatsCalculator} walks a batch once for the variant statistics, once for the samples and
+ * twice for every kind of group. Here every genotype is read once and counted for the study, for its
+ * phenotype group and its family and for its sample at the same time. Samples, groups and parents
+ * are turned into array indexes when the counter is created, so a genotype only costs a few array
+ * increments, and the statistics of a variant are built from its counts once all its genotypes have
+ * been read.
+ * <p/>
+ * The results are those of the last batch passed to {@link #count}. Phenotype groups are named after
+ * the condition of the individuals, families after their family. A counter is not thread-safe, use
+ * one per thread.
+ */
+public class VariantStatsCounter {
+
+    public static final String PHENOTYPE = "phenotype";
+    public static final String FAMILY = "family";
+
+    private static final int CASE = 1;
+    private static final int CONTROL = 2;
+
+    // Counts of a group after those of its alleles and genotypes
+    private static final int MISSING_ALLELES = 0;
+    private static final int MISSING_GENOTYPES = 1;
+    private static final int MENDELIAN_ERRORS = 2;
+    private static final int CASES = 3;
+    private static final int CASES_DOMINANT = 4;
+    private static final int CASES_RECESSIVE = 5;
+    private static final int CONTROLS = 6;
+    private static final int CONTROLS_DOMINANT = 7;
+    private static final int CONTROLS_RECESSIVE = 8;
+    private static final int EXTRA_COUNTS = 9;
+
+    private final List<String> sampleNames;
+    private final List<String> phenotypes;
+    private final List<String> families;
+    private final int[] phenotypeOf;
+    private final int[] familyOf;
+    private final int[] conditions;
+    private final int[] children;
+    private final int[] fathers;
+    private final int[] mothers;
+
+    private final int[] firsts;
+    private final int[] seconds;
+    private final int[] ploidies;
+    private int[] counts = new int[0];
+
+    private List<VariantStats> variantStats = new ArrayList<>();
+    private final List<List<VariantStats>> phenotypeStats = new ArrayList<>();
+    private final List<List<VariantStats>> familyStats = new ArrayList<>();
+    private final int[] missingGenotypes;
+    private final int[] homozygotes;
+    private final int[] mendelianErrors;
+
+    /**
+     * @param sampleNames Samples of the study, in the order of the input
+     * @param pedigree    Condition, family and parents of the samples, or null
+     */
+    public VariantStatsCounter(List<String> sampleNames, Pedigree pedigree) {
+        this.sampleNames = new ArrayList<>(sampleNames);
+        int samples = sampleNames.size();
+
+        Map<String, Integer> indices = new HashMap<>(2 * samples);
+        for (int s = 0; s < samples; s++) {
+            indices.put(sampleNames.get(s), s);
+        }
+
+        Map<String, Integer> phenotypeIndices = new LinkedHashMap<>();
+        Map<String, Integer> familyIndices = new LinkedHashMap<>();
+        phenotypeOf = new int[samples];
+        familyOf = new int[samples];
+        conditions = new int[samples];
+        int[] children = new int[samples];
+        int[] fathers = new int[samples];
+        int[] mothers = new int[samples];
+        int trios = 0;
+        for (int s = 0; s < samples; s++) {
+            Individual individual = pedigree == null || pedigree.getIndividuals() == null
+                    ? null : pedigree.getIndividuals().get(sampleNames.get(s));
+            if (individual == null) {
+                phenotypeOf[s] = -1;
+                familyOf[s] = -1;
+                continue;
+            }
+            phenotypeOf[s] = group(phenotypeIndices, String.valueOf(individual.getCondition()));
+            familyOf[s] = group(familyIndices, individual.getFamily());
+            conditions[s] = individual.getCondition() == Condition.AFFECTED ? CASE
+                    : individual.getCondition() == Condition.UNAFFECTED ? CONTROL : 0;
+
+            Integer father = individual.getFather() == null ? null : indices.get(individual.getFather().getId());
+            Integer mother = individual.getMother() == null ? null : indices.get(individual.getMother().getId());
+            if (father != null && mother != null) {
+                children[trios] = s;
+                fathers[trios] = father;
+                mothers[trios] = mother;
+                trios++;
+            }
+        }
+        this.phenotypes = new ArrayList<>(phenotypeIndices.keySet());
+        this.families = new ArrayList<>(familyIndices.keySet());
+        this.children = Arrays.copyOf(children, trios);
+        this.fathers = Arrays.copyOf(fathers, trios);
+        this.mothers = Arrays.copyOf(mothers, trios);
+
+        firsts = new int[samples];
+        seconds = new int[samples];
+        ploidies = new int[samples];
+        missingGenotypes = new int[samples];
+        homozygotes = new int[samples];
+        mendelianErrors = new int[samples];
+    }
+
+    private static int group(Map<String, Integer> groups, String name) {
+        Integer index = groups.get(name);
+        if (index == null) {
+            index = groups.size();
+            groups.put(name, index);
+        }
+        return index;
+    }
+
+    /**
+     * Work out the statistics of a batch, replacing those of the previous one.
+     */
+    public void count(List<Variant> batch) {
+        int samples = sampleNames.size();
+        // The counts of a variant are laid out for the whole study, then every phenotype and family
+        int groups = 1 + phenotypes.size() + families.size();
+        int familyBase = 1 + phenotypes.size();
+
+        variantStats = new ArrayList<>(batch.size());
+        phenotypeStats.clear();
+        for (int p = 0; p < phenotypes.size(); p++) {
+            phenotypeStats.add(new ArrayList<VariantStats>(batch.size()));
+        }
+        familyStats.clear();
+        for (int f = 0; f < families.size(); f++) {
+            familyStats.add(new ArrayList<VariantStats>(batch.size()));
+        }
+        Arrays.fill(missingGenotypes, 0);
+        Arrays.fill(homozygotes, 0);
+        Arrays.fill(mendelianErrors, 0);
+
+        for (Variant variant : batch) {
+            String[] alternates = variant.getAlternate().split(",");
+            int alleles = alternates.length + 1;
+            int extra = alleles + alleles * (alleles + 1) / 2;
+            int size = extra + EXTRA_COUNTS;
+            counts = clear(counts, groups * size);
+
+            for (int s = 0; s < samples; s++) {
+                decode(variant.getSampleData(sampleNames.get(s), "GT"), alleles, s);
+                count(0, alleles, s);
+                if (phenotypeOf[s] >= 0) {
+                    count((1 + phenotypeOf[s]) * size, alleles, s);
+                }
+                if (familyOf[s] >= 0) {
+                    count((familyBase + familyOf[s]) * size, alleles, s);
+                }
+
+                if (firsts[s] < 0 || seconds[s] < 0) {
+                    missingGenotypes[s]++;
+                } else if (firsts[s] == seconds[s]) {
+                    homozygotes[s]++;
+                }
+            }
+
+            for (int t = 0; t < children.length; t++) {
+                int child = children[t];
+                if (!isMendelianError(child, fathers[t], mothers[t])) {
+                    continue;
+                }
+                mendelianErrors[child]++;
+                counts[extra + MENDELIAN_ERRORS]++;
+                int phenotype = phenotypeOf[child];
+                if (phenotype == phenotypeOf[fathers[t]] && phenotype == phenotypeOf[mothers[t]]) {
+                    counts[(1 + phenotype) * size + extra + MENDELIAN_ERRORS]++;
+                }
+                int family = familyOf[child];
+                if (family == familyOf[fathers[t]] && family == familyOf[mothers[t]]) {
+                    counts[(familyBase + family) * size + extra + MENDELIAN_ERRORS]++;
+                }
+            }
+
+            boolean indel = false;
+            for (String alternate : alternates) {
+                indel |= alternate.length() != variant.getReference().length();
+            }
+            variantStats.add(stats(variant, alternates, indel, 0));
+            for (int p = 0; p < phenotypes.size(); p++) {
+                phenotypeStats.get(p).add(stats(variant, alternates, indel, (1 + p) * size));
+            }
+            for (int f = 0; f < families.size(); f++) {
+                familyStats.get(f).add(stats(variant, alternates, indel, (familyBase + f) * size));
+            }
+        }
+    }
+
+    private static int[] clear(int[] counts, int length) {
+        if (counts.length < length) {
+            return new int[length];
+        }
+        Arrays.fill(counts, 0, length, 0);
+        return counts;
+    }
+
+    /**
+     * Read the alleles of a genotype such as 0/1, 1|2, ./. or a haploid 1 into the arrays of the
+     * sample, -1 for a missing allele or one the variant does not have. A haploid genotype is read as
+     * homozygous.
+     */
+    private void decode(String genotype, int alleles, int sample) {
+        int first = -1;
+        int second = -1;
+        int ploidy = 0;
+        if (genotype == null) {
+            ploidy = 2;
+        } else {
+            int allele = -1;
+            for (int i = 0, length = genotype.length(); i <= length; i++) {
+                char c = i < length ? genotype.charAt(i) : '/';
+                if (c >= '0' && c <= '9') {
+                    allele = (allele < 0 ? 0 : allele * 10) + (c - '0');
+                } else if (c == '/' || c == '|') {
+                    if (allele >= alleles) {
+                        allele = -1;
+                    }
+                    if (ploidy == 0) {
+                        first = allele;
+                    } else if (ploidy == 1) {
+                        second = allele;
+                    }
+                    ploidy++;
+                    allele = -1;
+                }
+            }
+            if (ploidy == 1) {
+                second = first;
+            }
+        }
+        firsts[sample] = first;
+        seconds[sample] = second;
+        ploidies[sample] = ploidy;
+    }
+
+    /**
+     * Count the genotype of a sample in the group whose counts start at {@code offset}
+     */
+    private void count(int offset, int alleles, int sample) {
+        int first = firsts[sample];
+        int second = seconds[sample];
+        int extra = offset + alleles + alleles * (alleles + 1) / 2;
+
+        counts[first < 0 ? extra + MISSING_ALLELES : offset + first]++;
+        if (ploidies[sample] > 1) {
+            counts[second < 0 ? extra + MISSING_ALLELES : offset + second]++;
+        }
+        if (first < 0 || second < 0) {
+            counts[extra + MISSING_GENOTYPES]++;
+            return;
+        }
+        int low = Math.min(first, second);
+        int high = Math.max(first, second);
+        counts[offset + alleles + high * (high + 1) / 2 + low]++;
+
+        if (conditions[sample] == CASE) {
+            counts[extra + CASES]++;
+            counts[extra + CASES_DOMINANT] += high > 0 ? 1 : 0;
+            counts[extra + CASES_RECESSIVE] += low > 0 ? 1 : 0;
+        } else if (conditions[sample] == CONTROL) {
+            counts[extra + CONTROLS]++;
+            counts[extra + CONTROLS_DOMINANT] += high > 0 ? 1 : 0;
+            counts[extra + CONTROLS_RECESSIVE] += low > 0 ? 1 : 0;
+        }
+    }
+
+    /**
+     * @return Whether a called child genotype cannot have one allele from each called parent
+     */
+    private boolean isMendelianError(int child, int father, int mother) {
+        if (firsts[child] < 0 || seconds[child] < 0 || firsts[father] < 0 || seconds[father] < 0
+                || firsts[mother] < 0 || seconds[mother] < 0) {
+            return false;
+        }
+        return !(inherits(firsts[child], father) && inherits(seconds[child], mother))
+                && !(inherits(seconds[child], father) && inherits(firsts[child], mother));
+    }
+
+    private boolean inherits(int allele, int parent) {
+        return allele == firsts[parent] || allele == seconds[parent];
+    }
+
+    /**
+     * Statistics of a variant from the counts of the group that start at {@code offset}
+     */
+    private VariantStats stats(Variant variant, String[] alternates, boolean indel, int offset) {
+        int alleles = alternates.length + 1;
+        int extra = offset + alleles + alleles * (alleles + 1) / 2;
+        int[] allelesCount = Arrays.copyOfRange(counts, offset, offset + alleles);
+        int[] genotypesCount = Arrays.copyOfRange(counts, offset + alleles, extra);
+        float[] allelesFreq = frequencies(allelesCount);
+        float[] genotypesFreq = frequencies(genotypesCount);
+
+        VariantStats stats = new VariantStats();
+        stats.setChromosome(variant.getChromosome());
+        stats.setPosition(variant.getPosition());
+        stats.setRefAlleles(variant.getReference());
+        stats.setAltAlleles(alternates);
+        stats.setNumAlleles(alleles);
+        stats.setAllelesCount(allelesCount);
+        stats.setGenotypesCount(genotypesCount);
+        stats.setAllelesFreq(allelesFreq);
+        stats.setGenotypesFreq(genotypesFreq);
+
+        int maf = 0;
+        for (int a = 1; a < alleles; a++) {
+            if (allelesFreq[a] < allelesFreq[maf]) {
+                maf = a;
+            }
+        }
+        stats.setMaf(allelesFreq[maf]);
+        stats.setMafAllele(maf == 0 ? variant.getReference() : alternates[maf - 1]);
+
+        // Genotypes are in VCF order, 0/0, 0/1, 1/1, 0/2, 1/2, 2/2...
+        String mgfGenotype = "0/0";
+        float mgf = genotypesFreq[0];
+        for (int high = 0, g = 0; high < alleles; high++) {
+            for (int low = 0; low <= high; low++, g++) {
+                if (genotypesFreq[g] < mgf) {
+                    mgf = genotypesFreq[g];
+                    mgfGenotype = low + "/" + high;
+                }
+            }
+        }
+        stats.setMgf(mgf);
+        stats.setMgfAllele(mgfGenotype);
+
+        stats.setMissingAlleles(counts[extra + MISSING_ALLELES]);
+        stats.setMissingGenotypes(counts[extra + MISSING_GENOTYPES]);
+        stats.setMendelinanErrors(counts[extra + MENDELIAN_ERRORS]);
+        stats.setIndel(indel);
+        stats.setCasesPercentDominant(percent(counts[extra + CASES_DOMINANT], counts[extra + CASES]));
+        stats.setCasesPercentRecessive(percent(counts[extra + CASES_RECESSIVE], counts[extra + CASES]));
+        stats.setControlsPercentDominant(percent(counts[extra + CONTROLS_DOMINANT], counts[extra + CONTROLS]));
+        stats.setControlsPercentRecessive(percent(counts[extra + CONTROLS_RECESSIVE], counts[extra + CONTROLS]));
+        return stats;
+    }
+
+    private static float[] frequencies(int[] counts) {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        float[] frequencies = new float[counts.length];
+        for (int i = 0; total > 0 && i < counts.length; i++) {
+            frequencies[i] = (float) counts[i] / total;
+        }
+        return frequencies;
+    }
+
+    private static float percent(int count, int total) {
+        return total == 0 ? 0 : 100f * count / total;
+    }
+
+    public List<String> getSampleNames() {
+        return sampleNames;
+    }
+
+    /**
+     * @return Conditions of the samples in the pedigree, in order of appearance
+     */
+    public List<String> getPhenotypes() {
+        return phenotypes;
+    }
+
+    /**
+     * @return Families of the samples in the pedigree, in order of appearance
+     */
+    public List<String> getFamilies() {
+        return families;
+    }
+
+    /**
+     * @return Statistics of every variant of the last batch in the whole study
+     */
+    public List<VariantStats> getVariantStats() {
+        return variantStats;
+    }
+
+    /**
+     * @return Statistics of every sample in the last batch
+     */
+    public VariantSampleStats getSampleStats() {
+        return sampleStats(null, -1);
+    }
+
+    /**
+     * @param group {@link #PHENOTYPE} or {@link #FAMILY}
+     * @return Statistics of every variant of the last batch within each group
+     */
+    public VariantGroupStats getGroupStats(String group) {
+        List<String> names = names(group);
+        List<List<VariantStats>> stats = PHENOTYPE.equals(group) ? phenotypeStats : familyStats;
+        Map<String, List<VariantStats>> map = new LinkedHashMap<>();
+        for (int g = 0; g < names.size(); g++) {
+            map.put(names.get(g), stats.get(g));
+        }
+        VariantGroupStats groupStats = new VariantGroupStats();
+        groupStats.setGroup(group);
+        groupStats.setVariantStats(map);
+        return groupStats;
+    }
+
+    /**
+     * @param group {@link #PHENOTYPE} or {@link #FAMILY}
+     * @return Statistics of the samples of each group in the last batch
+     */
+    public VariantSampleGroupStats getSampleGroupStats(String group) {
+        List<String> names = names(group);
+        int[] groupOf = PHENOTYPE.equals(group) ? phenotypeOf : familyOf;
+        Map<String, VariantSampleStats> map = new LinkedHashMap<>();
+        for (int g = 0; g < names.size(); g++) {
+            map.put(names.get(g), sampleStats(groupOf, g));
+        }
+        VariantSampleGroupStats groupStats = new VariantSampleGroupStats();
+        groupStats.setGroup(group);
+        groupStats.setSampleStats(map);
+        return groupStats;
+    }
+
+    private List<String> names(String group) {
+        if (PHENOTYPE.equals(group)) {
+            return phenotypes;
+        } else if (FAMILY.equals(group)) {
+            return families;
+        }
+        throw new IllegalArgumentException("Unknown group " + group);
+    }
+
+    /**
+     * @return Statistics of the samples in a group, or of all of them if {@code groupOf} is null
+     */
+    private VariantSampleStats sampleStats(int[] groupOf, int group) {
+        Map<String, SampleStats> map = new LinkedHashMap<>();
+        for (int s = 0; s < sampleNames.size(); s++) {
+            if (groupOf != null && groupOf[s] != group) {
+                continue;
+            }
+            SampleStats stats = new SampleStats(sampleNames.get(s));
+            stats.setMissingGenotypes(missingGenotypes[s]);
+            stats.setHomozygotesNumber(homozygotes[s]);
+            stats.setMendelianErrors(mendelianErrors[s]);
+            map.put(sampleNames.get(s), stats);
+        }
+        VariantSampleStats sampleStats = new VariantSampleStats();
+        sampleStats.setSamplesStats(map);
+        return sampleStats;
+    }
+}
@@ -0,0 +1,111 @@
+package org.opencb.variant.lib.utils;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.utils.effect.VariantEffect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access to the fields of a {@link Variant} that are not plain getters: the QUAL and FILTER
+ * columns and the INFO values, which the VCF reader keeps as attributes, and the genes and
+ * consequence types, which may come from the INFO column or from the predicted effects.
+ */
+public final class VariantFields {
+
+    public static final String QUAL = "QUAL";
+    public static final String FILTER = "FILTER";
+    /**
+     * INFO key with the gene names of a variant, used when it has no predicted effects
+     */
+    public static final String GENE_KEY = "GN";
+
+    private VariantFields() {
+    }
+
+    /**
+     * @return The attribute, or null if the variant does not have it
+     */
+    public static String getAttribute(Variant variant, String key) {
+        Map<String, String> attributes = variant.getAttributes();
+        return attributes == null ? null : attributes.get(key);
+    }
+
+    /**
+     * @return The attribute as a number, or NaN if the variant does not have it or it is not
+     * numeric
+     */
+    public static double getNumber(Variant variant, String key) {
+        return parseNumber(getAttribute(variant, key));
+    }
+
+    public static double getQuality(Variant variant) {
+        return getNumber(variant, QUAL);
+    }
+
+    public static String getFilter(Variant variant) {
+        return getAttribute(variant, FILTER);
+    }
+
+    /**
+     * @return The predicted effects of the variant, never null
+     */
+    public static List<VariantEffect> getEffects(Variant variant) {
+        List<VariantEffect> effects = variant.getEffect();
+        return effects == null ? Collections.<VariantEffect>emptyList() : effects;
+    }
+
+    /**
+     * @return The first gene of the variant, from its {@link #GENE_KEY} attribute or else from
+     * its effects, or null if it is intergenic
+     */
+    public static String getGene(Variant variant) {
+        String genes = getAttribute(variant, GENE_KEY);
+        if (genes != null && !genes.isEmpty() && !".".equals(genes)) {
+            int comma = genes.indexOf(',');
+            return comma < 0 ? genes : genes.substring(0, comma);
+        }
+        for (VariantEffect effect : getEffects(variant)) {
+            if (effect.getGeneName() != null && !effect.getGeneName().isEmpty()) {
+                return effect.getGeneName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return All the genes of the variant, from its {@link #GENE_KEY} attribute and its effects,
+     * without duplicates; empty if it is intergenic
+     */
+    public static List<String> getGenes(Variant variant) {
+        List<String> genes = new ArrayList<>(2);
+        String attribute = getAttribute(variant, GENE_KEY);
+        if (attribute != null && !attribute.isEmpty() && !".".equals(attribute)) {
+            for (String gene : attribute.split(",")) {
+                if (!gene.isEmpty() && !genes.contains(gene)) {
+                    genes.add(gene);
+                }
+            }
+        }
+        for (VariantEffect effect : getEffects(variant)) {
+            String gene = effect.getGeneName();
+            if (gene != null && !gene.isEmpty() && !genes.contains(gene)) {
+                genes.add(gene);
+            }
+        }
+        return genes;
+    }
+
+    public static double parseNumber(String value) {
+        if (value == null || value.isEmpty() || ".".equals(value)) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
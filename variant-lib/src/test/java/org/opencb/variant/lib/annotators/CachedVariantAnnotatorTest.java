@@ -0,0 +1,105 @@
+package org.opencb.variant.lib.annotators;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.annotators.VariantAnnotator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CachedVariantAnnotatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void memoryTier() throws IOException {
+        CountingAnnotator annotator = new CountingAnnotator();
+        try (CachedVariantAnnotator cache = new CachedVariantAnnotator(annotator, 2, null)) {
+            cache.annot(Arrays.asList(variant(100, "A", "G"), variant(200, "C", "T")));
+            assertEquals(2, annotator.annotated);
+
+            // Same variants, one written with a shared trailing base
+            List<Variant> again = Arrays.asList(variant(100, "AC", "GC"), variant(200, "C", "T"));
+            again.get(1).addAttribute("DP", "10");
+            cache.annot(again);
+            assertEquals(2, annotator.annotated);
+            assertEquals("rs100", again.get(0).getId());
+            assertEquals("GENE200", again.get(1).getAttribute("GN"));
+            assertEquals("10", again.get(1).getAttribute("DP"));
+
+            // A third variant evicts the least recently used one
+            cache.annot(Arrays.asList(variant(300, "G", "A")));
+            cache.annot(Arrays.asList(variant(100, "A", "G")));
+            assertEquals(4, annotator.annotated);
+            assertEquals(2, cache.getMetrics().getEvictions());
+            assertEquals(2, cache.getMetrics().getMemoryHits());
+            assertEquals(2.0 / 6, cache.getMetrics().getHitRate(), 1e-9);
+        }
+    }
+
+    @Test
+    public void diskTierIsReused() throws IOException {
+        File dir = new File(folder.getRoot(), "cache");
+        CountingAnnotator annotator = new CountingAnnotator();
+        try (CachedVariantAnnotator cache = new CachedVariantAnnotator(annotator, 10, dir)) {
+            cache.annot(Arrays.asList(variant(100, "A", "G"), variant(200, "C", "T")));
+        }
+
+        // Also without the index, as after a crash
+        for (boolean withIndex : new boolean[]{true, false}) {
+            if (!withIndex) {
+                new File(dir, "cache.idx").delete();
+            }
+            int annotated = annotator.annotated;
+            try (CachedVariantAnnotator cache = new CachedVariantAnnotator(annotator, 10, dir)) {
+                Variant variant = variant(200, "C", "T");
+                cache.annot(variant);
+                assertEquals(annotated, annotator.annotated);
+                assertEquals(1, cache.getMetrics().getDiskHits());
+                assertEquals("rs200", variant.getId());
+                assertEquals("GENE200", variant.getAttribute("GN"));
+
+                Variant unknown = variant(400, "C", "T");
+                unknown.setId("x");
+                cache.annot(unknown);
+                assertNull(unknown.getAttribute("GN"));
+            }
+        }
+    }
+
+    private static Variant variant(int position, String reference, String alternate) {
+        return new Variant("1", position, reference, alternate);
+    }
+
+    /**
+     * Names the variants after their position, except those already with an id
+     */
+    private static class CountingAnnotator extends VariantAnnotator {
+
+        private int annotated;
+
+        @Override
+        public void annot(List<Variant> batch) {
+            for (Variant variant : batch) {
+                annot(variant);
+            }
+        }
+
+        @Override
+        public void annot(Variant variant) {
+            annotated++;
+            if (variant.getId() == null) {
+                variant.setId("rs" + variant.getPosition());
+                variant.addAttribute("GN", "GENE" + variant.getPosition());
+            }
+        }
+    }
+}
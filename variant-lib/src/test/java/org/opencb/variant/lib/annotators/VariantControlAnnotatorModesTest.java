@@ -0,0 +1,126 @@
+package org.opencb.variant.lib.annotators;
+
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.annotators.VariantControlAnnotator;
+import org.opencb.variant.lib.io.ControlStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Annotates the same variants with the same controls through the lookup of
+ * {@link VariantControlAnnotator}, the merge join and the store, and checks that the frequencies
+ * agree even though the attributes are not the same.
+ */
+public class VariantControlAnnotatorModesTest {
+
+    private static final String HEADER = "##fileformat=VCFv4.1\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tC1\tC2\tC3\tC4\n";
+    private static final String RECORDS = "1\t100\t.\tA\tG\t.\tPASS\t.\tGT\t0/1\t0/0\t0/0\t0/0\n"
+            + "1\t300\t.\tC\tT\t.\tPASS\t.\tGT\t1/1\t0/1\t1/1\t0/1\n"
+            + "2\t50\t.\tG\tA\t.\tPASS\t.\tGT\t0/1\t0/1\t0/0\t0/0\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sameFrequenciesInEveryMode() throws IOException {
+        File plain = folder.newFile("controls.vcf");
+        Files.write(plain.toPath(), (HEADER + RECORDS).getBytes(StandardCharsets.UTF_8));
+        File indexed = bgzipWithIndex(folder.newFile("controls.vcf.gz"), HEADER + RECORDS);
+        File storeFile = folder.newFile("controls.store");
+        ControlStore.build(Arrays.asList(plain), storeFile, folder.getRoot());
+
+        List<Variant> variants = variants();
+        new VariantControlAnnotator("LOOKUP", indexed.getPath()).annot(variants);
+        VariantControlMergeAnnotator merge = new VariantControlMergeAnnotator("MERGE", plain.getPath());
+        merge.annot(variants);
+        merge.close();
+        VariantControlStoreAnnotator store = new VariantControlStoreAnnotator("STORE", storeFile);
+        store.annot(variants);
+        store.close();
+
+        for (Variant variant : variants) {
+            Object maf = variant.getAttribute("LOOKUP_maf");
+            if (maf == null) {
+                assertNull(variant.getAttribute("MERGE_AF"));
+                assertNull(variant.getAttribute("STORE_AF"));
+                continue;
+            }
+            assertNotNull(variant.getAttribute("LOOKUP_gt"));
+            assertEquals(variant.getAttribute("MERGE_AF"), variant.getAttribute("STORE_AF"));
+            assertEquals(variant.getAttribute("MERGE_AN"), variant.getAttribute("STORE_AN"));
+
+            // The lookup gives the frequency of the minor allele, whichever it is
+            double frequency = Double.parseDouble(maf.toString().replace(',', '.'));
+            if (!variant.getAlternate().equals(variant.getAttribute("LOOKUP_amaf"))) {
+                frequency = 1 - frequency;
+            }
+            assertEquals(frequency, Double.parseDouble(variant.getAttribute("MERGE_AF").toString()), 0.001);
+        }
+    }
+
+    private static List<Variant> variants() {
+        return new ArrayList<>(Arrays.asList(
+                new Variant("1", 100, "A", "G"),
+                new Variant("1", 200, "A", "G"),
+                new Variant("1", 300, "C", "T"),
+                new Variant("2", 50, "G", "A")));
+    }
+
+    /**
+     * Writes a block-compressed VCF and a tabix index with a single bin per chromosome, enough for
+     * the lookup to find every record
+     */
+    private static File bgzipWithIndex(File vcf, String content) throws IOException {
+        Map<String, long[]> chunks = new LinkedHashMap<>();
+        try (BlockCompressedOutputStream out = new BlockCompressedOutputStream(vcf)) {
+            for (String line : content.split("\n")) {
+                long start = out.getFilePointer();
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                if (!line.startsWith("#")) {
+                    String chromosome = line.substring(0, line.indexOf('\t'));
+                    if (!chunks.containsKey(chromosome)) {
+                        chunks.put(chromosome, new long[]{start, 0});
+                    }
+                    chunks.get(chromosome)[1] = out.getFilePointer();
+                }
+            }
+        }
+
+        StringBuilder names = new StringBuilder();
+        for (String chromosome : chunks.keySet()) {
+            names.append(chromosome).append('\0');
+        }
+        // Magic, references, VCF preset, sequence, start and end columns, meta character, skipped lines
+        ByteBuffer index = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+        index.put("TBI\1".getBytes(StandardCharsets.US_ASCII)).putInt(chunks.size())
+                .putInt(2).putInt(1).putInt(2).putInt(0).putInt('#').putInt(0)
+                .putInt(names.length()).put(names.toString().getBytes(StandardCharsets.US_ASCII));
+        for (long[] chunk : chunks.values()) {
+            // The root bin with one chunk, and a linear index with one interval
+            index.putInt(1).putInt(0).putInt(1).putLong(chunk[0]).putLong(chunk[1])
+                    .putInt(1).putLong(chunk[0]);
+        }
+        try (BlockCompressedOutputStream out = new BlockCompressedOutputStream(new File(vcf.getPath() + ".tbi"))) {
+            out.write(index.array(), 0, index.position());
+        }
+        return vcf;
+    }
+}
@@ -0,0 +1,87 @@
+package org.opencb.variant.lib.annotators;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.commons.bioformats.variant.Variant;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class VariantControlMergeAnnotatorTest {
+
+    private static final String HEADER = "##fileformat=VCFv4.1\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tC1\tC2\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void singleFile() throws IOException {
+        File controls = write("controls.vcf",
+                "1\t100\t.\tA\tG\t.\tPASS\t.\tGT\t0/1\t0/0\n"
+                        + "1\t200\t.\tATG\tA,ATGTG\t.\tPASS\t.\tGT:DP\t1/2:10\t0/2:12\n"
+                        + "2\t50\t.\tC\tT\t.\tPASS\tAC=3;AN=10\n"
+                        + "X\t10\t.\tG\tC\t.\tPASS\t.\tGT\t1|1\t./.\n");
+
+        VariantControlMergeAnnotator annotator = new VariantControlMergeAnnotator("CTRL", controls.getPath());
+        List<Variant> variants = Arrays.asList(
+                new Variant("1", 100, "A", "G"),
+                new Variant("1", 150, "A", "G"),
+                // Split and normalized alleles of the multi-allelic control record
+                new Variant("1", 200, "ATG", "A"),
+                new Variant("1", 200, "A", "ATG"),
+                new Variant("1", 200, "ATG", "A,AC"),
+                new Variant("2", 50, "C", "T"),
+                new Variant("MT", 1, "A", "G"),
+                new Variant("X", 10, "G", "C"));
+        annotator.annot(variants);
+        annotator.close();
+
+        assertEquals("0.25", variants.get(0).getAttribute("CTRL_AF"));
+        assertEquals("4", variants.get(0).getAttribute("CTRL_AN"));
+        assertNull(variants.get(1).getAttribute("CTRL_AF"));
+        assertEquals("0.25", variants.get(2).getAttribute("CTRL_AF"));
+        assertEquals("0.5", variants.get(3).getAttribute("CTRL_AF"));
+        assertEquals("0.25,.", variants.get(4).getAttribute("CTRL_AF"));
+        assertEquals("0.3", variants.get(5).getAttribute("CTRL_AF"));
+        assertEquals("10", variants.get(5).getAttribute("CTRL_AN"));
+        assertNull(variants.get(6).getAttribute("CTRL_AF"));
+        assertEquals("1.0", variants.get(7).getAttribute("CTRL_AF"));
+        assertEquals("2", variants.get(7).getAttribute("CTRL_AN"));
+    }
+
+    @Test
+    public void fileByChromosome() throws IOException {
+        Map<String, String> controls = new HashMap<>();
+        controls.put("1", write("controls1.vcf", "1\t100\t.\tA\tG\t.\tPASS\t.\tGT\t0/1\t1/1\n").getPath());
+        controls.put("2", write("controls2.vcf", "2\t100\t.\tA\tG\t.\tPASS\t.\tGT\t0/0\t0/1\n").getPath());
+
+        VariantControlMergeAnnotator annotator = new VariantControlMergeAnnotator("CTRL", controls);
+        // Chromosomes in a different order than usual, and one without controls
+        List<Variant> variants = Arrays.asList(
+                new Variant("2", 100, "A", "G"),
+                new Variant("3", 100, "A", "G"),
+                new Variant("1", 100, "A", "G"));
+        annotator.annot(variants);
+        annotator.close();
+
+        assertEquals("0.25", variants.get(0).getAttribute("CTRL_AF"));
+        assertNull(variants.get(1).getAttribute("CTRL_AF"));
+        assertEquals("0.75", variants.get(2).getAttribute("CTRL_AF"));
+    }
+
+    private File write(String name, String records) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), (HEADER + records).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
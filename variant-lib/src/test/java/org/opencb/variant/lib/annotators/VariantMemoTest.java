@@ -0,0 +1,115 @@
+package org.opencb.variant.lib.annotators;
+
+import org.junit.Test;
+import org.opencb.commons.bioformats.variant.Variant;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VariantMemoTest {
+
+    @Test
+    public void loadsEveryAlleleOnce() throws IOException {
+        VariantMemo<String> memo = new VariantMemo<>("test", 2);
+        RecordingLoader loader = new RecordingLoader(null);
+
+        List<String> values = memo.get(Arrays.asList(variant(100, "A", "G"), variant(200, "C", "T"),
+                variant(100, "AC", "GC")), loader);
+        assertEquals(Arrays.asList("1:100:A>G", "1:200:C>T", "1:100:A>G"), values);
+        assertEquals(Collections.singletonList(Arrays.asList("1:100:A>G", "1:200:C>T")), loader.loads);
+
+        // The third allele evicts the least recently used one
+        memo.get(Arrays.asList(variant(200, "C", "T"), variant(300, "G", "A")), loader);
+        memo.get(Arrays.asList(variant(100, "A", "G")), loader);
+        assertEquals(3, loader.loads.size());
+        assertEquals(Collections.singletonList("1:100:A>G"), loader.loads.get(2));
+
+        assertEquals(6, memo.getMetrics().getLookups());
+        assertEquals(1, memo.getMetrics().getMemoryHits());
+        assertEquals(1, memo.getMetrics().getCoalesced());
+        assertEquals(4, memo.getMetrics().getMisses());
+        assertEquals(2, memo.getMetrics().getEvictions());
+    }
+
+    @Test
+    public void concurrentLookupsShareLoads() throws Exception {
+        final VariantMemo<String> memo = new VariantMemo<>("test", 100);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingLoader loader = new RecordingLoader(release);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<String>> first = pool.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws IOException {
+                    return memo.get(Arrays.asList(variant(100, "A", "G"), variant(200, "C", "T")), loader);
+                }
+            });
+            assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+
+            // 200 is being loaded by the first lookup, only 300 is loaded here
+            Future<List<String>> second = pool.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws IOException {
+                    return memo.get(Arrays.asList(variant(200, "CA", "TA"), variant(300, "G", "A")), loader);
+                }
+            });
+            while (loader.loads.size() < 2) {
+                Thread.sleep(10);
+            }
+            assertTrue(!second.isDone());
+            release.countDown();
+
+            assertEquals(Arrays.asList("1:100:A>G", "1:200:C>T"), first.get(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("1:200:C>T", "1:300:G>A"), second.get(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(Arrays.asList("1:100:A>G", "1:200:C>T"), Collections.singletonList("1:300:G>A")),
+                    loader.loads);
+            assertEquals(1, memo.getMetrics().getCoalesced());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Variant variant(int position, String reference, String alternate) {
+        return new Variant("1", position, reference, alternate);
+    }
+
+    /**
+     * Gives every variant its key, the first load waiting until released
+     */
+    private static class RecordingLoader implements VariantMemo.Loader<String> {
+
+        private final List<List<String>> loads = Collections.synchronizedList(new ArrayList<List<String>>());
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        RecordingLoader(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public List<String> load(List<Variant> variants, List<String> keys) throws IOException {
+            loads.add(new ArrayList<>(keys));
+            if (release != null && started.getCount() > 0) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return keys;
+        }
+    }
+}
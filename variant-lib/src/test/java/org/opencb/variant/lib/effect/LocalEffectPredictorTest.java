@@ -0,0 +1,126 @@
+package org.opencb.variant.lib.effect;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.utils.effect.VariantEffect;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalEffectPredictorTest {
+
+    /**
+     * T1 (forward): exons 11-20 and 31-45, ATG at 14-16, codons GCT (17-19), T|GG (20, 31-32),
+     * CAA, TAC and the stop TAA at 39-41. T2 (reverse): one exon 2-10, coding 4-9 (GGG GGG).
+     */
+    private static final String SEQUENCE = "CCCCCCCCCCGGAATGGCTTGTAAAAAAAGGGCAATACTAACCCCTTTTTTTTTTTTTTT";
+
+    private static final String GTF =
+            "1\ttest\texon\t11\t20\t.\t+\t.\tgene_id \"G1\"; transcript_id \"T1\"; gene_name \"GENE1\"; transcript_biotype \"protein_coding\";\n"
+                    + "1\ttest\texon\t31\t45\t.\t+\t.\tgene_id \"G1\"; transcript_id \"T1\"; gene_name \"GENE1\"; transcript_biotype \"protein_coding\";\n"
+                    + "1\ttest\tCDS\t14\t20\t.\t+\t0\tgene_id \"G1\"; transcript_id \"T1\"; gene_name \"GENE1\";\n"
+                    + "1\ttest\tCDS\t31\t38\t.\t+\t2\tgene_id \"G1\"; transcript_id \"T1\"; gene_name \"GENE1\";\n"
+                    + "1\ttest\tstart_codon\t14\t16\t.\t+\t0\tgene_id \"G1\"; transcript_id \"T1\"; gene_name \"GENE1\";\n"
+                    + "1\ttest\tstop_codon\t39\t41\t.\t+\t0\tgene_id \"G1\"; transcript_id \"T1\"; gene_name \"GENE1\";\n"
+                    + "1\ttest\texon\t2\t10\t.\t-\t.\tgene_id \"G2\"; transcript_id \"T2\"; gene_name \"GENE2\";\n"
+                    + "1\ttest\tCDS\t4\t9\t.\t-\t0\tgene_id \"G2\"; transcript_id \"T2\"; gene_name \"GENE2\";\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalEffectPredictor predictor;
+
+    @Before
+    public void setUp() throws IOException {
+        // Lines of 10 bases, the index is built from the file
+        StringBuilder fasta = new StringBuilder(">1 test chromosome\n");
+        for (int line = 0; line < SEQUENCE.length(); line += 10) {
+            fasta.append(SEQUENCE, line, line + 10).append('\n');
+        }
+        File fastaFile = write("genome.fa", fasta.toString());
+        GeneModel model = GeneModel.load(write("genes.gtf", GTF));
+        assertEquals(2, model.size());
+        predictor = new LocalEffectPredictor(model, new FastaReference(fastaFile));
+    }
+
+    @Test
+    public void codingSubstitutions() {
+        VariantEffect missense = effect(18, "C", "T", "T1", "missense_variant");
+        assertEquals("A/V", missense.getAminoacidChange());
+        assertEquals("gCt/gTt", missense.getCodonChange());
+        assertEquals(2, missense.getAaPosition());
+        assertEquals("GENE1", missense.getGeneName());
+        assertEquals("protein_coding", missense.getFeatureBiotype());
+
+        assertEquals("A", effect(19, "T", "C", "T1", "synonymous_variant").getAminoacidChange());
+        // The codon of the stop gained is split by the intron
+        assertEquals("tgG/tgA", effect(32, "G", "A", "T1", "stop_gained").getCodonChange());
+        effect(40, "A", "G", "T1", "stop_retained_variant");
+        effect(41, "A", "C", "T1", "stop_lost");
+        effect(15, "T", "C", "T1", "start_lost");
+
+        // Reverse strand: GGG becomes TGG
+        VariantEffect reverse = effect(9, "C", "A", "T2", "missense_variant");
+        assertEquals("G/W", reverse.getAminoacidChange());
+        assertEquals("Ggg/Tgg", reverse.getCodonChange());
+    }
+
+    @Test
+    public void otherConsequences() {
+        assertEquals(Arrays.asList("frameshift_variant"), consequences(33, "CA", "C", "T1"));
+        assertEquals(Arrays.asList("inframe_deletion"), consequences(33, "CAAT", "C", "T1"));
+        assertEquals(Arrays.asList("splice_donor_variant", "intron_variant"), consequences(22, "T", "C", "T1"));
+        assertEquals(Arrays.asList("splice_acceptor_variant", "intron_variant"), consequences(29, "A", "C", "T1"));
+        assertEquals(Arrays.asList("splice_region_variant", "missense_variant"), consequences(20, "T", "A", "T1"));
+        assertEquals(Arrays.asList("5_prime_UTR_variant"), consequences(12, "G", "T", "T1"));
+        assertEquals(Arrays.asList("3_prime_UTR_variant"), consequences(43, "C", "G", "T1"));
+        assertEquals(Arrays.asList("upstream_gene_variant"), consequences(5, "C", "T", "T1"));
+        assertEquals(Arrays.asList("downstream_gene_variant"), consequences(50, "T", "C", "T1"));
+        assertEquals(Arrays.asList("upstream_gene_variant"), consequences(30, "G", "A", "T2"));
+
+        List<VariantEffect> intergenic = predict(20000, "A", "G");
+        assertEquals(1, intergenic.size());
+        assertEquals("intergenic_variant", intergenic.get(0).getConsequenceTypeObo());
+    }
+
+    private VariantEffect effect(int position, String reference, String alternate, String transcript, String consequence) {
+        for (VariantEffect effect : predict(position, reference, alternate)) {
+            if (transcript.equals(effect.getTranscriptId()) && consequence.equals(effect.getConsequenceTypeObo())) {
+                return effect;
+            }
+        }
+        throw new AssertionError("No " + consequence + " in " + transcript + ": " + consequences(position, reference, alternate, transcript));
+    }
+
+    private List<String> consequences(int position, String reference, String alternate, String transcript) {
+        List<String> consequences = new ArrayList<>();
+        for (VariantEffect effect : predict(position, reference, alternate)) {
+            if (transcript.equals(effect.getTranscriptId())) {
+                consequences.add(effect.getConsequenceTypeObo());
+            }
+        }
+        return consequences;
+    }
+
+    private List<VariantEffect> predict(int position, String reference, String alternate) {
+        Variant variant = new Variant("1", position, reference, alternate);
+        return predictor.predict(Collections.singletonList(variant)).get(0);
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
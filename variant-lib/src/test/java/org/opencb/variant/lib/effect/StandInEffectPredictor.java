@@ -0,0 +1,72 @@
+package org.opencb.variant.lib.effect;
+
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.utils.effect.VariantEffect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for an effect service: every request takes a fixed time, and the first requests
+ * can be made to fail or to hang. Every variant gets one effect named after its position.
+ */
+public class StandInEffectPredictor implements EffectPredictor {
+
+    private final long latencyMillis;
+    private final AtomicInteger failures;
+    private final AtomicInteger hangs;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    /**
+     * @param latencyMillis Time every request takes
+     * @param failures      Number of requests that fail, the first ones
+     * @param hangs         Number of requests that never answer, after the failed ones
+     */
+    public StandInEffectPredictor(long latencyMillis, int failures, int hangs) {
+        this.latencyMillis = latencyMillis;
+        this.failures = new AtomicInteger(failures);
+        this.hangs = new AtomicInteger(hangs);
+    }
+
+    @Override
+    public List<List<VariantEffect>> predict(List<Variant> variants) throws IOException {
+        requests.incrementAndGet();
+        int current = inFlight.incrementAndGet();
+        int max = maxInFlight.get();
+        while (current > max && !maxInFlight.compareAndSet(max, current)) {
+            max = maxInFlight.get();
+        }
+
+        try {
+            if (failures.getAndDecrement() > 0) {
+                throw new IOException("Service unavailable");
+            }
+            Thread.sleep(hangs.getAndDecrement() > 0 ? Long.MAX_VALUE : latencyMillis);
+        } catch (InterruptedException e) {
+            throw new IOException("Request cancelled", e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+
+        List<List<VariantEffect>> effects = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            VariantEffect effect = new VariantEffect();
+            effect.setGeneName("GENE" + variant.getPosition());
+            effects.add(Collections.singletonList(effect));
+        }
+        return effects;
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+}
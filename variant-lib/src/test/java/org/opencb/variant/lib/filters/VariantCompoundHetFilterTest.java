@@ -0,0 +1,175 @@
+package org.opencb.variant.lib.filters;
+
+import org.junit.Test;
+import org.opencb.commons.bioformats.pedigree.Condition;
+import org.opencb.commons.bioformats.variant.Variant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VariantCompoundHetFilterTest {
+
+    /**
+     * Unrelated individuals fill the first word, so the family lies across two words
+     */
+    private static final int OFFSET = 62;
+
+    private final PedigreeMasks masks = masks();
+
+    private static PedigreeMasks masks() {
+        int size = OFFSET + 4;
+        String[] ids = new String[size];
+        String[] fathers = new String[size];
+        String[] mothers = new String[size];
+        Condition[] conditions = new Condition[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = "S" + i;
+            conditions[i] = Condition.UNAFFECTED;
+        }
+        // Father, mother, affected child and unaffected child
+        for (int child = OFFSET + 2; child < size; child++) {
+            fathers[child] = "S" + OFFSET;
+            mothers[child] = "S" + (OFFSET + 1);
+        }
+        conditions[OFFSET + 2] = Condition.AFFECTED;
+        return new PedigreeMasks(ids, fathers, mothers, conditions);
+    }
+
+    private Variant variant(int position, String father, String mother, String affected, String unaffected) {
+        return variant(position, "C", father, mother, affected, unaffected);
+    }
+
+    private Variant variant(int position, String alternate, String father, String mother, String affected, String unaffected) {
+        Variant variant = new Variant("1", position, "A", alternate);
+        String[] genotypes = {father, mother, affected, unaffected};
+        for (int i = 0; i < OFFSET + 4; i++) {
+            Map<String, String> data = new HashMap<>();
+            data.put(GenotypeMatrix.GENOTYPE_KEY, i < OFFSET ? "0/0" : genotypes[i - OFFSET]);
+            variant.addSampleData("S" + i, data);
+        }
+        return variant;
+    }
+
+    @Test
+    public void genotypes() {
+        GenotypeMatrix matrix = new GenotypeMatrix(masks, Arrays.asList(variant(1, "0/1", "1/1", "./.", "1|0")));
+        long[] het = new long[2];
+        PedigreeMasks.set(het, OFFSET);
+        PedigreeMasks.set(het, OFFSET + 3);
+        long[] homAlt = new long[2];
+        PedigreeMasks.set(homAlt, OFFSET + 1);
+        long[] missing = new long[2];
+        PedigreeMasks.set(missing, OFFSET + 2);
+        long[] altFirst = new long[2];
+        PedigreeMasks.set(altFirst, OFFSET + 3);
+
+        assertArrayEquals(het, matrix.getHet(0));
+        assertArrayEquals(homAlt, matrix.getHomAlt(0));
+        assertArrayEquals(missing, matrix.getMissing(0));
+        assertArrayEquals(altFirst, matrix.getPhased(0));
+        assertArrayEquals(altFirst, matrix.getAltFirst(0));
+        assertEquals(OFFSET, Long.bitCount(matrix.getHomRef(0)[0]) + Long.bitCount(matrix.getHomRef(0)[1]));
+    }
+
+    @Test
+    public void multiAllelicGenotypes() {
+        GenotypeMatrix matrix = new GenotypeMatrix(masks, Arrays.asList(variant(1, "C,G", "0/1", "0/2", "1/2", "2/2")));
+        long[] het = new long[2];
+        PedigreeMasks.set(het, OFFSET);
+        PedigreeMasks.set(het, OFFSET + 1);
+        long[] hetAlt = new long[2];
+        PedigreeMasks.set(hetAlt, OFFSET + 2);
+        long[] homAlt = new long[2];
+        PedigreeMasks.set(homAlt, OFFSET + 3);
+
+        assertArrayEquals(het, matrix.getHet(0));
+        assertArrayEquals(hetAlt, matrix.getHetAlt(0));
+        assertArrayEquals(homAlt, matrix.getHomAlt(0));
+        assertEquals(OFFSET, Long.bitCount(matrix.getHomRef(0)[0]) + Long.bitCount(matrix.getHomRef(0)[1]));
+        assertEquals(4, Long.bitCount(matrix.getAltCarriers(0)[0]) + Long.bitCount(matrix.getAltCarriers(0)[1]));
+    }
+
+    @Test
+    public void compoundHeterozygous() {
+        VariantCompoundHetFilter filter = new VariantCompoundHetFilter(masks);
+
+        Variant paternal = variant(1, "0/1", "0/0", "0/1", "0/0");
+        Variant maternal = variant(2, "0/0", "0/1", "0/1", "0/1");
+        Variant bothParents = variant(3, "0/1", "0/1", "0/1", "0/0");
+        Variant phasedMaternal = variant(4, "./.", "./.", "0|1", "0/0");
+        Variant homAltFather = variant(5, "1/1", "0/0", "0/1", "0/0");
+        assertEquals(Arrays.asList(paternal, maternal), filter.apply(new ArrayList<>(Arrays.asList(paternal, maternal, bothParents))));
+        assertEquals(Arrays.asList(homAltFather, maternal), filter.apply(new ArrayList<>(Arrays.asList(homAltFather, maternal))));
+
+        // The phase plays no part
+        assertEquals(0, filter.apply(new ArrayList<>(Arrays.asList(paternal, phasedMaternal))).size());
+
+        // Nor do the unaffected individuals
+        Variant sharedPaternal = variant(6, "0/1", "0/0", "0/1", "0/1");
+        assertEquals(Arrays.asList(sharedPaternal, maternal), filter.apply(new ArrayList<>(Arrays.asList(sharedPaternal, maternal))));
+    }
+
+    @Test
+    public void strictCompoundHeterozygous() {
+        VariantCompoundHetFilter filter = new VariantCompoundHetFilter(masks).strict(true);
+
+        Variant paternal = variant(1, "0/1", "0/0", "0/1", "0/0");
+        Variant maternal = variant(2, "0/0", "0/1", "0/1", "0/1");
+        Variant bothParents = variant(3, "0/1", "0/1", "0/1", "0/0");
+        Variant phasedMaternal = variant(4, "./.", "./.", "0|1", "0/0");
+        assertEquals(Arrays.asList(paternal, maternal), filter.apply(new ArrayList<>(Arrays.asList(paternal, maternal, bothParents))));
+        assertEquals(Arrays.asList(paternal, phasedMaternal), filter.apply(new ArrayList<>(Arrays.asList(paternal, phasedMaternal))));
+
+        // Only paternal hits
+        assertEquals(0, filter.apply(new ArrayList<>(Arrays.asList(paternal, bothParents))).size());
+        Variant homAltFather = variant(5, "1/1", "0/0", "0/1", "0/0");
+        assertEquals(0, filter.apply(new ArrayList<>(Arrays.asList(homAltFather, maternal))).size());
+
+        // The unaffected child shares the compound heterozygosity
+        Variant sharedPaternal = variant(6, "0/1", "0/0", "0/1", "0/1");
+        List<Variant> gene = new ArrayList<>(Arrays.asList(sharedPaternal, maternal));
+        assertEquals(0, filter.apply(gene).size());
+    }
+
+    @Test
+    public void multiAllelic() {
+        // One alternate allele from each parent in the same variant
+        Variant fromBoth = variant(1, "C,G", "0/1", "0/2", "1/2", "0/0");
+        Variant fromFather = variant(2, "C,G", "0/1", "0/0", "1/2", "0/0");
+        Variant phased = variant(3, "C,G", "./.", "./.", "2|1", "0/0");
+        for (boolean strict : new boolean[]{false, true}) {
+            VariantCompoundHetFilter filter = new VariantCompoundHetFilter(masks).strict(strict);
+            assertEquals(Arrays.asList(fromBoth), filter.apply(new ArrayList<>(Arrays.asList(fromBoth))));
+            assertEquals(0, filter.apply(new ArrayList<>(Arrays.asList(fromFather))).size());
+            assertEquals(strict ? 1 : 0, filter.apply(new ArrayList<>(Arrays.asList(phased))).size());
+        }
+    }
+
+    @Test
+    public void blocksAddUpToTheWholeGene() {
+        // The parents are in the first word and the children in the second one
+        String[] genotypes = {"0/0", "0/1", "0|1", "1|0", "1/1", "./."};
+        Random random = new Random(5);
+        List<Variant> gene = new ArrayList<>();
+        for (int v = 0; v < 200; v++) {
+            gene.add(variant(v, genotypes[random.nextInt(genotypes.length)], genotypes[random.nextInt(genotypes.length)],
+                    genotypes[random.nextInt(genotypes.length)], genotypes[random.nextInt(genotypes.length)]));
+        }
+        for (boolean strict : new boolean[]{false, true}) {
+            VariantCompoundHetFilter filter = new VariantCompoundHetFilter(masks).strict(strict);
+            assertEquals(2, filter.words());
+            List<Variant> whole = filter.apply(new ArrayList<>(gene));
+            assertTrue(!whole.isEmpty());
+            assertEquals(whole, filter.passed(gene, filter.carriers(gene, 0, 1).or(filter.carriers(gene, 1, 2))));
+            assertEquals(0, filter.passed(gene, filter.carriers(gene, 0, 1)).size());
+        }
+    }
+}
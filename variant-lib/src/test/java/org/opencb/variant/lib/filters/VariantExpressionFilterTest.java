@@ -0,0 +1,89 @@
+package org.opencb.variant.lib.filters;
+
+import org.junit.Test;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.utils.effect.VariantEffect;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VariantExpressionFilterTest {
+
+    @Test
+    public void columnsAndInfo() {
+        Variant variant = new Variant("1", 1500, "A", "C");
+        variant.addAttribute("QUAL", "45.5");
+        variant.addAttribute("FILTER", "PASS");
+        variant.addAttribute("DP", "12");
+        variant.addAttribute("DB", "");
+
+        assertTrue(matches("QUAL>30", variant));
+        assertFalse(matches("QUAL>=50", variant));
+        assertTrue(matches("CHROM==1 && POS>=1000 && POS<2000", variant));
+        assertTrue(matches("FILTER=PASS and DP<20", variant));
+        assertTrue(matches("INFO.DP == 12", variant));
+        assertTrue(matches("REF in (A,G) && ALT != G", variant));
+        assertFalse(matches("AF > 0.1", variant));
+        assertFalse(matches("!(QUAL>30) || POS in (1,2)", variant));
+        assertTrue(matches("DB || AF>0.5", variant));
+    }
+
+    @Test
+    public void genesAndConsequenceTypes() {
+        Variant variant = new Variant("13", 32900000, "G", "T");
+        variant.addAttribute("GN", "PPL,BRCA2");
+        VariantEffect effect = new VariantEffect();
+        effect.setGeneName("BRCA2");
+        effect.setConsequenceTypeObo("missense_variant");
+        variant.setEffect(Arrays.asList(effect));
+
+        assertTrue(matches("QUAL>30 || GENE in (BRCA2,TTN) && CT~missense", variant));
+        assertTrue(matches("GENE == PPL", variant));
+        assertFalse(matches("GENE != BRCA2", variant));
+        assertFalse(matches("CT == 'stop_gained'", variant));
+    }
+
+    @Test
+    public void missingValuesNeverMatch() {
+        Variant variant = new Variant("1", 1500, "A", "C");
+        variant.addAttribute("DP", "12");
+
+        for (String field : new String[]{"AF", "SOURCE", "GENE", "CT"}) {
+            assertFalse(matches(field + " == x", variant));
+            assertFalse(matches(field + " != x", variant));
+        }
+        assertFalse(matches("AF == 0.5", variant));
+        assertFalse(matches("AF != 0.5", variant));
+        assertTrue(matches("DP != 10", variant));
+        assertTrue(matches("!(AF != 0.5)", variant));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void syntaxError() {
+        new VariantExpressionFilter("QUAL > && DP < 3");
+    }
+
+    @Test
+    public void singleAndOr() {
+        for (String expression : new String[]{"QUAL>30 & DP<5", "QUAL>30 | DP<5", "QUAL>30 &"}) {
+            try {
+                new VariantExpressionFilter(expression);
+                fail(expression);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("at position " + (expression.indexOf(' ') + 2)));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void numericComparisonOfGenes() {
+        new VariantExpressionFilter("GENE > 3");
+    }
+
+    private static boolean matches(String expression, Variant variant) {
+        return new VariantExpressionFilter(expression).apply(variant);
+    }
+}
@@ -0,0 +1,71 @@
+package org.opencb.variant.lib.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ControlStoreTest {
+
+    private static final String HEADER = "##fileformat=VCFv4.1\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tC1\tC2\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void buildAndLookUp() throws IOException {
+        // Unsorted, with a multi-allelic record and a chromosome in its own file
+        File controls = write("controls.vcf",
+                "1\t200\t.\tATG\tA,ATGTG\t.\tPASS\t.\tGT:DP\t1/2:10\t0/2:12\n"
+                        + "1\t100\t.\tA\tG\t.\tPASS\t.\tGT\t0/1\t0/0\n"
+                        + "1\t100\t.\tA\tT\t.\tPASS\t.\tGT\t0/0\t./.\n"
+                        + "2\t50\t.\tC\tT\t.\tPASS\tAC=3;AN=10\n");
+        File controlsX = write("controlsX.vcf", "X\t10\t.\tG\tC\t.\tPASS\tAF=0.125\n");
+
+        File storeFile = new File(folder.getRoot(), "controls.store");
+        assertEquals(6, ControlStore.build(Arrays.asList(controls, controlsX), storeFile, folder.getRoot()));
+
+        try (ControlStore store = ControlStore.open(storeFile)) {
+            assertEquals(Arrays.asList("1", "2", "X"), store.getChromosomes());
+
+            assertArrayEquals(new double[]{0.25, 4}, store.get("1", 100, "A", "G"), 1e-6);
+            assertArrayEquals(new double[]{0, 2}, store.get("1", 100, "A", "T"), 1e-6);
+            assertNull(store.get("1", 100, "A", "C"));
+            assertNull(store.get("1", 150, "A", "G"));
+            assertArrayEquals(new double[]{0.25, 4}, store.get("1", 200, "ATG", "A"), 1e-6);
+            assertArrayEquals(new double[]{0.5, 4}, store.get("1", 200, "A", "ATG"), 1e-6);
+            assertArrayEquals(new double[]{0.3, 10}, store.get("2", 50, "C", "T"), 1e-6);
+            assertArrayEquals(new double[]{0.125, -1}, store.get("X", 10, "G", "C"), 1e-6);
+            assertNull(store.get("MT", 10, "G", "C"));
+        }
+    }
+
+    @Test
+    public void chromosomeInTwoFiles() throws IOException {
+        File first = write("first.vcf", "1\t100\t.\tA\tG\t.\tPASS\tAF=0.1\n");
+        File second = write("second.vcf", "1\t200\t.\tA\tG\t.\tPASS\tAF=0.1\n");
+        try {
+            ControlStore.build(Arrays.asList(first, second), new File(folder.getRoot(), "controls.store"), folder.getRoot());
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Chromosome 1"));
+            return;
+        }
+        throw new AssertionError("Chromosome 1 is in two files");
+    }
+
+    private File write(String name, String records) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), (HEADER + records).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
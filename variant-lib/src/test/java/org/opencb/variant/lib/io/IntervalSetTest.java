@@ -0,0 +1,57 @@
+package org.opencb.variant.lib.io;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntervalSetTest {
+
+    @Test
+    public void boundaries() {
+        IntervalSet set = new IntervalSet(Region.parse("1:100-200,1:150-250,1:300-300,2:5-10"));
+        assertEquals(3, set.size());
+
+        assertFalse(set.contains("1", 99));
+        assertTrue(set.contains("1", 100));
+        assertTrue(set.contains("1", 250));
+        assertFalse(set.contains("1", 251));
+        assertTrue(set.contains("1", 300));
+        assertFalse(set.contains("1", 301));
+        assertTrue(set.contains("2", 5));
+        assertFalse(set.contains("3", 5));
+    }
+
+    @Test
+    public void sweepMatchesSearch() {
+        Random random = new Random(7);
+        List<Region> regions = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            long start = 1 + random.nextInt(1000000);
+            regions.add(new Region(random.nextBoolean() ? "1" : "2", start, start + random.nextInt(500)));
+        }
+
+        IntervalSet search = new IntervalSet(regions);
+        IntervalSet sweep = new IntervalSet(regions).sweep(true);
+
+        // Sorted positions, then a jump back to check the cursor recovers
+        for (String chromosome : new String[]{"1", "2", "1"}) {
+            for (long position = 1; position <= 1000500; position += 1 + random.nextInt(300)) {
+                boolean expected = false;
+                for (Region region : regions) {
+                    if (region.contains(chromosome, position)) {
+                        expected = true;
+                        break;
+                    }
+                }
+                assertEquals(expected, search.contains(chromosome, position));
+                assertEquals(expected, sweep.contains(chromosome, position));
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.opencb.variant.lib.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VcfExternalSorterTest {
+
+    private static final String HEADER = "##fileformat=VCFv4.1\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sortInMemoryAndWithRuns() throws IOException {
+        String[] chromosomes = {"chr2", "chr10", "chrX", "chr1"};
+        Random random = new Random(5);
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            // Few positions, so there are many records at the same position
+            records.add(chromosomes[random.nextInt(chromosomes.length)] + "\t" + (1 + random.nextInt(3000))
+                    + "\trs" + i + "\tA\tC\t50\tPASS\t.");
+        }
+
+        File input = folder.newFile("unsorted.vcf");
+        StringBuilder content = new StringBuilder(HEADER).append('\n');
+        for (String record : records) {
+            content.append(record).append('\n');
+        }
+        Files.write(input.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+        // Stable sort of the expected lines
+        List<String> expected = new ArrayList<>(records);
+        Collections.sort(expected, new Comparator<String>() {
+            @Override
+            public int compare(String r1, String r2) {
+                String[] f1 = r1.split("\t");
+                String[] f2 = r2.split("\t");
+                int byChromosome = VcfExternalSorter.CHROMOSOME_ORDER.compare(f1[0], f2[0]);
+                return byChromosome != 0 ? byChromosome : Integer.compare(Integer.parseInt(f1[1]), Integer.parseInt(f2[1]));
+            }
+        });
+        expected.add(0, "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+        expected.add(0, "##fileformat=VCFv4.1");
+        assertEquals("chr1", expected.get(2).split("\t")[0]);
+
+        VcfExternalSorter inMemory = new VcfExternalSorter();
+        File output = folder.newFile("memory.vcf");
+        assertEquals(records.size(), inMemory.sort(input, output));
+        assertEquals(0, inMemory.getRuns());
+        assertEquals(expected, Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+
+        // Small runs, more than can be merged in one pass
+        File tmpDir = folder.newFolder("runs");
+        VcfExternalSorter spilling = new VcfExternalSorter().bufferSize(20000).tmpDir(tmpDir);
+        output = folder.newFile("runs.vcf");
+        assertEquals(records.size(), spilling.sort(input, output));
+        assertTrue(spilling.getRuns() > VcfExternalSorter.MAX_FAN_IN);
+        assertEquals(expected, Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+        assertEquals(0, tmpDir.list().length);
+    }
+
+    @Test
+    public void malformedRecords() throws IOException {
+        String[] records = {"chr1 100 rs1 A C", "chr1\tPOS\trs1\tA\tC"};
+        for (String record : records) {
+            File input = folder.newFile();
+            Files.write(input.toPath(), (HEADER + "\nchr1\t5\trs0\tA\tC\n" + record + "\n").getBytes(StandardCharsets.UTF_8));
+            try {
+                new VcfExternalSorter().sort(input, folder.newFile());
+                fail(record);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("line 4"));
+            }
+        }
+    }
+}
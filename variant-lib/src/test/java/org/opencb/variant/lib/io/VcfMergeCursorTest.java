@@ -0,0 +1,43 @@
+package org.opencb.variant.lib.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+public class VcfMergeCursorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sortedInputIsReadOnce() throws IOException {
+        File file = folder.newFile("controls.vcf");
+        Files.write(file.toPath(), ("#CHROM\tPOS\tID\tREF\tALT\n"
+                + "1\t100\t.\tA\tG\n"
+                + "1\t200\t.\tC\tT\n"
+                + "2\t50\t.\tG\tA\n").getBytes(StandardCharsets.UTF_8));
+
+        try (VcfMergeCursor cursor = new VcfMergeCursor(file)) {
+            assertEquals(1, cursor.get("1", 100).size());
+            assertEquals(1, cursor.get("1", 200).size());
+            // Past the last record of chromosome 1
+            for (int position = 300; position < 400; position++) {
+                assertEquals(0, cursor.get("1", position).size());
+            }
+            assertEquals(1, cursor.get("2", 50).size());
+            assertEquals(0, cursor.get("2", 60).size());
+            assertEquals(0, cursor.getReopened());
+
+            // Going back still works
+            assertEquals(1, cursor.get("1", 200).size());
+            assertEquals(1, cursor.getReopened());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.opencb.variant.lib.io;
+
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VcfRegionExtractorTest {
+
+    private static final String HEADER = "##fileformat=VCFv4.1\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mergeAndIntersect() {
+        List<Region> merged = Region.merge(Region.parse("1:100-200,1:150-300,2:10-20,1:301-310"));
+        assertEquals(Arrays.asList(new Region("1", 100, 310), new Region("2", 10, 20)), merged);
+
+        List<Region> other = Region.merge(Region.parse("1:50-120,1:305-400,3:1-10"));
+        assertEquals(Arrays.asList(new Region("1", 100, 120), new Region("1", 305, 310)), Region.intersect(merged, other));
+    }
+
+    @Test
+    public void extractFromPlainFile() throws IOException {
+        File vcf = folder.newFile("plain.vcf");
+        Files.write(vcf.toPath(), records(true).getBytes(StandardCharsets.UTF_8));
+
+        checkExtraction(vcf);
+        assertTrue(new File(vcf.getPath() + VcfIndex.EXTENSION).isFile());
+        // The second time the saved index is used
+        checkExtraction(vcf);
+    }
+
+    @Test
+    public void extractFromBlockCompressedFile() throws IOException {
+        File vcf = folder.newFile("compressed.vcf.gz");
+        try (OutputStream out = new BlockCompressedOutputStream(vcf)) {
+            out.write(records(true).getBytes(StandardCharsets.UTF_8));
+        }
+
+        checkExtraction(vcf);
+    }
+
+    @Test
+    public void extractFromUnsortedFile() throws IOException {
+        File vcf = folder.newFile("unsorted.vcf");
+        Files.write(vcf.toPath(), records(false).getBytes(StandardCharsets.UTF_8));
+
+        File output = folder.newFile();
+        long count = new VcfRegionExtractor(vcf).extract(Region.parse("2:1000-1000000"), output);
+        assertEquals(positions("2", 1000, 1000000).size(), count);
+        assertTrue(!new File(vcf.getPath() + VcfIndex.EXTENSION).exists());
+    }
+
+    private void checkExtraction(File vcf) throws IOException {
+        File output = folder.newFile();
+        List<Region> regions = Region.parse("2:100000-150000,1:50000-50000,1:1-1000,1:40000-60000,3:1-10,X:1");
+        long count = new VcfRegionExtractor(vcf).extract(regions, output);
+
+        List<String> expected = new ArrayList<>();
+        expected.addAll(positions("1", 1, 1000));
+        expected.addAll(positions("1", 40000, 60000));
+        expected.addAll(positions("2", 100000, 150000));
+
+        List<String> lines = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+        assertEquals("##fileformat=VCFv4.1", lines.get(0));
+        List<String> records = lines.subList(2, lines.size());
+        assertEquals(expected.size(), count);
+        assertEquals(expected, records);
+    }
+
+    /**
+     * Records every 997 bp over 300 kb of chromosomes 1 and 2
+     */
+    private static String records(boolean sorted) {
+        StringBuilder sb = new StringBuilder(HEADER);
+        List<String> chromosomes = sorted ? Arrays.asList("1", "2") : Arrays.asList("2", "1");
+        for (String chromosome : chromosomes) {
+            for (String record : positions(chromosome, 1, 300000)) {
+                sb.append(record).append('\n');
+            }
+        }
+        if (!sorted) {
+            sb.append(record("2", 5)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static List<String> positions(String chromosome, long start, long end) {
+        List<String> records = new ArrayList<>();
+        for (long position = 997; position <= 300000; position += 997) {
+            if (position >= start && position <= end) {
+                records.add(record(chromosome, position));
+            }
+        }
+        return records;
+    }
+
+    private static String record(String chromosome, long position) {
+        return chromosome + "\t" + position + "\t.\tA\tC\t50\tPASS\t.";
+    }
+}
@@ -0,0 +1,196 @@
+package org.opencb.variant.lib.runners;
+
+import org.junit.Test;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+import org.opencb.commons.run.Task;
+import org.opencb.variant.lib.runners.tasks.ParallelTask;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelTaskEngineTest {
+
+    @Test
+    public void keepsInputOrder() throws IOException {
+        IntReader reader = new IntReader(10000);
+        IntWriter writer = new IntWriter();
+        OrderedSum sum = new OrderedSum();
+        List<Task<Integer>> tasks = Arrays.<Task<Integer>>asList(new SlowTask(), sum);
+
+        new ParallelTaskEngine<>(reader, Collections.singletonList(writer), tasks, 100, 8).run();
+
+        assertEquals(10000, writer.written.size());
+        for (int i = 0; i < writer.written.size(); i++) {
+            assertEquals(i, (int) writer.written.get(i));
+        }
+        assertEquals(10000L * 9999 / 2, sum.sum);
+        assertEquals(0, sum.outOfOrder);
+    }
+
+    @Test
+    public void splitsTaskChain() {
+        List<Task<Integer>> tasks = Arrays.<Task<Integer>>asList(new SlowTask(), new OrderedSum(), new SlowTask());
+        ParallelTaskEngine<Integer> engine = new ParallelTaskEngine<>(new IntReader(0), new ArrayList<IntWriter>(), tasks, 100, 4);
+
+        assertEquals(1, engine.getParallelTasks().size());
+        assertEquals(2, engine.getOrderedTasks().size());
+    }
+
+    @Test
+    public void boundsBatchesInFlight() throws IOException {
+        final IntReader reader = new IntReader(2000);
+        final int maxInFlight = 3;
+        final int[] maxAhead = new int[1];
+        Task<Integer> slowWriter = new Task<Integer>() {
+            private int written;
+
+            @Override
+            public boolean apply(List<Integer> batch) throws IOException {
+                maxAhead[0] = Math.max(maxAhead[0], reader.next - written);
+                written += batch.size();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return true;
+            }
+        };
+
+        ParallelTaskEngine<Integer> engine = new ParallelTaskEngine<>(reader, new ArrayList<IntWriter>(),
+                Arrays.<Task<Integer>>asList(new SlowTask(), slowWriter), 10, 4, maxInFlight);
+        engine.run();
+
+        assertTrue(maxAhead[0] <= maxInFlight * 10);
+        assertEquals(200, engine.getStages().get(1).getBatches());
+        assertTrue(engine.getStages().get(0).getStallTime() > 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void propagatesErrors() throws IOException {
+        Task<Integer> failing = new Task<Integer>() {
+            @Override
+            public boolean apply(List<Integer> batch) throws IOException {
+                throw new IOException("failed");
+            }
+        };
+        new ParallelTaskEngine<>(new IntReader(1000), new ArrayList<IntWriter>(), Collections.singletonList(failing), 10, 4).run();
+    }
+
+    private static class SlowTask extends Task<Integer> implements ParallelTask {
+        private final Random random = new Random();
+
+        @Override
+        public boolean apply(List<Integer> batch) throws IOException {
+            try {
+                Thread.sleep(random.nextInt(3));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return true;
+        }
+    }
+
+    private static class OrderedSum extends Task<Integer> {
+        private long sum;
+        private int last = -1;
+        private int outOfOrder;
+
+        @Override
+        public boolean apply(List<Integer> batch) throws IOException {
+            for (Integer i : batch) {
+                if (i != last + 1) {
+                    outOfOrder++;
+                }
+                last = i;
+                sum += i;
+            }
+            return true;
+        }
+    }
+
+    private static class IntReader implements DataReader<Integer> {
+        private final int total;
+        private volatile int next;
+
+        private IntReader(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public boolean open() {
+            return true;
+        }
+
+        @Override
+        public boolean close() {
+            return true;
+        }
+
+        @Override
+        public boolean pre() {
+            return true;
+        }
+
+        @Override
+        public boolean post() {
+            return true;
+        }
+
+        @Override
+        public List<Integer> read() {
+            return read(1);
+        }
+
+        @Override
+        public List<Integer> read(int batchSize) {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            while (next < total && batch.size() < batchSize) {
+                batch.add(next++);
+            }
+            return batch;
+        }
+    }
+
+    private static class IntWriter implements DataWriter<Integer> {
+        private final List<Integer> written = new ArrayList<>();
+
+        @Override
+        public boolean open() {
+            return true;
+        }
+
+        @Override
+        public boolean close() {
+            return true;
+        }
+
+        @Override
+        public boolean pre() {
+            return true;
+        }
+
+        @Override
+        public boolean post() {
+            return true;
+        }
+
+        @Override
+        public boolean write(Integer elem) {
+            return written.add(elem);
+        }
+
+        @Override
+        public boolean write(List<Integer> batch) {
+            return written.addAll(batch);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.opencb.variant.lib.runners;
+
+import org.junit.Test;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.VariantStudy;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantVcfReader;
+import org.opencb.commons.bioformats.variant.vcf4.io.writers.VariantWriter;
+import org.opencb.commons.run.Task;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class VariantRunnerTest {
+
+    @Test
+    public void failedRunsFinishTheTasks() throws IOException {
+        File vcf = File.createTempFile("runner", ".vcf");
+        vcf.deleteOnExit();
+        try (FileWriter writer = new FileWriter(vcf)) {
+            writer.write("##fileformat=VCFv4.1\n");
+            writer.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n");
+            writer.write("1\t100\t.\tA\tG\t50\tPASS\t.\n");
+        }
+        FailingTask task = new FailingTask();
+        VariantStudy study = new VariantStudy("test", "test", "Test", Arrays.asList("test"), Arrays.asList(vcf.getName()));
+
+        // The second run would fail to register its metrics if the first one had not unregistered them
+        for (int threads : new int[]{1, 1, 4}) {
+            VariantRunner runner = new VariantRunner(study, new VariantVcfReader(vcf.getAbsolutePath()), null,
+                    Collections.<VariantWriter>emptyList(), new ArrayList<Task<Variant>>(Collections.singletonList(task)));
+            try {
+                runner.parallel(threads).run();
+                fail();
+            } catch (IOException e) {
+                assertEquals("apply", e.getMessage());
+            }
+        }
+        assertEquals(3, task.pre);
+        assertEquals(3, task.post);
+    }
+
+    private static class FailingTask extends Task<Variant> {
+        private int pre;
+        private int post;
+
+        @Override
+        public boolean pre() {
+            pre++;
+            return true;
+        }
+
+        @Override
+        public boolean apply(List<Variant> batch) throws IOException {
+            throw new IOException("apply");
+        }
+
+        @Override
+        public boolean post() {
+            post++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.opencb.variant.lib.runners.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.opencb.commons.run.Task;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RunnerMetricsTest {
+
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 50000 && p50 < 2 * 50000);
+        assertEquals(100000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void countsFilteredVariants() throws IOException {
+        RunnerMetrics metrics = new RunnerMetrics("test");
+        Task<Integer> dropOdd = new Task<Integer>() {
+            @Override
+            public boolean apply(List<Integer> batch) throws IOException {
+                for (int i = batch.size() - 1; i >= 0; i--) {
+                    if (batch.get(i) % 2 == 1) {
+                        batch.remove(i);
+                    }
+                }
+                return true;
+            }
+        };
+
+        List<Task<Integer>> tasks = metrics.instrument(Collections.singletonList(dropOdd));
+        tasks.get(0).apply(new ArrayList<>(Arrays.asList(1, 2, 3, 4, 5)));
+
+        TaskMetrics taskMetrics = metrics.getTasks().get(0);
+        assertEquals(1, taskMetrics.getBatches());
+        assertEquals(5, taskMetrics.getVariantsIn());
+        assertEquals(3, taskMetrics.getFilteredOut());
+    }
+
+    @Test
+    public void writesJsonSummary() throws IOException {
+        RunnerMetrics metrics = new RunnerMetrics("test");
+        metrics.start();
+        metrics.recordRead(1000, 2000000);
+        metrics.recordWrite(1000000);
+        metrics.stop();
+
+        File file = File.createTempFile("metrics", ".json");
+        file.deleteOnExit();
+        metrics.writeJson(file);
+
+        Map<?, ?> summary = new ObjectMapper().readValue(file, Map.class);
+        assertEquals(1000, summary.get("variantsRead"));
+        assertTrue(summary.containsKey("tasks"));
+    }
+}
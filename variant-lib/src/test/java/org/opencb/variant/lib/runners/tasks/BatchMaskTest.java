@@ -0,0 +1,37 @@
+package org.opencb.variant.lib.runners.tasks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchMaskTest {
+
+    @Test
+    public void compactKeepsOrder() {
+        BatchMask mask = new BatchMask();
+        for (List<Integer> batch : Arrays.<List<Integer>>asList(new ArrayList<Integer>(), new LinkedList<Integer>())) {
+            // Reused with a bigger batch and then a smaller one, which must not see old bits
+            for (int size : new int[]{100, 1000, 70}) {
+                batch.clear();
+                List<Integer> expected = new ArrayList<>();
+                mask.reset(size);
+                for (int i = 0; i < size; i++) {
+                    batch.add(i);
+                    if (i % 3 == 0 || (i > 60 && i < 66)) {
+                        mask.set(i);
+                        expected.add(i);
+                    }
+                }
+
+                assertEquals(expected.size(), mask.count());
+                assertEquals(expected.size(), mask.compact(batch));
+                assertEquals(expected, batch);
+            }
+        }
+    }
+}
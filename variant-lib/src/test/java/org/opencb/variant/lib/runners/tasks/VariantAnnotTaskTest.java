@@ -0,0 +1,185 @@
+package org.opencb.variant.lib.runners.tasks;
+
+import org.junit.Test;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.annotators.VariantAnnotator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VariantAnnotTaskTest {
+
+    @Test
+    public void independentAnnotatorsRunTogether() throws IOException {
+        // Each annotator waits for the other one to start, which only happens if they run together
+        CountDownLatch started = new CountDownLatch(2);
+        VariantAnnotator control = new WaitingAnnotator("CONTROL_AF", "0.1", started);
+        VariantAnnotator snp = new WaitingAnnotator("SNP", "rs1", started);
+        VariantAnnotator gene = new CopyingAnnotator("SNP", "GENE");
+
+        VariantAnnotTask task = new VariantAnnotTask(Arrays.asList(control, snp, gene))
+                .concurrent(true)
+                .dependsOn(gene, snp);
+        assertEquals(Arrays.asList(Arrays.asList(control), Arrays.asList(snp, gene)), task.getGroups());
+
+        List<Variant> batch = batch();
+        batch.get(0).addAttribute("DP", "10");
+        task.apply(batch);
+        task.post();
+
+        for (Variant variant : batch) {
+            assertEquals("0.1", variant.getAttribute("CONTROL_AF"));
+            assertEquals("rs1", variant.getAttribute("SNP"));
+            assertEquals("rs1", variant.getAttribute("GENE"));
+        }
+        assertEquals("10", batch.get(0).getAttribute("DP"));
+        assertEquals(3, batch.get(1).getAttributes().size());
+    }
+
+    @Test
+    public void threadsCapTheAnnotatorsInFlight() throws IOException {
+        for (int threads : new int[]{1, 2, 3}) {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            List<VariantAnnotator> annotators = new ArrayList<>();
+            for (int a = 0; a < 4; a++) {
+                annotators.add(new CountingAnnotator("A" + a, running, maxRunning));
+            }
+
+            VariantAnnotTask task = new VariantAnnotTask(annotators).concurrent(true).threads(threads);
+            List<Variant> batch = batch();
+            task.apply(batch);
+            task.post();
+
+            assertTrue(maxRunning.get() <= threads);
+            for (Variant variant : batch) {
+                assertEquals(4, variant.getAttributes().size());
+            }
+        }
+    }
+
+    @Test
+    public void dependenciesJoinGroups() {
+        VariantAnnotator a = new CopyingAnnotator("A", "B");
+        VariantAnnotator b = new CopyingAnnotator("A", "B");
+        VariantAnnotator c = new CopyingAnnotator("A", "B");
+        VariantAnnotator d = new CopyingAnnotator("A", "B");
+
+        VariantAnnotTask task = new VariantAnnotTask(Arrays.asList(a, b, c, d)).dependsOn(c, b).dependsOn(d, a).dependsOn(d, c);
+        assertEquals(Arrays.asList(Arrays.asList(a, b, c, d)), task.getGroups());
+
+        task = new VariantAnnotTask(Arrays.asList(a, b, c, d)).dependsOn(c, a);
+        assertEquals(Arrays.asList(Arrays.asList(a, c), Arrays.asList(b), Arrays.asList(d)), task.getGroups());
+    }
+
+    private static List<Variant> batch() {
+        List<Variant> batch = new ArrayList<>();
+        for (int position = 1; position <= 5; position++) {
+            batch.add(new Variant("1", position * 100, "A", "G"));
+        }
+        return batch;
+    }
+
+    private static class WaitingAnnotator extends VariantAnnotator {
+
+        private final String key;
+        private final String value;
+        private final CountDownLatch started;
+
+        WaitingAnnotator(String key, String value, CountDownLatch started) {
+            this.key = key;
+            this.value = value;
+            this.started = started;
+        }
+
+        @Override
+        public void annot(List<Variant> batch) {
+            started.countDown();
+            try {
+                assertTrue("The annotators did not run at the same time", started.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            for (Variant variant : batch) {
+                annot(variant);
+            }
+        }
+
+        @Override
+        public void annot(Variant variant) {
+            variant.addAttribute(key, value);
+        }
+    }
+
+    /**
+     * Keeps track of how many annotators run at the same time
+     */
+    private static class CountingAnnotator extends VariantAnnotator {
+
+        private final String key;
+        private final AtomicInteger running;
+        private final AtomicInteger maxRunning;
+
+        CountingAnnotator(String key, AtomicInteger running, AtomicInteger maxRunning) {
+            this.key = key;
+            this.running = running;
+            this.maxRunning = maxRunning;
+        }
+
+        @Override
+        public void annot(List<Variant> batch) {
+            int now = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            for (Variant variant : batch) {
+                annot(variant);
+            }
+            running.decrementAndGet();
+        }
+
+        @Override
+        public void annot(Variant variant) {
+            variant.addAttribute(key, "1");
+        }
+    }
+
+    /**
+     * Copies an attribute set by another annotator
+     */
+    private static class CopyingAnnotator extends VariantAnnotator {
+
+        private final String from;
+        private final String to;
+
+        CopyingAnnotator(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void annot(List<Variant> batch) {
+            for (Variant variant : batch) {
+                annot(variant);
+            }
+        }
+
+        @Override
+        public void annot(Variant variant) {
+            variant.addAttribute(to, variant.getAttribute(from));
+        }
+    }
+}
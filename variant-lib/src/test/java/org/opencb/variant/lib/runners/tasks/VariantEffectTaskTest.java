@@ -0,0 +1,116 @@
+package org.opencb.variant.lib.runners.tasks;
+
+import org.junit.Test;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.utils.effect.VariantEffect;
+import org.opencb.variant.lib.effect.EffectPredictor;
+import org.opencb.variant.lib.effect.StandInEffectPredictor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class VariantEffectTaskTest {
+
+    @Test
+    public void requestsInFlight() throws IOException {
+        StandInEffectPredictor service = new StandInEffectPredictor(50, 0, 0);
+        VariantEffectTask task = new VariantEffectTask(0, 4).predictor(service).requestSize(50);
+
+        List<Variant> batch = batch(1000);
+        task.apply(batch);
+        task.post();
+
+        assertEquals(20, service.getRequests());
+        assertEquals(4, service.getMaxInFlight());
+        for (Variant variant : batch) {
+            assertEquals("GENE" + variant.getPosition(), variant.getEffect().get(0).getGeneName());
+        }
+    }
+
+    @Test
+    public void failedAndTimedOutRequestsAreRetried() throws IOException {
+        StandInEffectPredictor service = new StandInEffectPredictor(10, 1, 1);
+        VariantEffectTask task = new VariantEffectTask(0, 1).predictor(service).requestSize(10)
+                .retries(2).timeout(200).retryDelay(1);
+
+        List<Variant> batch = batch(30);
+        task.apply(batch);
+        task.post();
+
+        // The first request failed once and the second one hung once
+        assertEquals(5, service.getRequests());
+        for (Variant variant : batch) {
+            assertEquals("GENE" + variant.getPosition(), variant.getEffect().get(0).getGeneName());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void requestsIgnoringInterruptsDoNotBlockThePool() throws IOException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final StandInEffectPredictor service = new StandInEffectPredictor(1, 0, 0);
+        EffectPredictor stubborn = new EffectPredictor() {
+            private final AtomicBoolean first = new AtomicBoolean(true);
+
+            @Override
+            public List<List<VariantEffect>> predict(List<Variant> variants) throws IOException {
+                if (first.getAndSet(false)) {
+                    // Blocked on IO that does not notice the interruption
+                    while (release.getCount() > 0) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            // Ignored
+                        }
+                    }
+                    throw new IOException("Too late");
+                }
+                return service.predict(variants);
+            }
+        };
+
+        // A single thread, held by the first request until the end
+        VariantEffectTask task = new VariantEffectTask(0, 1).predictor(stubborn).requestSize(10)
+                .timeout(100).retryDelay(1);
+        List<Variant> batch = batch(20);
+        try {
+            task.apply(batch);
+        } finally {
+            release.countDown();
+            task.post();
+        }
+
+        assertEquals(2, service.getRequests());
+        for (Variant variant : batch) {
+            assertEquals("GENE" + variant.getPosition(), variant.getEffect().get(0).getGeneName());
+        }
+    }
+
+    @Test
+    public void requestsAreRetriedAFewTimes() {
+        StandInEffectPredictor service = new StandInEffectPredictor(10, 3, 0);
+        VariantEffectTask task = new VariantEffectTask(0, 1).predictor(service).retries(2).retryDelay(1);
+        try {
+            task.apply(batch(10));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Service unavailable", e.getCause().getMessage());
+        } finally {
+            task.post();
+        }
+        assertEquals(3, service.getRequests());
+    }
+
+    private static List<Variant> batch(int size) {
+        List<Variant> batch = new ArrayList<>(size);
+        for (int position = 1; position <= size; position++) {
+            batch.add(new Variant("1", position, "A", "G"));
+        }
+        return batch;
+    }
+}
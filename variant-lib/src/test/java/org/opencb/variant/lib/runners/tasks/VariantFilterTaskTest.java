@@ -0,0 +1,64 @@
+package org.opencb.variant.lib.runners.tasks;
+
+import org.junit.Test;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.filters.VariantFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class VariantFilterTaskTest {
+
+    @Test
+    public void cheapSelectiveFilterRunsFirst() throws IOException {
+        List<Variant> variants = new ArrayList<>();
+        final Set<Variant> slowRejected = new HashSet<>();
+        final Set<Variant> fastRejected = new HashSet<>();
+        List<Variant> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Variant variant = new Variant("1", i + 1, "A", "C");
+            variants.add(variant);
+            if (i % 10 == 0) {
+                slowRejected.add(variant);
+            } else if (i % 10 < 9) {
+                fastRejected.add(variant);
+            } else {
+                expected.add(variant);
+            }
+        }
+
+        VariantFilter slow = new VariantFilter() {
+            @Override
+            public boolean apply(Variant variant) {
+                long end = System.nanoTime() + 20000;
+                while (System.nanoTime() < end) {
+                    // Expensive check
+                }
+                return !slowRejected.contains(variant);
+            }
+        };
+        VariantFilter fast = new VariantFilter() {
+            @Override
+            public boolean apply(Variant variant) {
+                return !fastRejected.contains(variant);
+            }
+        };
+
+        VariantFilterTask task = new VariantFilterTask(Arrays.asList(slow, fast));
+        for (int b = 0; b < VariantFilterTask.CALIBRATION_BATCHES + 2; b++) {
+            List<Variant> batch = new ArrayList<>(variants);
+            task.apply(batch);
+            assertEquals(expected, batch);
+        }
+
+        assertSame(fast, task.getOrder().get(0));
+        assertSame(slow, task.getOrder().get(1));
+    }
+}
@@ -0,0 +1,175 @@
+package org.opencb.variant.lib.runners.tasks;
+
+import org.junit.Test;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.VariantStudy;
+import org.opencb.commons.bioformats.variant.filters.VariantGeneLevelFilter;
+import org.opencb.commons.bioformats.variant.vcf4.io.writers.VariantWriter;
+import org.opencb.variant.lib.utils.VariantFields;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VariantGeneLevelFilterTaskTest {
+
+    /**
+     * Keeps the variants at odd positions of the genes with at least two variants
+     */
+    private static final VariantGeneLevelFilter PAIRS = new VariantGeneLevelFilter() {
+        @Override
+        public List<Variant> apply(List<Variant> gene) {
+            List<Variant> passed = new ArrayList<>();
+            if (gene.size() >= 2) {
+                for (Variant variant : gene) {
+                    if (variant.getPosition() % 2 == 1) {
+                        passed.add(variant);
+                    }
+                }
+            }
+            return passed;
+        }
+    };
+
+    @Test
+    public void streamingKeepsInputOrder() throws IOException {
+        String[] genes = {"A", "A", null, "B", "B,C", "C", "D", "D", "D", "E"};
+        String[] chromosomes = {"1", "1", "1", "1", "1", "1", "1", "2", "2", "2"};
+        List<Variant> variants = new ArrayList<>();
+        for (int i = 0; i < genes.length; i++) {
+            Variant variant = new Variant(chromosomes[i], i + 1, "A", "C");
+            if (genes[i] != null) {
+                variant.addAttribute(VariantFields.GENE_KEY, genes[i]);
+            }
+            variants.add(variant);
+        }
+
+        // D is split by the chromosome change, so its only variant in chromosome 1 fails
+        assertEquals(Arrays.asList(1, 5, 9), run(variants, 3, 1));
+    }
+
+    @Test
+    public void streamingKeepsGenesOpenAcrossOtherVariants() throws IOException {
+        // An intergenic variant and one of an overlapping gene only, inside gene A
+        List<Variant> variants = genes(new int[]{101, 150, 200, 301, 350}, "A", null, "B", "A", "B");
+        assertEquals(Arrays.asList(101, 301), run(variants, 2, 1, VariantGeneLevelFilterTask.DEFAULT_GENE_GAP));
+
+        // Too far apart, A and B are split
+        assertEquals(new ArrayList<Integer>(), run(variants, 2, 1, 99));
+    }
+
+    private static List<Variant> genes(int[] positions, String... genes) {
+        List<Variant> variants = new ArrayList<>();
+        for (int i = 0; i < positions.length; i++) {
+            Variant variant = new Variant("1", positions[i], "A", "C");
+            if (genes[i] != null) {
+                variant.addAttribute(VariantFields.GENE_KEY, genes[i]);
+            }
+            variants.add(variant);
+        }
+        return variants;
+    }
+
+    @Test
+    public void streamingRejectsUnsortedInput() {
+        String[][] inputs = {
+                // Position going back
+                {"1:10", "1:20", "1:15"},
+                // Chromosome coming back
+                {"1:10", "2:5", "1:20"}};
+        for (String[] input : inputs) {
+            List<Variant> variants = new ArrayList<>();
+            for (String locus : input) {
+                String[] fields = locus.split(":");
+                Variant variant = new Variant(fields[0], Integer.parseInt(fields[1]), "A", "C");
+                variant.addAttribute(VariantFields.GENE_KEY, "A");
+                variants.add(variant);
+            }
+            try {
+                run(variants, 1, 1);
+                fail(Arrays.toString(input));
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("--sort"));
+            }
+        }
+    }
+
+    @Test
+    public void parallelMatchesSerial() throws IOException {
+        Random random = new Random(11);
+        List<Variant> variants = new ArrayList<>();
+        int gene = 0;
+        for (int i = 1; i <= 5000; i++) {
+            if (random.nextInt(5) == 0) {
+                gene++;
+            }
+            Variant variant = new Variant(i <= 2500 ? "1" : "2", i, "A", "C");
+            if (random.nextInt(7) != 0) {
+                variant.addAttribute(VariantFields.GENE_KEY,
+                        random.nextInt(4) == 0 ? "G" + gene + ",G" + (gene + 1) : "G" + gene);
+            }
+            variants.add(variant);
+        }
+
+        List<Integer> serial = run(variants, 200, 1);
+        assertEquals(serial, run(variants, 200, 4));
+    }
+
+    private List<Integer> run(List<Variant> variants, int batchSize, int threads) throws IOException {
+        return run(variants, batchSize, threads, VariantGeneLevelFilterTask.DEFAULT_GENE_GAP);
+    }
+
+    private List<Integer> run(List<Variant> variants, int batchSize, int threads, long geneGap) throws IOException {
+        final List<Integer> written = new ArrayList<>();
+        VariantWriter writer = new VariantWriter() {
+            @Override
+            public boolean open() {
+                return true;
+            }
+
+            @Override
+            public boolean close() {
+                return true;
+            }
+
+            @Override
+            public boolean pre() {
+                return true;
+            }
+
+            @Override
+            public boolean post() {
+                return true;
+            }
+
+            @Override
+            public boolean write(Variant variant) {
+                written.add(variant.getPosition());
+                return true;
+            }
+
+            @Override
+            public boolean write(List<Variant> batch) {
+                for (Variant variant : batch) {
+                    write(variant);
+                }
+                return true;
+            }
+        };
+
+        VariantGeneLevelFilterTask task = new VariantGeneLevelFilterTask(new VariantStudy("study", "s", "", null, null),
+                Arrays.asList(PAIRS), writer).streaming(true).parallel(threads).geneGap(geneGap);
+        task.pre();
+        for (int start = 0; start < variants.size(); start += batchSize) {
+            task.apply(new ArrayList<>(variants.subList(start, Math.min(start + batchSize, variants.size()))));
+        }
+        task.post();
+        return written;
+    }
+}
@@ -0,0 +1,117 @@
+package org.opencb.variant.lib.runners.tasks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.opencb.commons.bioformats.pedigree.io.readers.PedigreePedReader;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.VariantStudy;
+import org.opencb.commons.bioformats.variant.utils.stats.VariantStatsWrapper;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantReader;
+import org.opencb.commons.bioformats.variant.vcf4.io.readers.VariantVcfReader;
+import org.opencb.commons.bioformats.variant.vcf4.io.writers.VariantWriter;
+import org.opencb.commons.run.Task;
+import org.opencb.variant.lib.runners.ParallelTaskEngine;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class VariantStatsTaskTest {
+
+    private static final int SAMPLES = 12;
+    private static final String[] GENOTYPES = {"0/0", "0/0", "0/0", "0/1", "0|1", "1/1", "./."};
+
+    @Test
+    public void threadsGiveTheSameStats() throws IOException {
+        File vcf = vcf(2000);
+        VariantStudy study = study(vcf);
+
+        VariantStatsWrapper sequential = run(vcf, study, 1).getStats();
+        VariantStatsWrapper parallel = run(vcf, study, 4).getStats();
+
+        assertEquals(json(sequential.getFinalGlobalStats()), json(parallel.getFinalGlobalStats()));
+        assertEquals(json(sequential.getFinalSampleStats()), json(parallel.getFinalSampleStats()));
+        assertEquals(json(sequential.getVariantStats()), json(parallel.getVariantStats()));
+        for (String group : Arrays.asList("phenotype", "family")) {
+            assertEquals(json(sequential.getFinalSampleGroupStat(group)), json(parallel.getFinalSampleGroupStat(group)));
+            assertEquals(json(sequential.getGroupStats(group)), json(parallel.getGroupStats(group)));
+        }
+    }
+
+    private static VariantStatsTask run(File vcf, VariantStudy study, int threads) throws IOException {
+        VariantReader reader = new VariantVcfReader(vcf.getAbsolutePath());
+        reader.open();
+        reader.pre();
+
+        VariantStatsTask task = new VariantStatsTask(reader, study);
+        task.pre();
+        new ParallelTaskEngine<>(reader, Collections.<VariantWriter>emptyList(),
+                Collections.<Task<Variant>>singletonList(task), 100, threads).run();
+        task.post();
+
+        reader.post();
+        reader.close();
+        return task;
+    }
+
+    private static String json(Object stats) throws IOException {
+        return new ObjectMapper().writeValueAsString(stats);
+    }
+
+    private static File vcf(int variants) throws IOException {
+        File vcf = File.createTempFile("stats", ".vcf");
+        vcf.deleteOnExit();
+        Random random = new Random(3);
+        try (FileWriter writer = new FileWriter(vcf)) {
+            writer.write("##fileformat=VCFv4.1\n");
+            writer.write("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+            writer.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+            for (int s = 0; s < SAMPLES; s++) {
+                writer.write("\tS" + s);
+            }
+            writer.write("\n");
+            for (int v = 0; v < variants; v++) {
+                writer.write("1\t" + (1000 + 10 * v) + "\t.\tA\t" + (v % 3 == 0 ? "AT" : "G") + "\t50\tPASS\t.\tGT");
+                for (int s = 0; s < SAMPLES; s++) {
+                    writer.write("\t" + GENOTYPES[random.nextInt(GENOTYPES.length)]);
+                }
+                writer.write("\n");
+            }
+        }
+        return vcf;
+    }
+
+    /**
+     * Four trios with an affected child
+     */
+    private static VariantStudy study(File vcf) throws IOException {
+        File ped = File.createTempFile("stats", ".ped");
+        ped.deleteOnExit();
+        StringBuilder lines = new StringBuilder();
+        for (int s = 0; s < SAMPLES; s++) {
+            boolean child = s % 3 == 2;
+            lines.append("FAM").append(s / 3).append("\tS").append(s)
+                    .append('\t').append(child ? "S" + (s - 2) : "0")
+                    .append('\t').append(child ? "S" + (s - 1) : "0")
+                    .append('\t').append(s % 3 == 1 ? 2 : 1)
+                    .append('\t').append(child ? 2 : 1).append('\n');
+        }
+        Files.write(ped.toPath(), lines.toString().getBytes(StandardCharsets.UTF_8));
+
+        VariantStudy study = new VariantStudy("test", "test", "Test", Arrays.asList("test"),
+                Arrays.asList(vcf.getName(), ped.getName()));
+        PedigreePedReader reader = new PedigreePedReader(ped.getAbsolutePath());
+        if (reader.open()) {
+            study.setPedigree(reader.read());
+            reader.close();
+        }
+        return study;
+    }
+}
@@ -0,0 +1,166 @@
+package org.opencb.variant.lib.stats;
+
+import org.junit.Test;
+import org.opencb.commons.bioformats.pedigree.Condition;
+import org.opencb.commons.bioformats.pedigree.Pedigree;
+import org.opencb.commons.bioformats.pedigree.io.readers.PedigreePedReader;
+import org.opencb.commons.bioformats.variant.Variant;
+import org.opencb.commons.bioformats.variant.stats.StatsCalculator;
+import org.opencb.commons.bioformats.variant.utils.stats.SampleStats;
+import org.opencb.commons.bioformats.variant.utils.stats.VariantSampleStats;
+import org.opencb.commons.bioformats.variant.utils.stats.VariantStats;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.opencb.variant.lib.stats.VariantStatsCounter.FAMILY;
+import static org.opencb.variant.lib.stats.VariantStatsCounter.PHENOTYPE;
+
+public class VariantStatsCounterTest {
+
+    private static final List<String> SAMPLES = Arrays.asList("F1", "M1", "C1", "F2", "M2", "C2", "S7");
+
+    @Test
+    public void matchesStatsCalculator() throws IOException {
+        Pedigree pedigree = pedigree();
+        List<Variant> batch = Arrays.asList(
+                variant(100, "G", "0/0", "0/1", "0/1", "1/1", "0/0", "1/1", "./."),
+                variant(200, "G", "0|1", "1|1", "1|1", "0/0", "0/0", "0/0", "0/1"),
+                variant(300, "AT", "1/1", "./.", "0/1", "0/1", "0/1", "1/1", "0/0"),
+                variant(400, "G,T", "1/2", "0/2", "2/2", "0/1", "1/1", "0/2", "1"));
+
+        VariantStatsCounter counter = new VariantStatsCounter(SAMPLES, pedigree);
+        counter.count(batch);
+
+        assertVariantStats(StatsCalculator.variantStats(batch, SAMPLES, pedigree), counter.getVariantStats());
+        assertSampleStats(StatsCalculator.sampleStats(batch, SAMPLES, pedigree), counter.getSampleStats());
+        for (String group : Arrays.asList(PHENOTYPE, FAMILY)) {
+            Map<String, List<VariantStats>> expected = StatsCalculator.groupStats(batch, pedigree, group).getVariantStats();
+            Map<String, List<VariantStats>> actual = counter.getGroupStats(group).getVariantStats();
+            assertEquals(expected.keySet(), actual.keySet());
+            for (String name : expected.keySet()) {
+                assertVariantStats(expected.get(name), actual.get(name));
+            }
+
+            Map<String, VariantSampleStats> expectedSamples = StatsCalculator.sampleGroupStats(batch, pedigree, group).getSampleStats();
+            Map<String, VariantSampleStats> actualSamples = counter.getSampleGroupStats(group).getSampleStats();
+            assertEquals(expectedSamples.keySet(), actualSamples.keySet());
+            for (String name : expectedSamples.keySet()) {
+                assertSampleStats(expectedSamples.get(name), actualSamples.get(name));
+            }
+        }
+    }
+
+    @Test
+    public void countsEveryGroupInOneWalk() throws IOException {
+        VariantStatsCounter counter = new VariantStatsCounter(SAMPLES, pedigree());
+        counter.count(Arrays.asList(variant(100, "G", "0/0", "0/1", "0/1", "1/1", "0/0", "1/1", "./.")));
+
+        VariantStats stats = counter.getVariantStats().get(0);
+        assertArrayEquals(new int[]{6, 6}, stats.getAllelesCount());
+        assertArrayEquals(new int[]{2, 2, 2}, stats.getGenotypesCount());
+        assertEquals(0.5f, stats.getMaf(), 0);
+        assertEquals(2, stats.getMissingAlleles());
+        assertEquals(1, stats.getMissingGenotypes());
+        // C2 is 1/1 with a 0/0 mother
+        assertEquals(1, stats.getMendelinanErrors());
+        // C1 and C2 are the cases, one heterozygous and one homozygous alternate
+        assertEquals(100f, stats.getCasesPercentDominant(), 0);
+        assertEquals(50f, stats.getCasesPercentRecessive(), 0);
+        assertEquals(50f, stats.getControlsPercentDominant(), 0);
+
+        VariantStats family = counter.getGroupStats(FAMILY).getVariantStats().get("FAM2").get(0);
+        assertArrayEquals(new int[]{2, 4}, family.getAllelesCount());
+        assertEquals(1, family.getMendelinanErrors());
+        // The parents of the cases are controls, so their errors are not within a phenotype
+        VariantStats cases = counter.getGroupStats(PHENOTYPE).getVariantStats().get(Condition.AFFECTED.toString()).get(0);
+        assertArrayEquals(new int[]{1, 3}, cases.getAllelesCount());
+        assertEquals(0, cases.getMendelinanErrors());
+
+        SampleStats child = counter.getSampleGroupStats(FAMILY).getSampleStats().get("FAM2").getSamplesStats().get("C2");
+        assertEquals(1, child.getMendelianErrors());
+        assertEquals(1, child.getHomozygotesNumber());
+        assertEquals(1, counter.getSampleStats().getSamplesStats().get("S7").getMissingGenotypes());
+        assertEquals(1, counter.getSampleStats().getSamplesStats().get("M2").getHomozygotesNumber());
+    }
+
+    @Test
+    public void replacesThePreviousBatch() throws IOException {
+        VariantStatsCounter counter = new VariantStatsCounter(SAMPLES, pedigree());
+        counter.count(Arrays.asList(
+                variant(100, "G", "0/0", "0/1", "0/1", "1/1", "0/0", "1/1", "./."),
+                variant(200, "G,T", "1/2", "0/2", "2/2", "0/1", "1/1", "0/2", "1")));
+        counter.count(Arrays.asList(variant(300, "AT", "1/1", "./.", "0/1", "0/1", "0/1", "1/1", "0/0")));
+
+        assertEquals(1, counter.getVariantStats().size());
+        assertEquals(300, counter.getVariantStats().get(0).getPosition());
+        assertTrue(counter.getVariantStats().get(0).isIndel());
+        assertEquals(1, counter.getGroupStats(FAMILY).getVariantStats().get("FAM1").size());
+        assertEquals(1, counter.getSampleStats().getSamplesStats().get("F1").getHomozygotesNumber());
+        assertEquals(0, counter.getSampleStats().getSamplesStats().get("S7").getMissingGenotypes());
+    }
+
+    private static void assertVariantStats(List<VariantStats> expected, List<VariantStats> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int v = 0; v < expected.size(); v++) {
+            assertArrayEquals(expected.get(v).getAllelesCount(), actual.get(v).getAllelesCount());
+            assertArrayEquals(expected.get(v).getGenotypesCount(), actual.get(v).getGenotypesCount());
+            assertEquals(expected.get(v).getMaf(), actual.get(v).getMaf(), 1e-6);
+            assertEquals(expected.get(v).getMgf(), actual.get(v).getMgf(), 1e-6);
+            assertEquals(expected.get(v).getMissingAlleles(), actual.get(v).getMissingAlleles());
+            assertEquals(expected.get(v).getMissingGenotypes(), actual.get(v).getMissingGenotypes());
+            assertEquals(expected.get(v).getMendelinanErrors(), actual.get(v).getMendelinanErrors());
+            assertEquals(expected.get(v).isIndel(), actual.get(v).isIndel());
+        }
+    }
+
+    private static void assertSampleStats(VariantSampleStats expected, VariantSampleStats actual) {
+        assertEquals(expected.getSamplesStats().keySet(), actual.getSamplesStats().keySet());
+        for (String sample : expected.getSamplesStats().keySet()) {
+            SampleStats expectedStats = expected.getSamplesStats().get(sample);
+            SampleStats actualStats = actual.getSamplesStats().get(sample);
+            assertEquals(expectedStats.getMissingGenotypes(), actualStats.getMissingGenotypes());
+            assertEquals(expectedStats.getHomozygotesNumber(), actualStats.getHomozygotesNumber());
+            assertEquals(expectedStats.getMendelianErrors(), actualStats.getMendelianErrors());
+        }
+    }
+
+    private static Variant variant(int position, String alternate, String... genotypes) {
+        Variant variant = new Variant("1", position, "A", alternate);
+        for (int s = 0; s < genotypes.length; s++) {
+            Map<String, String> data = new HashMap<>();
+            data.put("GT", genotypes[s]);
+            variant.addSampleData(SAMPLES.get(s), data);
+        }
+        return variant;
+    }
+
+    /**
+     * Two trios with an affected child, S7 is not in the pedigree
+     */
+    private static Pedigree pedigree() throws IOException {
+        File ped = File.createTempFile("counter", ".ped");
+        ped.deleteOnExit();
+        try (FileWriter writer = new FileWriter(ped)) {
+            writer.write("FAM1\tF1\t0\t0\t1\t1\n");
+            writer.write("FAM1\tM1\t0\t0\t2\t1\n");
+            writer.write("FAM1\tC1\tF1\tM1\t1\t2\n");
+            writer.write("FAM2\tF2\t0\t0\t1\t1\n");
+            writer.write("FAM2\tM2\t0\t0\t2\t1\n");
+            writer.write("FAM2\tC2\tF2\tM2\t2\t2\n");
+        }
+        PedigreePedReader reader = new PedigreePedReader(ped.getAbsolutePath());
+        reader.open();
+        Pedigree pedigree = reader.read();
+        reader.close();
+        return pedigree;
+    }
+}